@@ -0,0 +1,431 @@
+/******************************************************************************
+ * Product: iDempiere Business Suite ERP/CRM/SCM                              *
+ * This program is free software; you can redistribute it and/or modify it    *
+ * under the terms version 2 of the GNU General Public License as published   *
+ * by the Free Software Foundation. This program is distributed in the hope   *
+ * that it will be useful, but WITHOUT ANY WARRANTY; without even the implied *
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.           *
+ * See the GNU General Public License for more details.                       *
+ * You should have received a copy of the GNU General Public License along    *
+ * with this program; if not, write to the Free Software Foundation, Inc.,    *
+ * 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA.                     *
+ *****************************************************************************/
+package de.bxservice.sepa.loadtest;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.sql.Timestamp;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.compiere.model.MPaySelectionCheck;
+import org.compiere.util.Env;
+
+import de.bxservice.sepa.SEPALineReferences;
+import de.bxservice.sepa.SEPAPaymentExport;
+import de.bxservice.sepa.source.SEPABankAccount;
+import de.bxservice.sepa.source.SEPACheck;
+import de.bxservice.sepa.source.SEPAInvoice;
+import de.bxservice.sepa.source.SEPAPartner;
+import de.bxservice.sepa.source.SEPAPartnerAccount;
+import de.bxservice.sepa.source.SEPAPaySelection;
+import de.bxservice.sepa.source.SEPAPaySelectionLine;
+import de.bxservice.sepa.source.SEPARoundTrips;
+
+/**
+ * Load test of the export at production scale without an ERP instance.
+ * <p>
+ * Seeds a {@link StandInExportSource} with synthetic partners, bank accounts,
+ * mandates, invoices, orders, a pay selection and bank holidays, runs
+ * {@link SEPAPaymentExport#exportToFile(de.bxservice.sepa.source.SEPAExportSource, List, String, java.io.File, StringBuffer)}
+ * and reports wall time, peak heap, bytes written and database round trips of
+ * every run. Exits with 1 if a run exceeds a budget and with 2 if the export
+ * fails.
+ * <p>
+ * The round trips are those the stand-in records with the caching of the
+ * iDempiere model classes. The same export through {@link de.bxservice.sepa.POExportSource}
+ * on a real database is measured by the process {@link de.bxservice.sepa.SEPAExportBenchmarkProcess}
+ * on a test system, with checks it seeds at the volume of the --checks option.
+ * <p>
+ * Run it with the launch configuration SEPAExportLoadTest.launch of this
+ * folder, or with the plugin and org.adempiere.base on the class path:
+ *
+ * <pre>
+ * java -Xmx4g de.bxservice.sepa.loadtest.SEPAExportLoadTest --checks=200000 --rule=D --maxMillis=30000 --maxRoundTripsPerTrx=4
+ * </pre>
+ *
+ * Options (default):
+ * <ul>
+ * <li>--checks=n number of checks (10000)</li>
+ * <li>--lines=n invoices per check (2)</li>
+ * <li>--rule=T|D credit transfer or direct debit (T)</li>
+ * <li>--holidays=n bank holidays after the pay date the date shift has to skip (3)</li>
+ * <li>--latencyMicros=n simulated duration of one round trip (0)</li>
+ * <li>--cacheSize=n entries per table of the simulated model caches (20)</li>
+ * <li>--orgs=n creditor organizations the checks are spread over, one PmtInf each (1)</li>
+ * <li>--unstaged lines without the remittance information the event handler stores, else every 11th
+ * check has an invoice edited after it was stored and every 13th was stored with another template</li>
+ * <li>--chunkSize=n transactions rendered per fork-join task, 0 for one thread (SEPA_RENDER_CHUNK_SIZE)</li>
+ * <li>--checkpointSize=n transactions per checkpoint chunk, 0 for none (SEPA_CHECKPOINT_SIZE)</li>
+ * <li>--prefetchSize=n checks whose data is read at once, 0 for check by check (SEPA_PREFETCH_SIZE)</li>
+ * <li>--failAt=n let the database fail at the n-th transaction, the measured run resumes the failed one</li>
+ * <li>--warmup=n runs before the measured ones, not checked against the budget (1)</li>
+ * <li>--runs=n measured runs (3)</li>
+ * <li>--out=dir directory of the exported files (temporary directory)</li>
+ * <li>--keep keep the exported files</li>
+ * <li>--maxMillis=n budget of the wall time per run</li>
+ * <li>--maxHeapMB=n budget of the heap the export uses on top of the seeded data</li>
+ * <li>--maxBytes=n budget of the file size</li>
+ * <li>--maxRoundTripsPerTrx=n budget of the round trips per transaction</li>
+ * </ul>
+ *
+ * @author Diego Ruiz - Bx Service GmbH
+ */
+public class SEPAExportLoadTest {
+
+	private static final int ORG_ID = 11;
+	private static final int CURRENCY_ID = 102;
+	private static final int BANKACCOUNT_ID = 100;
+	private static final int PAYSELECTION_ID = 1000000;
+	private static final String HOLIDAY_KEYWORD = "Bankfeiertag";
+
+	private static final String[] NAMES = { "Müller GmbH & Co. KG", "Schäfer Bau AG", "Garten Weiß e.K.",
+			"Café Élise", "Bx Service GmbH", "Jörg Groß" };
+
+	private int checks = 10000;
+	private int lines = 2;
+	private String paymentRule = MPaySelectionCheck.PAYMENTRULE_DirectDeposit;
+	private int holidays = 3;
+	private long latencyMicros = 0;
+	private int cacheSize = 20;
+	private int orgs = 1;
+	private boolean staged = true;
+	private String chunkSize;
+	private String checkpointSize;
+	private String prefetchSize;
+	private int failAt = -1;
+	private int warmup = 1;
+	private int runs = 3;
+	private Path outDirectory;
+	private boolean keep = false;
+	private long maxMillis = -1;
+	private long maxHeapMB = -1;
+	private long maxBytes = -1;
+	private double maxRoundTripsPerTrx = -1;
+
+	public static void main(String[] args) throws Exception {
+		SEPAExportLoadTest test = new SEPAExportLoadTest();
+		for (String arg : args)
+			test.setOption(arg);
+		System.exit(test.run());
+	}
+
+	private void setOption(String arg) {
+		String name = arg.contains("=") ? arg.substring(0, arg.indexOf('=')) : arg;
+		String value = arg.contains("=") ? arg.substring(arg.indexOf('=') + 1) : null;
+		switch (name) {
+		case "--checks" -> checks = Integer.parseInt(value);
+		case "--lines" -> lines = Integer.parseInt(value);
+		case "--rule" -> paymentRule = value;
+		case "--holidays" -> holidays = Integer.parseInt(value);
+		case "--latencyMicros" -> latencyMicros = Long.parseLong(value);
+		case "--cacheSize" -> cacheSize = Integer.parseInt(value);
+		case "--orgs" -> orgs = Integer.parseInt(value);
+		case "--unstaged" -> staged = false;
+		case "--chunkSize" -> chunkSize = value;
+		case "--checkpointSize" -> checkpointSize = value;
+		case "--prefetchSize" -> prefetchSize = value;
+		case "--failAt" -> failAt = Integer.parseInt(value);
+		case "--warmup" -> warmup = Integer.parseInt(value);
+		case "--runs" -> runs = Integer.parseInt(value);
+		case "--out" -> outDirectory = Paths.get(value);
+		case "--keep" -> keep = true;
+		case "--maxMillis" -> maxMillis = Long.parseLong(value);
+		case "--maxHeapMB" -> maxHeapMB = Long.parseLong(value);
+		case "--maxBytes" -> maxBytes = Long.parseLong(value);
+		case "--maxRoundTripsPerTrx" -> maxRoundTripsPerTrx = Double.parseDouble(value);
+		default -> throw new IllegalArgumentException("Unknown option " + arg);
+		}
+	}
+
+	private int run() throws Exception {
+		if (outDirectory == null)
+			outDirectory = Files.createTempDirectory("sepa-loadtest");
+		Files.createDirectories(outDirectory);
+
+		boolean directDebit = MPaySelectionCheck.PAYMENTRULE_DirectDebit.equals(paymentRule);
+		System.out.printf("%d checks with %d %s lines, %s, %d microseconds latency, output in %s%n", checks, lines,
+				staged ? "staged" : "unstaged", directDebit ? "direct debit" : "credit transfer", latencyMicros,
+				outDirectory);
+
+		int result = 0;
+		for (int i = 1; i <= warmup + runs; i++) {
+			boolean measured = i > warmup;
+			// direct debits change the sequence type of the mandates, every run starts from fresh data
+			StandInExportSource db = new StandInExportSource(cacheSize, latencyMicros);
+			List<SEPACheck> checkList = seed(db);
+
+			Path file = outDirectory.resolve("run-" + i + (directDebit ? ".zip" : ".xml"));
+			RunResult run = runExport(db, checkList, file);
+			if (run == null)
+				return 2;
+
+			System.out.printf("%s %d: %d ms, peak heap %d MB (%d MB above the seeded data), %d bytes, "
+					+ "%d round trips (%.2f per transaction)%n", measured ? "run" : "warmup", i, run.millis,
+					run.peakHeap >> 20, run.exportHeap >> 20, run.bytes, run.roundTrips.getTotal(),
+					run.roundTrips.getPerTransaction(checks));
+			if (measured && !checkBudget(run))
+				result = 1;
+			if (measured && i == warmup + runs) {
+				System.out.println("round trips per table and call site:");
+				for (Map.Entry<String, Long> entry : run.roundTrips.getCounts().entrySet())
+					System.out.printf("  %10d  %s%n", entry.getValue(), entry.getKey());
+			}
+		}
+		return result;
+	}
+
+	private RunResult runExport(StandInExportSource db, List<SEPACheck> checkList, Path file) throws Exception {
+		List<MemoryPoolMXBean> heapPools = new ArrayList<>();
+		for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+			if (pool.getType() == MemoryType.HEAP)
+				heapPools.add(pool);
+		}
+		System.gc();
+		long baseline = 0;
+		for (MemoryPoolMXBean pool : heapPools) {
+			pool.resetPeakUsage();
+			baseline += pool.getUsage().getUsed();
+		}
+
+		StringBuffer err = new StringBuffer();
+		if (failAt > 0) {
+			db.failAfter = failAt - 1;
+			SEPAPaymentExport failing = new SEPAPaymentExport();
+			failing.setCheckpointDirectory(outDirectory);
+			try (SEPARoundTrips failed = SEPARoundTrips.start(false)) {
+				if (failing.exportToFile(db, checkList, paymentRule, file.toFile(), err) >= 0) {
+					System.out.println("Export did not fail at transaction " + failAt);
+					return null;
+				}
+				System.out.printf("  failed after %d round trips, resuming%n", failed.getTotal());
+			}
+			db.failAfter = -1;
+			db.reset();
+			err.setLength(0);
+		}
+
+		SEPAPaymentExport export = new SEPAPaymentExport();
+		export.setCheckpointDirectory(outDirectory);
+		SEPARoundTrips roundTrips = SEPARoundTrips.start(true);
+		long start = System.nanoTime();
+		int no;
+		try {
+			no = export.exportToFile(db, checkList, paymentRule, file.toFile(), err);
+		} finally {
+			roundTrips.close();
+		}
+		long millis = (System.nanoTime() - start) / 1_000_000;
+
+		if (no < 0) {
+			System.out.println("Export failed: " + err);
+			return null;
+		}
+
+		RunResult result = new RunResult();
+		result.millis = millis;
+		for (MemoryPoolMXBean pool : heapPools)
+			result.peakHeap += pool.getPeakUsage().getUsed();
+		result.exportHeap = Math.max(0, result.peakHeap - baseline);
+		result.bytes = Files.size(file);
+		result.roundTrips = roundTrips;
+
+		if (!keep)
+			Files.deleteIfExists(file);
+		return result;
+	}
+
+	private boolean checkBudget(RunResult run) {
+		boolean ok = true;
+		if (maxMillis >= 0 && run.millis > maxMillis) {
+			System.out.printf("  budget exceeded: %d ms > %d ms%n", run.millis, maxMillis);
+			ok = false;
+		}
+		if (maxHeapMB >= 0 && (run.exportHeap >> 20) > maxHeapMB) {
+			System.out.printf("  budget exceeded: %d MB heap > %d MB%n", run.exportHeap >> 20, maxHeapMB);
+			ok = false;
+		}
+		if (maxBytes >= 0 && run.bytes > maxBytes) {
+			System.out.printf("  budget exceeded: %d bytes > %d bytes%n", run.bytes, maxBytes);
+			ok = false;
+		}
+		double roundTripsPerTrx = run.roundTrips.getPerTransaction(checks);
+		if (maxRoundTripsPerTrx >= 0 && roundTripsPerTrx > maxRoundTripsPerTrx) {
+			System.out.printf("  budget exceeded: %.2f round trips per transaction > %.2f%n", roundTripsPerTrx,
+					maxRoundTripsPerTrx);
+			ok = false;
+		}
+		return ok;
+	}
+
+	/**
+	 * Fills the stand-in with one pay selection of synthetic checks
+	 *
+	 * @return the checks of the pay selection
+	 */
+	private List<SEPACheck> seed(StandInExportSource db) {
+		Random random = new Random(42);
+		LocalDate payDate = LocalDate.now();
+		Env.setContext(Env.getCtx(), "#Date", Timestamp.valueOf(payDate.atStartOfDay()));
+
+		db.orgNames.put(ORG_ID, "Bx Service GmbH");
+		db.creditorIdentifiers.put(ORG_ID, "DE98ZZZ09999999999");
+		for (int i = 1; i < orgs; i++) {
+			db.orgNames.put(ORG_ID + i, "Bx Service GmbH Filiale " + i);
+			db.creditorIdentifiers.put(ORG_ID + i, "DE98ZZZ0" + (9999999999L - i));
+		}
+		db.currencies.put(CURRENCY_ID, "EUR");
+		db.config.put("SEPA_BANKHOLIDAY_KEYWORD", "%" + HOLIDAY_KEYWORD + "%");
+		if (chunkSize != null)
+			db.config.put("SEPA_RENDER_CHUNK_SIZE", chunkSize);
+		if (checkpointSize != null)
+			db.config.put("SEPA_CHECKPOINT_SIZE", checkpointSize);
+		if (prefetchSize != null)
+			db.config.put("SEPA_PREFETCH_SIZE", prefetchSize);
+
+		SEPABankAccount bankAccount = new SEPABankAccount();
+		bankAccount.setC_BankAccount_ID(BANKACCOUNT_ID);
+		bankAccount.setIBAN(iban(370400440532013000L));
+		bankAccount.setBIC("COBADEFFXXX");
+		db.bankAccounts.put(BANKACCOUNT_ID, bankAccount);
+
+		SEPAPaySelection paySelection = new SEPAPaySelection();
+		paySelection.setC_PaySelection_ID(PAYSELECTION_ID);
+		paySelection.setAD_Org_ID(ORG_ID);
+		paySelection.setC_BankAccount_ID(BANKACCOUNT_ID);
+		paySelection.setC_Currency_ID(CURRENCY_ID);
+		paySelection.setCreated(new Timestamp(System.currentTimeMillis()));
+		paySelection.setPayDate(Timestamp.valueOf(payDate.atStartOfDay()));
+		db.paySelections.put(PAYSELECTION_ID, paySelection);
+
+		LocalDate day = payDate;
+		for (int i = 0; i < holidays; day = day.plusDays(1)) {
+			if (day.getDayOfWeek().getValue() <= 5) {
+				db.nonBusinessDays.put(Timestamp.valueOf(day.atStartOfDay()), HOLIDAY_KEYWORD + " " + ++i);
+			}
+		}
+
+		List<SEPACheck> checkList = new ArrayList<>(checks);
+		for (int i = 0; i < checks; i++) {
+			int bpartnerId = 2000000 + i;
+			SEPAPartner partner = new SEPAPartner();
+			partner.setC_BPartner_ID(bpartnerId);
+			partner.setName(NAMES[i % NAMES.length] + " " + i);
+			if (i % 3 == 0)
+				partner.setReferenceNo("K" + (10000 + i));
+			db.partners.put(bpartnerId, partner);
+
+			SEPAPartnerAccount account = new SEPAPartnerAccount();
+			account.setC_BP_BankAccount_ID(3000000 + i);
+			account.setC_BPartner_ID(bpartnerId);
+			account.setActive(true);
+			account.setDirectDebit(true);
+			account.setDirectDeposit(true);
+			account.setIBAN(iban(500105170000000000L + i));
+			account.setBIC(i % 2 == 0 ? "INGDDEFFXXX" : null);
+			account.setA_Name(partner.getName());
+			account.setMndtId("MNDT-" + bpartnerId);
+			account.setMandateDate(Timestamp.valueOf(payDate.minusDays(30 + i % 700).atStartOfDay()));
+			account.setSEPASDDScheme(i % 5 == 0 ? "B2B" : "COR1");
+			account.setTransferred(i % 4 != 0);
+			List<SEPAPartnerAccount> accounts = new ArrayList<>(1);
+			accounts.add(account);
+			db.partnerAccounts.put(bpartnerId, accounts);
+
+			int checkId = 4000000 + i;
+			BigDecimal payAmt = BigDecimal.ZERO;
+			List<SEPAPaySelectionLine> checkLines = new ArrayList<>(lines);
+			for (int j = 0; j < lines; j++) {
+				int invoiceId = 5000000 + i * lines + j;
+				SEPAInvoice invoice = new SEPAInvoice();
+				invoice.setC_Invoice_ID(invoiceId);
+				invoice.setC_BPartner_ID(bpartnerId);
+				invoice.setDocumentNo("RE" + invoiceId);
+				invoice.setDateInvoiced(Timestamp.valueOf(payDate.minusDays(random.nextInt(60)).atStartOfDay()));
+				invoice.setGrandTotal(BigDecimal.valueOf(100 + random.nextInt(1000000), 2));
+				if (j % 2 == 0) {
+					invoice.setC_Order_ID(invoiceId + 1000000);
+					db.orders.put(invoice.getC_Order_ID(), "AB" + invoice.getC_Order_ID());
+				}
+				if (i % 5 == 0)
+					invoice.setPOReference("PO-" + i);
+				db.invoices.put(invoiceId, invoice);
+
+				SEPAPaySelectionLine line = new SEPAPaySelectionLine();
+				line.setC_PaySelectionLine_ID(7000000 + i * lines + j);
+				line.setC_PaySelectionCheck_ID(checkId);
+				line.setC_Invoice_ID(invoiceId);
+				if (j == 0 && i % 7 == 0)
+					line.setDescription("Skonto 2%");
+				// every 11th check was edited after its lines were staged and every 13th was
+				// staged with another template, the export must not use their stored text
+				boolean edited = i % 11 == 0;
+				boolean otherTemplate = i % 13 == 0;
+				if (staged) {
+					line.setSepaRemittanceInfo(edited || otherTemplate ? "stale"
+							: SEPALineReferences.getRemittanceInformation(db, line, invoice));
+					line.setSepaEndToEndId(SEPALineReferences.getEndToEndId(invoice));
+					line.setSepaStaged(Timestamp.valueOf(payDate.minusDays(1).atStartOfDay()));
+					line.setSepaTemplateHash(otherTemplate ? "00000000" : SEPALineReferences.getTemplate(db).getHash());
+				}
+				line.setInvoiceUpdated(Timestamp.valueOf(payDate.minusDays(edited ? 0 : 2).atStartOfDay()));
+				// the partner of every 17th check changed after staging, e.g. its open balance,
+				// which only matters if the template shows its ReferenceNo
+				line.setPartnerUpdated(Timestamp.valueOf(payDate.minusDays(i % 17 == 0 ? 0 : 2).atStartOfDay()));
+				if (invoice.getC_Order_ID() > 0)
+					line.setOrderUpdated(Timestamp.valueOf(payDate.minusDays(2).atStartOfDay()));
+				checkLines.add(line);
+				payAmt = payAmt.add(invoice.getGrandTotal());
+			}
+			db.paySelectionLines.put(checkId, checkLines);
+
+			SEPACheck check = new SEPACheck();
+			check.setC_PaySelectionCheck_ID(checkId);
+			check.setC_PaySelection_ID(PAYSELECTION_ID);
+			check.setC_BPartner_ID(bpartnerId);
+			check.setAD_Org_ID(ORG_ID + i % orgs);
+			check.setPayAmt(payAmt);
+			checkList.add(check);
+		}
+		// staging happened when the lines were saved, not during the export
+		db.reset();
+		return checkList;
+	}
+
+	/**
+	 * @return German IBAN with valid check digits
+	 */
+	private static String iban(long bban) {
+		String number = String.format("%018d", bban);
+		int checkDigits = 98 - new BigInteger(number + "131400").mod(BigInteger.valueOf(97)).intValue();
+		return String.format("DE%02d%s", checkDigits, number);
+	}
+
+	private static class RunResult {
+		long millis;
+		long peakHeap;
+		long exportHeap;
+		long bytes;
+		SEPARoundTrips roundTrips;
+	}
+
+}
@@ -0,0 +1,179 @@
+/******************************************************************************
+ * Product: iDempiere Business Suite ERP/CRM/SCM                              *
+ * This program is free software; you can redistribute it and/or modify it    *
+ * under the terms version 2 of the GNU General Public License as published   *
+ * by the Free Software Foundation. This program is distributed in the hope   *
+ * that it will be useful, but WITHOUT ANY WARRANTY; without even the implied *
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.           *
+ * See the GNU General Public License for more details.                       *
+ * You should have received a copy of the GNU General Public License along    *
+ * with this program; if not, write to the Free Software Foundation, Inc.,    *
+ * 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA.                     *
+ *****************************************************************************/
+package de.bxservice.sepa.loadtest;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.stream.IntStream;
+
+import de.bxservice.sepa.source.SEPARoundTrips;
+
+/**
+ * Checks that {@link SEPARoundTrips} counts the statements the JDBC driver
+ * reports for the recorded thread only, and blames a round trip on the export
+ * method that caused it, also when it is sent in a lambda that the JDK calls.
+ * Exits with 1 if a check fails.
+ *
+ * <pre>
+ * java de.bxservice.sepa.loadtest.SEPARoundTripsTest
+ * </pre>
+ *
+ * @author Diego Ruiz - Bx Service GmbH
+ */
+public class SEPARoundTripsTest {
+
+	private static final Logger s_driverLog = Logger.getLogger("org.postgresql.core.v3.QueryExecutorImpl");
+
+	private int failures = 0;
+
+	public static void main(String[] args) throws Exception {
+		SEPARoundTripsTest test = new SEPARoundTripsTest();
+		test.testDirectCount();
+		test.testCountInComputeIfAbsent();
+		test.testCountInStream();
+		test.testWithoutCallSites();
+		test.testNotRecorded();
+		test.testDriverStatements();
+		test.testOtherThread();
+		System.out.println(test.failures == 0 ? "OK" : test.failures + " failed");
+		System.exit(test.failures == 0 ? 0 : 1);
+	}
+
+	private void testDirectCount() {
+		try (SEPARoundTrips roundTrips = SEPARoundTrips.start(true)) {
+			SEPARoundTrips.record("C_Order");
+			check("direct count", roundTrips, "C_Order @ SEPARoundTripsTest.testDirectCount");
+		}
+	}
+
+	private void testCountInComputeIfAbsent() {
+		LambdaSource source = new LambdaSource();
+		try (SEPARoundTrips roundTrips = SEPARoundTrips.start(true)) {
+			createGroupHeader(source);
+			createGroupHeader(source);
+			check("count in computeIfAbsent", roundTrips, "AD_Org @ SEPARoundTripsTest.createGroupHeader");
+		}
+	}
+
+	private void testCountInStream() {
+		LambdaSource source = new LambdaSource();
+		try (SEPARoundTrips roundTrips = SEPARoundTrips.start(true)) {
+			IntStream.of(1).forEach(i -> source.getCurrencyISOCode(102));
+			check("count in a stream", roundTrips, "C_Currency @ SEPARoundTripsTest.testCountInStream");
+		}
+	}
+
+	private void testWithoutCallSites() {
+		try (SEPARoundTrips roundTrips = SEPARoundTrips.start(false)) {
+			SEPARoundTrips.record("C_Invoice");
+			check("without call sites", roundTrips, "C_Invoice");
+		}
+	}
+
+	private void testNotRecorded() {
+		SEPARoundTrips.record("C_Invoice");
+		sendStatement("SELECT * FROM C_Invoice WHERE C_Invoice_ID=$1");
+		try (SEPARoundTrips roundTrips = SEPARoundTrips.start(true)) {
+			check("nothing before the start", roundTrips, null);
+		}
+	}
+
+	private void testDriverStatements() {
+		try (SEPARoundTrips roundTrips = SEPARoundTrips.start(true)) {
+			// a PO load with a subquery of a virtual column
+			sendStatement("SELECT C_Invoice_ID,(SELECT Name FROM C_BPartner bp WHERE bp.C_BPartner_ID=x.C_BPartner_ID)"
+					+ " FROM adempiere.C_Invoice x WHERE C_Invoice_ID=$1");
+			check("statement parsed by the driver", roundTrips, "C_Invoice @ SEPARoundTripsTest.sendStatement");
+		}
+		try (SEPARoundTrips roundTrips = SEPARoundTrips.start(false)) {
+			// a statement the connection has prepared before is not parsed again
+			s_driverLog.log(Level.FINEST, "  simple execute, handler={0}, maxRows={1}, fetchSize={2}, flags={3}",
+					new Object[] { "handler", 0, 0, 17 });
+			check("prepared statement", roundTrips, "statement");
+		}
+	}
+
+	private void testOtherThread() throws InterruptedException {
+		try (SEPARoundTrips roundTrips = SEPARoundTrips.start(true)) {
+			Thread thread = new Thread(() -> sendStatement("SELECT DocumentNo FROM C_Order WHERE C_Order_ID=$1"));
+			thread.start();
+			thread.join();
+			sendStatement("UPDATE C_BP_BankAccount SET IsTransferred=$1 WHERE C_BP_BankAccount_ID=$2");
+			check("other thread", roundTrips, "C_BP_BankAccount @ SEPARoundTripsTest.sendStatement");
+		}
+	}
+
+	/**
+	 * Logs a statement as the PostgreSQL JDBC driver does when it sends one that
+	 * is not prepared yet, the call site of the statement is this method
+	 */
+	private static void sendStatement(String sql) {
+		s_driverLog.log(Level.FINEST, "  simple execute, handler={0}, maxRows={1}, fetchSize={2}, flags={3}",
+				new Object[] { "handler", 0, 0, 17 });
+		s_driverLog.log(Level.FINEST, " FE=> Parse(stmt={0},query=\"{1}\",oids={2})",
+				new Object[] { null, sql, "{23}" });
+		s_driverLog.log(Level.FINEST, " FE=> Execute(portal={0},limit={1})", new Object[] { null, 0 });
+		s_driverLog.log(Level.FINEST, " FE=> Sync");
+	}
+
+	/**
+	 * Stands for an export method that reads through the source
+	 */
+	private String createGroupHeader(LambdaSource source) {
+		return source.getOrgName(11);
+	}
+
+	/**
+	 * @param expected the only key counted once, null for no round trip
+	 */
+	private void check(String name, SEPARoundTrips roundTrips, String expected) {
+		Map<String, Long> counts = roundTrips.getCounts();
+		boolean ok = expected == null ? counts.isEmpty() && roundTrips.getTotal() == 0
+				: counts.size() == 1 && counts.containsKey(expected) && counts.get(expected) == 1
+						&& roundTrips.getTotal() == 1;
+		if (ok) {
+			System.out.println("ok      " + name);
+		} else {
+			System.out.println("FAILED  " + name + ": expected 1 " + expected + ", got " + counts);
+			failures++;
+		}
+	}
+
+	/**
+	 * A source that sends its lookups inside {@code computeIfAbsent}
+	 */
+	private static class LambdaSource extends StandInExportSource {
+		private final Map<Integer, String> names = new HashMap<>();
+
+		LambdaSource() {
+			super(20, 0);
+		}
+
+		@Override
+		public String getOrgName(int AD_Org_ID) {
+			return names.computeIfAbsent(AD_Org_ID, id -> {
+				SEPARoundTrips.record("AD_Org");
+				return "Org " + id;
+			});
+		}
+
+		@Override
+		public String getCurrencyISOCode(int C_Currency_ID) {
+			SEPARoundTrips.record("C_Currency");
+			return "EUR";
+		}
+	}
+
+}
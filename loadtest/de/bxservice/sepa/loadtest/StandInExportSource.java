@@ -0,0 +1,301 @@
+/******************************************************************************
+ * Product: iDempiere Business Suite ERP/CRM/SCM                              *
+ * This program is free software; you can redistribute it and/or modify it    *
+ * under the terms version 2 of the GNU General Public License as published   *
+ * by the Free Software Foundation. This program is distributed in the hope   *
+ * that it will be useful, but WITHOUT ANY WARRANTY; without even the implied *
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.           *
+ * See the GNU General Public License for more details.                       *
+ * You should have received a copy of the GNU General Public License along    *
+ * with this program; if not, write to the Free Software Foundation, Inc.,    *
+ * 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA.                     *
+ *****************************************************************************/
+package de.bxservice.sepa.loadtest;
+
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.locks.LockSupport;
+import java.util.regex.Pattern;
+
+import de.bxservice.sepa.source.SEPABankAccount;
+import de.bxservice.sepa.source.SEPACheck;
+import de.bxservice.sepa.source.SEPAExportSource;
+import de.bxservice.sepa.source.SEPAInvoice;
+import de.bxservice.sepa.source.SEPAPartner;
+import de.bxservice.sepa.source.SEPAPartnerAccount;
+import de.bxservice.sepa.source.SEPAPaySelection;
+import de.bxservice.sepa.source.SEPAPaySelectionLine;
+import de.bxservice.sepa.source.SEPARoundTrips;
+
+/**
+ * In-memory stand-in of the database tables the export reads.
+ * <p>
+ * Every lookup the real source would send to the database is recorded as one
+ * round trip, where the JDBC driver would report it, and can be delayed by a
+ * simulated latency. Lookups the iDempiere model
+ * classes serve from a cache (business partners, invoices, organizations,
+ * currencies, bank accounts, SysConfig) only count when the key is not in a
+ * small LRU cache per table, like the CCache of the model class. A prefetch
+ * is one round trip per query of the real source, the lookups of the
+ * prefetched keys are free until the next prefetch.
+ *
+ * @author Diego Ruiz - Bx Service GmbH
+ */
+public class StandInExportSource implements SEPAExportSource {
+
+	final Map<Integer, SEPAPaySelection> paySelections = new HashMap<>();
+	final Map<Integer, SEPABankAccount> bankAccounts = new HashMap<>();
+	final Map<Integer, String> orgNames = new HashMap<>();
+	final Map<Integer, String> creditorIdentifiers = new HashMap<>();
+	final Map<Integer, String> currencies = new HashMap<>();
+	final Map<Integer, SEPAPartner> partners = new HashMap<>();
+	final Map<Integer, List<SEPAPartnerAccount>> partnerAccounts = new HashMap<>();
+	final Map<Integer, List<SEPAPaySelectionLine>> paySelectionLines = new HashMap<>();
+	final Map<Integer, SEPAInvoice> invoices = new HashMap<>();
+	final Map<Integer, String> orders = new HashMap<>();
+	/** Name of the non-business day per day */
+	final Map<Timestamp, String> nonBusinessDays = new HashMap<>();
+	final Map<String, String> config = new HashMap<>();
+	String clientName = "GardenWorld";
+
+	private final int cacheSize;
+	private final long latencyNanos;
+	private final Map<String, Map<Object, Boolean>> caches = new HashMap<>();
+	private final Set<Integer> prefetchedChecks = new HashSet<>();
+	private final Set<Integer> prefetchedInvoices = new HashSet<>();
+	private final Set<Integer> prefetchedOrders = new HashSet<>();
+	private final Set<Integer> prefetchedPartners = new HashSet<>();
+	private final Set<Integer> prefetchedPartnerAccounts = new HashSet<>();
+	/** pay selection lines that can be read before the database fails, -1 for no failure */
+	int failAfter = -1;
+
+	/**
+	 * @param cacheSize     entries per table of the simulated model cache
+	 * @param latencyMicros simulated duration of one round trip
+	 */
+	public StandInExportSource(int cacheSize, long latencyMicros) {
+		this.cacheSize = cacheSize;
+		this.latencyNanos = latencyMicros * 1000;
+	}
+
+	/**
+	 * Clears the simulated caches and what was prefetched
+	 */
+	public void reset() {
+		caches.clear();
+		prefetchedChecks.clear();
+		prefetchedInvoices.clear();
+		prefetchedOrders.clear();
+		prefetchedPartners.clear();
+		prefetchedPartnerAccounts.clear();
+	}
+
+	/**
+	 * A lookup that always goes to the database, recorded as the driver would
+	 */
+	private void query(String table) {
+		SEPARoundTrips.record(table);
+		if (latencyNanos > 0)
+			LockSupport.parkNanos(latencyNanos);
+	}
+
+	/**
+	 * A lookup through the cache of a model class
+	 */
+	private void cachedQuery(String table, Object key) {
+		Map<Object, Boolean> cache = caches.computeIfAbsent(table, k -> new LruCache(cacheSize));
+		if (cache.put(key, Boolean.TRUE) == null)
+			query(table);
+	}
+
+	private static class LruCache extends LinkedHashMap<Object, Boolean> {
+		private static final long serialVersionUID = 1L;
+		private final int maxSize;
+
+		LruCache(int maxSize) {
+			super(16, 0.75f, true);
+			this.maxSize = maxSize;
+		}
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<Object, Boolean> eldest) {
+			return size() > maxSize;
+		}
+	}
+
+	@Override
+	public SEPAPaySelection getPaySelection(int C_PaySelection_ID) {
+		cachedQuery("C_PaySelection", C_PaySelection_ID);
+		return paySelections.get(C_PaySelection_ID);
+	}
+
+	@Override
+	public SEPABankAccount getBankAccount(int C_BankAccount_ID) {
+		cachedQuery("C_BankAccount", C_BankAccount_ID);
+		return bankAccounts.get(C_BankAccount_ID);
+	}
+
+	@Override
+	public String getOrgName(int AD_Org_ID) {
+		cachedQuery("AD_Org", AD_Org_ID);
+		return orgNames.get(AD_Org_ID);
+	}
+
+	@Override
+	public String getClientName() {
+		cachedQuery("AD_Client", 0);
+		return clientName;
+	}
+
+	@Override
+	public String getCreditorIdentifier(int AD_Org_ID) {
+		cachedQuery("AD_OrgInfo", AD_Org_ID);
+		return creditorIdentifiers.get(AD_Org_ID);
+	}
+
+	@Override
+	public String getCurrencyISOCode(int C_Currency_ID) {
+		cachedQuery("C_Currency", C_Currency_ID);
+		return currencies.get(C_Currency_ID);
+	}
+
+	@Override
+	public SEPAPartner getPartner(int C_BPartner_ID) {
+		if (!prefetchedPartners.contains(C_BPartner_ID))
+			cachedQuery("C_BPartner", C_BPartner_ID);
+		return partners.get(C_BPartner_ID);
+	}
+
+	@Override
+	public List<SEPAPartnerAccount> getPartnerAccounts(int C_BPartner_ID) {
+		if (!prefetchedPartnerAccounts.contains(C_BPartner_ID)) {
+			cachedQuery("C_BPartner", C_BPartner_ID);
+			query("C_BP_BankAccount");
+		}
+		return partnerAccounts.getOrDefault(C_BPartner_ID, new ArrayList<>());
+	}
+
+	@Override
+	public void prefetchPartnerAccounts(List<SEPACheck> checks) {
+		prefetchedPartnerAccounts.clear();
+		if (checks.isEmpty())
+			return;
+		query("C_BP_BankAccount");
+		for (SEPACheck check : checks)
+			prefetchedPartnerAccounts.add(check.getC_BPartner_ID());
+	}
+
+	@Override
+	public List<SEPAPaySelectionLine> getPaySelectionLines(int C_PaySelectionCheck_ID) {
+		if (failAfter == 0)
+			throw new IllegalStateException("Simulated database failure");
+		if (failAfter > 0)
+			failAfter--;
+		if (!prefetchedChecks.contains(C_PaySelectionCheck_ID))
+			query("C_PaySelectionLine");
+		return paySelectionLines.getOrDefault(C_PaySelectionCheck_ID, new ArrayList<>());
+	}
+
+	/**
+	 * The lines with their invoices, orders and invoice partners in one query,
+	 * the partners of the checks that are not an invoice partner in a second one
+	 */
+	@Override
+	public void prefetchPaySelectionLines(List<SEPACheck> checks) {
+		prefetchedChecks.clear();
+		prefetchedInvoices.clear();
+		prefetchedOrders.clear();
+		prefetchedPartners.clear();
+		if (checks.isEmpty())
+			return;
+		query("C_PaySelectionLine");
+		for (SEPACheck check : checks) {
+			prefetchedChecks.add(check.getC_PaySelectionCheck_ID());
+			for (SEPAPaySelectionLine line : paySelectionLines.getOrDefault(check.getC_PaySelectionCheck_ID(),
+					new ArrayList<>())) {
+				SEPAInvoice invoice = invoices.get(line.getC_Invoice_ID());
+				if (invoice == null)
+					continue;
+				prefetchedInvoices.add(invoice.getC_Invoice_ID());
+				prefetchedPartners.add(invoice.getC_BPartner_ID());
+				if (invoice.getC_Order_ID() > 0)
+					prefetchedOrders.add(invoice.getC_Order_ID());
+			}
+		}
+		boolean missingPartners = false;
+		for (SEPACheck check : checks)
+			missingPartners |= prefetchedPartners.add(check.getC_BPartner_ID());
+		if (missingPartners)
+			query("C_BPartner");
+	}
+
+	@Override
+	public SEPAInvoice getInvoice(int C_Invoice_ID) {
+		if (!prefetchedInvoices.contains(C_Invoice_ID))
+			cachedQuery("C_Invoice", C_Invoice_ID);
+		return invoices.get(C_Invoice_ID);
+	}
+
+	@Override
+	public String getOrderDocumentNo(int C_Order_ID) {
+		if (C_Order_ID <= 0)
+			return null;
+		if (!prefetchedOrders.contains(C_Order_ID))
+			query("C_Order");
+		return orders.get(C_Order_ID);
+	}
+
+	@Override
+	public boolean isNonBusinessDay(Timestamp date, String keyword) {
+		query("C_NonBusinessDay");
+		String name = nonBusinessDays.get(date);
+		return name != null && like(name, keyword);
+	}
+
+	@Override
+	public void setTransferred(SEPAPartnerAccount account) {
+		query("C_BP_BankAccount");
+		account.setTransferred(true);
+	}
+
+	@Override
+	public String getConfigValue(String name, String defaultValue) {
+		cachedQuery("AD_SysConfig", name);
+		return config.getOrDefault(name, defaultValue);
+	}
+
+	@Override
+	public boolean getConfigBooleanValue(String name, boolean defaultValue) {
+		String value = getConfigValue(name, null);
+		return value == null ? defaultValue : "Y".equals(value) || "true".equalsIgnoreCase(value);
+	}
+
+	@Override
+	public int getConfigIntValue(String name, int defaultValue) {
+		String value = getConfigValue(name, null);
+		return value == null ? defaultValue : Integer.parseInt(value);
+	}
+
+	/**
+	 * SQL LIKE with % and _
+	 */
+	private static boolean like(String value, String pattern) {
+		StringBuilder regex = new StringBuilder();
+		for (String part : pattern.split("(?=[%_])|(?<=[%_])")) {
+			if (part.equals("%"))
+				regex.append(".*");
+			else if (part.equals("_"))
+				regex.append('.');
+			else if (!part.isEmpty())
+				regex.append(Pattern.quote(part));
+		}
+		return value.matches(regex.toString());
+	}
+
+}
@@ -0,0 +1,22 @@
+package de.bxservice.sepa;
+
+import org.compiere.model.MBankAccount;
+
+/**
+ * Columns this plugin adds to {@link MBankAccount}, our own bank accounts.
+ *
+ * @author Diego Ruiz - Bx Service GmbH
+ */
+public class MBankAccountHelper {
+
+	/**
+	 * pain.001 version the bank expects for credit transfers, e.g.
+	 * pain.001.001.09. Empty means the plugin default.
+	 */
+	public static final String COLUMNNAME_SEPACTVERSION = "SepaCtVersion";
+	/**
+	 * pain.008 version the bank expects for direct debits, e.g. pain.008.001.08.
+	 * Empty means the plugin default.
+	 */
+	public static final String COLUMNNAME_SEPADDVERSION = "SepaDdVersion";
+}
@@ -0,0 +1,21 @@
+package de.bxservice.sepa;
+
+import org.compiere.model.MPaySelectionLine;
+
+/**
+ * Columns this plugin adds to {@link MPaySelectionLine}. They are filled by
+ * {@link SEPAPaySelectionLineEventHandler} when a line is saved.
+ *
+ * @author Diego Ruiz - Bx Service GmbH
+ */
+public class MPaySelectionLineHelper {
+
+	/** Remittance information of the invoice and the description of the line */
+	public static final String COLUMNNAME_SEPAREMITTANCEINFO = "SepaRemittanceInfo";
+	/** Document number of the invoice, part of the EndToEndId of the check */
+	public static final String COLUMNNAME_SEPAENDTOENDID = "SepaEndToEndId";
+	/** When SepaRemittanceInfo and SepaEndToEndId were computed */
+	public static final String COLUMNNAME_SEPASTAGED = "SepaStaged";
+	/** Hash of the remittance template SepaRemittanceInfo was rendered with */
+	public static final String COLUMNNAME_SEPATEMPLATEHASH = "SepaTemplateHash";
+}
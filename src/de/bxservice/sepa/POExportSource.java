@@ -0,0 +1,567 @@
+/******************************************************************************
+ * Product: iDempiere Business Suite ERP/CRM/SCM                              *
+ * This program is free software; you can redistribute it and/or modify it    *
+ * under the terms version 2 of the GNU General Public License as published   *
+ * by the Free Software Foundation. This program is distributed in the hope   *
+ * that it will be useful, but WITHOUT ANY WARRANTY; without even the implied *
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.           *
+ * See the GNU General Public License for more details.                       *
+ * You should have received a copy of the GNU General Public License along    *
+ * with this program; if not, write to the Free Software Foundation, Inc.,    *
+ * 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA.                     *
+ *****************************************************************************/
+package de.bxservice.sepa;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+
+import org.adempiere.exceptions.DBException;
+import org.compiere.model.MBPBankAccount;
+import org.compiere.model.MBPartner;
+import org.compiere.model.MBank;
+import org.compiere.model.MBankAccount;
+import org.compiere.model.MClient;
+import org.compiere.model.MCurrency;
+import org.compiere.model.MInvoice;
+import org.compiere.model.MOrg;
+import org.compiere.model.MOrgInfo;
+import org.compiere.model.MPaySelection;
+import org.compiere.model.MPaySelectionCheck;
+import org.compiere.model.MPaySelectionLine;
+import org.compiere.model.MSysConfig;
+import org.compiere.model.POInfo;
+import org.compiere.model.Query;
+import org.compiere.model.X_C_NonBusinessDay;
+import org.compiere.util.DB;
+import org.compiere.util.Env;
+
+import de.bxservice.sepa.source.SEPABankAccount;
+import de.bxservice.sepa.source.SEPACheck;
+import de.bxservice.sepa.source.SEPAExportSource;
+import de.bxservice.sepa.source.SEPAInvoice;
+import de.bxservice.sepa.source.SEPAPartner;
+import de.bxservice.sepa.source.SEPAPartnerAccount;
+import de.bxservice.sepa.source.SEPAPaySelection;
+import de.bxservice.sepa.source.SEPAPaySelectionLine;
+
+/**
+ * Reads the export data through the iDempiere model classes.
+ * <p>
+ * Data that is the same for all checks of an export is kept for the export,
+ * so only the lookups per check reach the database or the model caches. The
+ * export prefetches the data per check for a few hundred checks at a time, it
+ * is kept until the next prefetch.
+ *
+ * @author Diego Ruiz - Bx Service GmbH
+ */
+public class POExportSource implements SEPAExportSource {
+
+	private final Properties ctx;
+	private final String trxName;
+
+	/** Pay selections of this export, the checks do not cache their parent */
+	private final Map<Integer, SEPAPaySelection> paySelections = new HashMap<>();
+	private final Map<Integer, SEPABankAccount> bankAccounts = new HashMap<>();
+	private final Map<Integer, String> orgNames = new HashMap<>();
+	private final Map<Integer, String> creditorIdentifiers = new HashMap<>();
+	private final Map<Integer, String> currencies = new HashMap<>();
+	private final Map<String, String> config = new HashMap<>();
+	private String clientName;
+	/** Recently used partners, the partner of a check usually is the partner of its invoices */
+	private final Map<Integer, SEPAPartner> partners = new LinkedHashMap<>(16, 0.75f, true) {
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<Integer, SEPAPartner> eldest) {
+			return size() > 100;
+		}
+	};
+	/** Loaded partner accounts, to save the IsTransferred flag */
+	private final Map<Integer, MBPBankAccount> partnerAccounts = new HashMap<>();
+	/** Query of the lines of a check */
+	private String paySelectionLinesSQL;
+	/** Data of the checks of the last prefetch */
+	private final Map<Integer, List<SEPAPaySelectionLine>> prefetchedLines = new HashMap<>();
+	private final Map<Integer, SEPAInvoice> prefetchedInvoices = new HashMap<>();
+	private final Map<Integer, String> prefetchedOrders = new HashMap<>();
+	private final Map<Integer, SEPAPartner> prefetchedPartners = new HashMap<>();
+	private final Map<Integer, List<SEPAPartnerAccount>> prefetchedPartnerAccounts = new HashMap<>();
+
+	/**
+	 * @param trxName transaction of the checks
+	 */
+	public POExportSource(String trxName) {
+		this.ctx = Env.getCtx();
+		this.trxName = trxName;
+	}
+
+	/**
+	 * @param checks pay selection checks, null entries are skipped
+	 * @return the checks in the same order
+	 */
+	public List<SEPACheck> getChecks(MPaySelectionCheck[] checks) {
+		List<SEPACheck> list = new ArrayList<>(checks.length);
+		for (MPaySelectionCheck check : checks) {
+			if (check != null)
+				list.add(getCheck(check));
+		}
+		return list;
+	}
+
+	/**
+	 * @param check pay selection check
+	 * @return check data
+	 */
+	public SEPACheck getCheck(MPaySelectionCheck check) {
+		SEPACheck data = new SEPACheck();
+		data.setC_PaySelectionCheck_ID(check.getC_PaySelectionCheck_ID());
+		data.setC_PaySelection_ID(check.getC_PaySelection_ID());
+		data.setC_BPartner_ID(check.getC_BPartner_ID());
+		data.setAD_Org_ID(check.getAD_Org_ID());
+		data.setPayAmt(check.getPayAmt());
+		return data;
+	}
+
+	@Override
+	public SEPAPaySelection getPaySelection(int C_PaySelection_ID) {
+		SEPAPaySelection data = paySelections.get(C_PaySelection_ID);
+		if (data != null)
+			return data;
+
+		MPaySelection paySelection = new MPaySelection(ctx, C_PaySelection_ID, trxName);
+		data = new SEPAPaySelection();
+		data.setC_PaySelection_ID(paySelection.getC_PaySelection_ID());
+		data.setAD_Org_ID(paySelection.getAD_Org_ID());
+		data.setC_BankAccount_ID(paySelection.getC_BankAccount_ID());
+		data.setC_Currency_ID(paySelection.getC_Currency_ID());
+		data.setCreated(paySelection.getCreated());
+		data.setPayDate(paySelection.getPayDate());
+		paySelections.put(C_PaySelection_ID, data);
+		return data;
+	}
+
+	@Override
+	public SEPABankAccount getBankAccount(int C_BankAccount_ID) {
+		SEPABankAccount data = bankAccounts.get(C_BankAccount_ID);
+		if (data != null)
+			return data;
+
+		MBankAccount bankAccount = MBankAccount.get(C_BankAccount_ID);
+		data = new SEPABankAccount();
+		data.setC_BankAccount_ID(bankAccount.getC_BankAccount_ID());
+		data.setIBAN(bankAccount.getIBAN());
+		data.setBIC(MBank.get(bankAccount.getC_Bank_ID()).getSwiftCode());
+		if (bankAccount.get_ColumnIndex(MBankAccountHelper.COLUMNNAME_SEPACTVERSION) >= 0)
+			data.setSepaCtVersion(bankAccount.get_ValueAsString(MBankAccountHelper.COLUMNNAME_SEPACTVERSION));
+		if (bankAccount.get_ColumnIndex(MBankAccountHelper.COLUMNNAME_SEPADDVERSION) >= 0)
+			data.setSepaDdVersion(bankAccount.get_ValueAsString(MBankAccountHelper.COLUMNNAME_SEPADDVERSION));
+		bankAccounts.put(C_BankAccount_ID, data);
+		return data;
+	}
+
+	@Override
+	public String getOrgName(int AD_Org_ID) {
+		String name = orgNames.get(AD_Org_ID);
+		if (name == null) {
+			name = MOrg.get(ctx, AD_Org_ID).getName();
+			orgNames.put(AD_Org_ID, name);
+		}
+		return name;
+	}
+
+	@Override
+	public String getClientName() {
+		if (clientName == null)
+			clientName = MClient.get(ctx).getName();
+		return clientName;
+	}
+
+	@Override
+	public String getCreditorIdentifier(int AD_Org_ID) {
+		String creditorIdentifier = creditorIdentifiers.get(AD_Org_ID);
+		if (creditorIdentifier == null) {
+			creditorIdentifier = MOrgInfo.get(ctx, AD_Org_ID, null)
+					.get_ValueAsString(MOrgHelper.COLUMNNAME_AD_ORG_CREDITORIDENTIFIER);
+			creditorIdentifiers.put(AD_Org_ID, creditorIdentifier);
+		}
+		return creditorIdentifier;
+	}
+
+	@Override
+	public String getCurrencyISOCode(int C_Currency_ID) {
+		String isoCode = currencies.get(C_Currency_ID);
+		if (isoCode == null) {
+			isoCode = MCurrency.getISO_Code(ctx, C_Currency_ID);
+			currencies.put(C_Currency_ID, isoCode);
+		}
+		return isoCode;
+	}
+
+	@Override
+	public SEPAPartner getPartner(int C_BPartner_ID) {
+		SEPAPartner data = prefetchedPartners.get(C_BPartner_ID);
+		if (data == null)
+			data = partners.get(C_BPartner_ID);
+		if (data != null)
+			return data;
+
+		MBPartner bPartner = MBPartner.get(ctx, C_BPartner_ID);
+		data = getPartner(bPartner.getC_BPartner_ID(), bPartner.getName(), bPartner.getReferenceNo());
+		partners.put(C_BPartner_ID, data);
+		return data;
+	}
+
+	@Override
+	public List<SEPAPartnerAccount> getPartnerAccounts(int C_BPartner_ID) {
+		List<SEPAPartnerAccount> list = prefetchedPartnerAccounts.get(C_BPartner_ID);
+		if (list != null)
+			return list;
+
+		// only the accounts, MBPartner.getBankAccounts would load the partner as
+		// well; the same order, the first matching account is used
+		List<MBPBankAccount> bpBankAccounts = new Query(ctx, MBPBankAccount.Table_Name,
+				MBPBankAccount.COLUMNNAME_C_BPartner_ID + "=?", trxName)
+				.setParameters(C_BPartner_ID)
+				.setOnlyActiveRecords(true)
+				.setOrderBy(MBPBankAccount.COLUMNNAME_Created)
+				.list();
+		list = new ArrayList<>(bpBankAccounts.size());
+		for (MBPBankAccount bpBankAccount : bpBankAccounts)
+			list.add(getPartnerAccount(bpBankAccount));
+		return list;
+	}
+
+	/**
+	 * Reads the accounts of all partners of the checks in one query, in the
+	 * order of {@link #getPartnerAccounts(int)}. The accounts loaded before are
+	 * dropped, the IsTransferred flag of an account is saved right after it was
+	 * read.
+	 */
+	@Override
+	public void prefetchPartnerAccounts(List<SEPACheck> checks) {
+		prefetchedPartnerAccounts.clear();
+		partnerAccounts.clear();
+		Set<Integer> partnerIds = new LinkedHashSet<>();
+		for (SEPACheck check : checks)
+			partnerIds.add(check.getC_BPartner_ID());
+		if (partnerIds.isEmpty())
+			return;
+
+		List<MBPBankAccount> bpBankAccounts = new Query(ctx, MBPBankAccount.Table_Name,
+				MBPBankAccount.COLUMNNAME_C_BPartner_ID + " IN (" + getParameterMarkers(partnerIds.size()) + ")",
+				trxName)
+				.setParameters(partnerIds.toArray())
+				.setOnlyActiveRecords(true)
+				.setOrderBy(MBPBankAccount.COLUMNNAME_C_BPartner_ID + "," + MBPBankAccount.COLUMNNAME_Created)
+				.list();
+		for (int C_BPartner_ID : partnerIds)
+			prefetchedPartnerAccounts.put(C_BPartner_ID, new ArrayList<>());
+		for (MBPBankAccount bpBankAccount : bpBankAccounts)
+			prefetchedPartnerAccounts.get(bpBankAccount.getC_BPartner_ID()).add(getPartnerAccount(bpBankAccount));
+	}
+
+	private SEPAPartnerAccount getPartnerAccount(MBPBankAccount bpBankAccount) {
+		partnerAccounts.put(bpBankAccount.getC_BP_BankAccount_ID(), bpBankAccount);
+
+		SEPAPartnerAccount data = new SEPAPartnerAccount();
+		data.setC_BP_BankAccount_ID(bpBankAccount.getC_BP_BankAccount_ID());
+		data.setC_BPartner_ID(bpBankAccount.getC_BPartner_ID());
+		data.setActive(bpBankAccount.isActive());
+		data.setDirectDebit(bpBankAccount.isDirectDebit());
+		data.setDirectDeposit(bpBankAccount.isDirectDeposit());
+		data.setIBAN(bpBankAccount.getIBAN());
+		data.setBIC(bpBankAccount.getSwiftCode());
+		data.setA_Name(bpBankAccount.getA_Name());
+		data.setMndtId(bpBankAccount.get_ValueAsString(MBPBankAccountHelper.COLUMNNAME_MNDTID));
+		data.setMandateDate((Timestamp) bpBankAccount.get_Value(MBPBankAccountHelper.COLUMNNAME_DATEDOC));
+		data.setSEPASDDScheme(bpBankAccount.get_ValueAsString(MBPBankAccountHelper.COLUMNNAME_SEPASDDSCHEME));
+		data.setTransferred(bpBankAccount.get_ValueAsBoolean(MBPBankAccountHelper.COLUMNNAME_ISTRANSFERRED));
+		return data;
+	}
+
+	/**
+	 * Reads the lines with the values stored by
+	 * {@link SEPAPaySelectionLineEventHandler} and, in the same query, when their
+	 * invoice, its partner and its order last changed
+	 */
+	@Override
+	public List<SEPAPaySelectionLine> getPaySelectionLines(int C_PaySelectionCheck_ID) {
+		List<SEPAPaySelectionLine> list = prefetchedLines.get(C_PaySelectionCheck_ID);
+		if (list != null)
+			return list;
+
+		String sql = getPaySelectionLinesSQL() + " WHERE psl.C_PaySelectionCheck_ID=? ORDER BY psl.Line";
+		list = new ArrayList<>();
+		PreparedStatement pstmt = null;
+		ResultSet rs = null;
+		try {
+			pstmt = DB.prepareStatement(sql, trxName);
+			DB.setParameters(pstmt, C_PaySelectionCheck_ID);
+			rs = pstmt.executeQuery();
+			while (rs.next())
+				list.add(getPaySelectionLine(rs));
+		} catch (SQLException e) {
+			throw new DBException(e, sql);
+		} finally {
+			DB.close(rs, pstmt);
+		}
+		return list;
+	}
+
+	/**
+	 * Reads the lines of all checks with their invoices, the document numbers of
+	 * the orders and the partners of the invoices in one query, and the partners
+	 * of the checks that are not a partner of an invoice in a second one. The
+	 * data of the checks prefetched before is dropped.
+	 */
+	@Override
+	public void prefetchPaySelectionLines(List<SEPACheck> checks) {
+		prefetchedLines.clear();
+		prefetchedInvoices.clear();
+		prefetchedOrders.clear();
+		prefetchedPartners.clear();
+		if (checks.isEmpty())
+			return;
+
+		List<Object> checkIds = new ArrayList<>(checks.size());
+		for (SEPACheck check : checks) {
+			checkIds.add(check.getC_PaySelectionCheck_ID());
+			prefetchedLines.put(check.getC_PaySelectionCheck_ID(), new ArrayList<>());
+		}
+		String sql = getPaySelectionLinesSQL() + " WHERE psl.C_PaySelectionCheck_ID IN ("
+				+ getParameterMarkers(checkIds.size()) + ") ORDER BY psl.C_PaySelectionCheck_ID, psl.Line";
+		PreparedStatement pstmt = null;
+		ResultSet rs = null;
+		try {
+			pstmt = DB.prepareStatement(sql, trxName);
+			DB.setParameters(pstmt, checkIds);
+			rs = pstmt.executeQuery();
+			while (rs.next()) {
+				SEPAPaySelectionLine line = getPaySelectionLine(rs);
+				prefetchedLines.get(line.getC_PaySelectionCheck_ID()).add(line);
+				// the invoice does not exist any more
+				if (line.getC_Invoice_ID() <= 0 || rs.getString(14) == null)
+					continue;
+
+				SEPAInvoice invoice = new SEPAInvoice();
+				invoice.setC_Invoice_ID(line.getC_Invoice_ID());
+				invoice.setC_BPartner_ID(rs.getInt(12));
+				invoice.setC_Order_ID(rs.getInt(13));
+				invoice.setDocumentNo(rs.getString(14));
+				invoice.setDateInvoiced(rs.getTimestamp(15));
+				invoice.setPOReference(rs.getString(16));
+				invoice.setGrandTotal(rs.getBigDecimal(17));
+				prefetchedInvoices.put(invoice.getC_Invoice_ID(), invoice);
+				if (invoice.getC_Order_ID() > 0)
+					prefetchedOrders.put(invoice.getC_Order_ID(), rs.getString(18));
+				if (!prefetchedPartners.containsKey(invoice.getC_BPartner_ID()))
+					prefetchedPartners.put(invoice.getC_BPartner_ID(),
+							getPartner(invoice.getC_BPartner_ID(), rs.getString(19), rs.getString(20)));
+			}
+		} catch (SQLException e) {
+			throw new DBException(e, sql);
+		} finally {
+			DB.close(rs, pstmt);
+		}
+
+		Set<Integer> partnerIds = new LinkedHashSet<>();
+		for (SEPACheck check : checks) {
+			if (!prefetchedPartners.containsKey(check.getC_BPartner_ID()))
+				partnerIds.add(check.getC_BPartner_ID());
+		}
+		if (partnerIds.isEmpty())
+			return;
+		sql = "SELECT C_BPartner_ID, Name, ReferenceNo FROM C_BPartner WHERE C_BPartner_ID IN ("
+				+ getParameterMarkers(partnerIds.size()) + ")";
+		try {
+			pstmt = DB.prepareStatement(sql, trxName);
+			DB.setParameters(pstmt, partnerIds.toArray());
+			rs = pstmt.executeQuery();
+			while (rs.next())
+				prefetchedPartners.put(rs.getInt(1), getPartner(rs.getInt(1), rs.getString(2), rs.getString(3)));
+		} catch (SQLException e) {
+			throw new DBException(e, sql);
+		} finally {
+			DB.close(rs, pstmt);
+		}
+	}
+
+	private SEPAPaySelectionLine getPaySelectionLine(ResultSet rs) throws SQLException {
+		SEPAPaySelectionLine data = new SEPAPaySelectionLine();
+		data.setC_PaySelectionLine_ID(rs.getInt(1));
+		data.setC_PaySelectionCheck_ID(rs.getInt(2));
+		data.setC_Invoice_ID(rs.getInt(3));
+		data.setDescription(rs.getString(4));
+		data.setSepaRemittanceInfo(rs.getString(5));
+		data.setSepaEndToEndId(rs.getString(6));
+		data.setSepaStaged(rs.getTimestamp(7));
+		data.setSepaTemplateHash(rs.getString(8));
+		data.setInvoiceUpdated(rs.getTimestamp(9));
+		data.setPartnerUpdated(rs.getTimestamp(10));
+		data.setOrderUpdated(rs.getTimestamp(11));
+		return data;
+	}
+
+	private static SEPAPartner getPartner(int C_BPartner_ID, String name, String referenceNo) {
+		SEPAPartner data = new SEPAPartner();
+		data.setC_BPartner_ID(C_BPartner_ID);
+		data.setName(name);
+		data.setReferenceNo(referenceNo);
+		return data;
+	}
+
+	/**
+	 * Select of the lines without the where clause, with the columns of the
+	 * invoice, its order and its partner for
+	 * {@link #prefetchPaySelectionLines(List)}. The stored values are only
+	 * selected if the columns exist, before the 2Pack is applied the export
+	 * computes them.
+	 */
+	private String getPaySelectionLinesSQL() {
+		if (paySelectionLinesSQL != null)
+			return paySelectionLinesSQL;
+
+		POInfo poInfo = POInfo.getPOInfo(ctx, MPaySelectionLine.Table_ID);
+		boolean staged = poInfo.getColumnIndex(MPaySelectionLineHelper.COLUMNNAME_SEPAREMITTANCEINFO) >= 0
+				&& poInfo.getColumnIndex(MPaySelectionLineHelper.COLUMNNAME_SEPAENDTOENDID) >= 0
+				&& poInfo.getColumnIndex(MPaySelectionLineHelper.COLUMNNAME_SEPASTAGED) >= 0
+				&& poInfo.getColumnIndex(MPaySelectionLineHelper.COLUMNNAME_SEPATEMPLATEHASH) >= 0;
+		StringBuilder sql = new StringBuilder("SELECT psl.C_PaySelectionLine_ID, psl.C_PaySelectionCheck_ID,")
+				.append(" psl.C_Invoice_ID, psl.Description, ");
+		if (staged)
+			sql.append("psl.").append(MPaySelectionLineHelper.COLUMNNAME_SEPAREMITTANCEINFO)
+					.append(", psl.").append(MPaySelectionLineHelper.COLUMNNAME_SEPAENDTOENDID)
+					.append(", psl.").append(MPaySelectionLineHelper.COLUMNNAME_SEPASTAGED)
+					.append(", psl.").append(MPaySelectionLineHelper.COLUMNNAME_SEPATEMPLATEHASH);
+		else
+			sql.append("NULL, NULL, NULL, NULL");
+		sql.append(", i.Updated, bp.Updated, o.Updated")
+				.append(", i.C_BPartner_ID, i.C_Order_ID, i.DocumentNo, i.DateInvoiced, i.POReference, i.GrandTotal")
+				.append(", o.DocumentNo, bp.Name, bp.ReferenceNo")
+				.append(" FROM C_PaySelectionLine psl")
+				.append(" LEFT JOIN C_Invoice i ON (i.C_Invoice_ID=psl.C_Invoice_ID)")
+				.append(" LEFT JOIN C_BPartner bp ON (bp.C_BPartner_ID=i.C_BPartner_ID)")
+				.append(" LEFT JOIN C_Order o ON (o.C_Order_ID=i.C_Order_ID)");
+		paySelectionLinesSQL = sql.toString();
+		return paySelectionLinesSQL;
+	}
+
+	/**
+	 * @return ?,?,? for an IN list of the size
+	 */
+	private static String getParameterMarkers(int size) {
+		StringBuilder markers = new StringBuilder(size * 2);
+		for (int i = 0; i < size; i++)
+			markers.append(i == 0 ? "?" : ",?");
+		return markers.toString();
+	}
+
+	/**
+	 * @param line pay selection line
+	 * @return line data with the values stored by
+	 *         {@link SEPAPaySelectionLineEventHandler}
+	 */
+	public SEPAPaySelectionLine getPaySelectionLine(MPaySelectionLine line) {
+		SEPAPaySelectionLine data = new SEPAPaySelectionLine();
+		data.setC_PaySelectionLine_ID(line.getC_PaySelectionLine_ID());
+		data.setC_PaySelectionCheck_ID(line.getC_PaySelectionCheck_ID());
+		data.setC_Invoice_ID(line.getC_Invoice_ID());
+		data.setDescription(line.getDescription());
+		if (line.get_ColumnIndex(MPaySelectionLineHelper.COLUMNNAME_SEPAREMITTANCEINFO) >= 0) {
+			data.setSepaRemittanceInfo((String) line.get_Value(MPaySelectionLineHelper.COLUMNNAME_SEPAREMITTANCEINFO));
+			data.setSepaEndToEndId((String) line.get_Value(MPaySelectionLineHelper.COLUMNNAME_SEPAENDTOENDID));
+		}
+		if (line.get_ColumnIndex(MPaySelectionLineHelper.COLUMNNAME_SEPASTAGED) >= 0)
+			data.setSepaStaged((Timestamp) line.get_Value(MPaySelectionLineHelper.COLUMNNAME_SEPASTAGED));
+		if (line.get_ColumnIndex(MPaySelectionLineHelper.COLUMNNAME_SEPATEMPLATEHASH) >= 0)
+			data.setSepaTemplateHash((String) line.get_Value(MPaySelectionLineHelper.COLUMNNAME_SEPATEMPLATEHASH));
+		return data;
+	}
+
+	@Override
+	public SEPAInvoice getInvoice(int C_Invoice_ID) {
+		SEPAInvoice data = prefetchedInvoices.get(C_Invoice_ID);
+		if (data != null)
+			return data;
+
+		MInvoice invoice = MInvoice.get(C_Invoice_ID);
+		if (invoice == null)
+			return null;
+
+		data = new SEPAInvoice();
+		data.setC_Invoice_ID(invoice.getC_Invoice_ID());
+		data.setC_BPartner_ID(invoice.getC_BPartner_ID());
+		data.setC_Order_ID(invoice.getC_Order_ID());
+		data.setDocumentNo(invoice.getDocumentNo());
+		data.setDateInvoiced(invoice.getDateInvoiced());
+		data.setPOReference(invoice.getPOReference());
+		data.setGrandTotal(invoice.getGrandTotal());
+		return data;
+	}
+
+	@Override
+	public String getOrderDocumentNo(int C_Order_ID) {
+		if (C_Order_ID <= 0)
+			return null;
+		if (prefetchedOrders.containsKey(C_Order_ID))
+			return prefetchedOrders.get(C_Order_ID);
+		return DB.getSQLValueStringEx(trxName, "SELECT DocumentNo FROM C_Order WHERE C_Order_ID=?", C_Order_ID);
+	}
+
+	@Override
+	public boolean isNonBusinessDay(Timestamp date, String keyword) {
+		return new Query(ctx, X_C_NonBusinessDay.Table_Name,
+				"TRUNC(" + X_C_NonBusinessDay.COLUMNNAME_Date1 + ")=? AND " + X_C_NonBusinessDay.COLUMNNAME_Name
+						+ " LIKE ?",
+				null)
+				.setParameters(new Object[] { date, keyword })
+				.setOnlyActiveRecords(true).setClient_ID().match();
+	}
+
+	@Override
+	public void setTransferred(SEPAPartnerAccount account) {
+		MBPBankAccount bpBankAccount = partnerAccounts.get(account.getC_BP_BankAccount_ID());
+		if (bpBankAccount == null)
+			bpBankAccount = new MBPBankAccount(ctx, account.getC_BP_BankAccount_ID(), trxName);
+		bpBankAccount.set_ValueNoCheck(MBPBankAccountHelper.COLUMNNAME_ISTRANSFERRED, Boolean.TRUE);
+		bpBankAccount.saveEx();
+		account.setTransferred(true);
+	}
+
+	@Override
+	public String getConfigValue(String name, String defaultValue) {
+		if (!config.containsKey(name))
+			config.put(name, MSysConfig.getValue(name, Env.getAD_Client_ID(ctx)));
+		String value = config.get(name);
+		return value == null ? defaultValue : value;
+	}
+
+	@Override
+	public boolean getConfigBooleanValue(String name, boolean defaultValue) {
+		String value = getConfigValue(name, null);
+		return value == null ? defaultValue : "Y".equalsIgnoreCase(value) || "true".equalsIgnoreCase(value);
+	}
+
+	@Override
+	public int getConfigIntValue(String name, int defaultValue) {
+		String value = getConfigValue(name, null);
+		if (value == null)
+			return defaultValue;
+		try {
+			return Integer.parseInt(value.trim());
+		} catch (NumberFormatException e) {
+			return defaultValue;
+		}
+	}
+
+}
@@ -0,0 +1,150 @@
+/******************************************************************************
+ * Product: iDempiere Business Suite ERP/CRM/SCM                              *
+ * This program is free software; you can redistribute it and/or modify it    *
+ * under the terms version 2 of the GNU General Public License as published   *
+ * by the Free Software Foundation. This program is distributed in the hope   *
+ * that it will be useful, but WITHOUT ANY WARRANTY; without even the implied *
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.           *
+ * See the GNU General Public License for more details.                       *
+ * You should have received a copy of the GNU General Public License along    *
+ * with this program; if not, write to the Free Software Foundation, Inc.,    *
+ * 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA.                     *
+ *****************************************************************************/
+package de.bxservice.sepa;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+
+import de.bxservice.sepa.source.SEPACheck;
+import de.bxservice.sepa.source.SEPAPartnerAccount;
+
+/**
+ * Direct debits that go into one PmtInf block: same creditor organization and
+ * identifier, creditor bank account, requested collection date, scheme and
+ * sequence type. The checks keep the order of the export, together with the
+ * mandate account each one is collected from.
+ *
+ * @author Diego Ruiz - Bx Service GmbH
+ */
+public class SEPADirectDebitPartition {
+
+	/** LclInstrm of B2B direct debits */
+	public static final String SCHEME_B2B = "B2B";
+	/** LclInstrm of core direct debits */
+	public static final String SCHEME_CORE = "CORE";
+	/** SeqTp of the first collection of a mandate */
+	public static final String SEQUENCE_FIRST = "FRST";
+	/** SeqTp of the following collections */
+	public static final String SEQUENCE_RECURRING = "RCUR";
+
+	private final String scheme;
+	private final String sequenceType;
+	private final int AD_Org_ID;
+	private final String creditorIdentifier;
+	private final int C_BankAccount_ID;
+	private final String collectionDate;
+	private final int C_PaySelection_ID;
+
+	private final List<SEPACheck> checks = new ArrayList<>();
+	private final List<SEPAPartnerAccount> accounts = new ArrayList<>();
+	private BigDecimal controlSum = BigDecimal.ZERO;
+
+	/**
+	 * @param scheme             {@link #SCHEME_B2B} or {@link #SCHEME_CORE}
+	 * @param sequenceType       {@link #SEQUENCE_FIRST} or {@link #SEQUENCE_RECURRING}
+	 * @param AD_Org_ID          creditor organization
+	 * @param creditorIdentifier creditor identifier of the organization
+	 * @param C_BankAccount_ID   creditor bank account
+	 * @param collectionDate     requested collection date, yyyy-MM-dd
+	 * @param C_PaySelection_ID  pay selection of the first check
+	 */
+	public SEPADirectDebitPartition(String scheme, String sequenceType, int AD_Org_ID, String creditorIdentifier,
+			int C_BankAccount_ID, String collectionDate, int C_PaySelection_ID) {
+		this.scheme = scheme;
+		this.sequenceType = sequenceType;
+		this.AD_Org_ID = AD_Org_ID;
+		this.creditorIdentifier = creditorIdentifier;
+		this.C_BankAccount_ID = C_BankAccount_ID;
+		this.collectionDate = collectionDate;
+		this.C_PaySelection_ID = C_PaySelection_ID;
+	}
+
+	/**
+	 * @return value that is equal for the checks of one partition
+	 */
+	public static String getKey(String scheme, String sequenceType, int AD_Org_ID, String creditorIdentifier,
+			int C_BankAccount_ID, String collectionDate) {
+		return scheme + "-" + sequenceType + "|" + AD_Org_ID + "|" + creditorIdentifier + "|" + C_BankAccount_ID
+				+ "|" + collectionDate;
+	}
+
+	/**
+	 * @return key of the partition, see {@link #getKey(String, String, int, String, int, String)}
+	 */
+	public String getKey() {
+		return getKey(scheme, sequenceType, AD_Org_ID, creditorIdentifier, C_BankAccount_ID, collectionDate);
+	}
+
+	/**
+	 * Adds the next check
+	 *
+	 * @param check   check
+	 * @param account mandate account the check is collected from
+	 */
+	public void add(SEPACheck check, SEPAPartnerAccount account) {
+		checks.add(check);
+		accounts.add(account);
+		controlSum = controlSum.add(check.getPayAmt());
+	}
+
+	public String getScheme() {
+		return scheme;
+	}
+
+	public String getSequenceType() {
+		return sequenceType;
+	}
+
+	public int getAD_Org_ID() {
+		return AD_Org_ID;
+	}
+
+	public String getCreditorIdentifier() {
+		return creditorIdentifier;
+	}
+
+	public int getC_BankAccount_ID() {
+		return C_BankAccount_ID;
+	}
+
+	public String getCollectionDate() {
+		return collectionDate;
+	}
+
+	public int getC_PaySelection_ID() {
+		return C_PaySelection_ID;
+	}
+
+	public List<SEPACheck> getChecks() {
+		return checks;
+	}
+
+	public List<SEPAPartnerAccount> getAccounts() {
+		return accounts;
+	}
+
+	public int getNumberOfTransactions() {
+		return checks.size();
+	}
+
+	public BigDecimal getControlSum() {
+		return controlSum;
+	}
+
+	@Override
+	public String toString() {
+		return getKey() + ": " + checks.size() + " / " + controlSum;
+	}
+
+}
@@ -0,0 +1,311 @@
+/******************************************************************************
+ * Product: iDempiere Business Suite ERP/CRM/SCM                              *
+ * This program is free software; you can redistribute it and/or modify it    *
+ * under the terms version 2 of the GNU General Public License as published   *
+ * by the Free Software Foundation. This program is distributed in the hope   *
+ * that it will be useful, but WITHOUT ANY WARRANTY; without even the implied *
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.           *
+ * See the GNU General Public License for more details.                       *
+ * You should have received a copy of the GNU General Public License along    *
+ * with this program; if not, write to the Free Software Foundation, Inc.,    *
+ * 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA.                     *
+ *****************************************************************************/
+package de.bxservice.sepa;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.sql.Timestamp;
+import java.time.DayOfWeek;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.Random;
+import java.util.logging.Level;
+
+import org.compiere.model.MBPBankAccount;
+import org.compiere.model.MBPGroup;
+import org.compiere.model.MBPartner;
+import org.compiere.model.MBPartnerLocation;
+import org.compiere.model.MCalendar;
+import org.compiere.model.MCountry;
+import org.compiere.model.MDocType;
+import org.compiere.model.MInvoice;
+import org.compiere.model.MLocation;
+import org.compiere.model.MOrder;
+import org.compiere.model.MPaySelection;
+import org.compiere.model.MPaySelectionCheck;
+import org.compiere.model.MPaySelectionLine;
+import org.compiere.model.MSysConfig;
+import org.compiere.model.MWarehouse;
+import org.compiere.model.Query;
+import org.compiere.model.X_C_NonBusinessDay;
+import org.compiere.util.CLogger;
+import org.compiere.util.DB;
+import org.compiere.util.Env;
+import org.compiere.util.Trx;
+
+/**
+ * Synthetic partners with a location and a bank account with mandate,
+ * invoices, orders, bank holidays and a payment selection with checks of both
+ * payment rules, so {@link SEPAExportBenchmarkProcess} can measure the export
+ * on a test system at a volume its own data does not have. The payment
+ * selection uses the bank account, organization and pay date of an existing
+ * one.
+ * <p>
+ * The data is committed, the model caches the export reads through load on
+ * their own connection and would not see it otherwise, and {@link #delete()}
+ * removes it again. Partners are found by the search key prefix of the run.
+ *
+ * @author Diego Ruiz - Bx Service GmbH
+ */
+public class SEPAExportBenchmarkData {
+
+	private static final CLogger s_log = CLogger.getCLogger(SEPAExportBenchmarkData.class);
+
+	/** Checks saved per commit */
+	private static final int COMMIT_SIZE = 500;
+	/** Bank holidays after the pay date, the export shifts the execution date past them */
+	private static final int HOLIDAYS = 3;
+	private static final String[] NAMES = { "Müller", "Schmidt", "Schneider", "Fischer", "Weber", "Meyer",
+			"Wagner", "Becker", "Schulz", "Hoffmann" };
+
+	private final Properties ctx;
+	private final MPaySelection template;
+	/** Search key prefix of the partners of this run */
+	private final String prefix;
+	private final Random random = new Random(42);
+
+	private int C_PaySelection_ID = 0;
+	private int C_Location_ID = 0;
+	private final List<Integer> nonBusinessDayIds = new ArrayList<>();
+
+	/**
+	 * @param ctx      context of the client the data is created in
+	 * @param template payment selection whose bank account, organization and pay
+	 *                 date are used
+	 */
+	public SEPAExportBenchmarkData(Properties ctx, MPaySelection template) {
+		this.ctx = ctx;
+		this.template = template;
+		this.prefix = "SEPA-Benchmark-" + Long.toString(System.currentTimeMillis(), 36) + "-";
+	}
+
+	/**
+	 * Creates one partner per check, each with a direct debit check of customer
+	 * invoices and a credit transfer check of vendor invoices
+	 *
+	 * @param noOfChecks    checks per payment rule
+	 * @param linesPerCheck invoices per check
+	 * @return the created payment selection
+	 */
+	public int seed(int noOfChecks, int linesPerCheck) {
+		Trx trx = Trx.get(Trx.createTrxName("SEPABenchmarkSeed"), true);
+		try {
+			String trxName = trx.getTrxName();
+			MPaySelection paySelection = new MPaySelection(ctx, 0, trxName);
+			paySelection.setAD_Org_ID(template.getAD_Org_ID());
+			paySelection.setName(prefix + noOfChecks);
+			paySelection.setC_BankAccount_ID(template.getC_BankAccount_ID());
+			paySelection.setPayDate(template.getPayDate());
+			paySelection.setTotalAmt(BigDecimal.ZERO);
+			paySelection.saveEx();
+			C_PaySelection_ID = paySelection.getC_PaySelection_ID();
+
+			MCountry country = new Query(ctx, MCountry.Table_Name, MCountry.COLUMNNAME_CountryCode + "=?", trxName)
+					.setParameters("DE")
+					.first();
+			MLocation location = new MLocation(ctx, country.getC_Country_ID(), 0, "Köln", trxName);
+			location.setAddress1("Benchmarkstraße 1");
+			location.setPostal("50667");
+			location.saveEx();
+			C_Location_ID = location.getC_Location_ID();
+
+			MWarehouse[] warehouses = MWarehouse.getForOrg(ctx, template.getAD_Org_ID());
+			int M_Warehouse_ID = warehouses.length > 0 ? warehouses[0].getM_Warehouse_ID() : 0;
+			MBPGroup group = MBPGroup.getDefault(ctx);
+			LocalDate payDate = template.getPayDate().toLocalDateTime().toLocalDate();
+			seedNonBusinessDays(payDate, trxName);
+			trx.commit();
+
+			for (int i = 0; i < noOfChecks; i++) {
+				MBPartner partner = new MBPartner(ctx, 0, trxName);
+				partner.setValue(prefix + i);
+				partner.setName(NAMES[i % NAMES.length] + " " + i);
+				partner.setBPGroup(group);
+				partner.setIsCustomer(true);
+				partner.setIsVendor(true);
+				if (i % 3 == 0)
+					partner.setReferenceNo("K" + (10000 + i));
+				partner.saveEx();
+
+				MBPartnerLocation partnerLocation = new MBPartnerLocation(partner);
+				partnerLocation.setC_Location_ID(C_Location_ID);
+				partnerLocation.saveEx();
+
+				MBPBankAccount account = new MBPBankAccount(ctx, 0, trxName);
+				account.setC_BPartner_ID(partner.getC_BPartner_ID());
+				account.setBPBankAcctUse(MBPBankAccount.BPBANKACCTUSE_Both);
+				account.setIsACH(true);
+				account.setA_Name(partner.getName());
+				account.setIBAN(getIBAN(500105170000000000L + i));
+				if (i % 2 == 0)
+					account.setSwiftCode("INGDDEFFXXX");
+				account.set_ValueOfColumn(MBPBankAccountHelper.COLUMNNAME_MNDTID, "MNDT-" + prefix + i);
+				account.set_ValueOfColumn(MBPBankAccountHelper.COLUMNNAME_DATEDOC,
+						Timestamp.valueOf(payDate.minusDays(30 + i % 700).atStartOfDay()));
+				account.set_ValueOfColumn(MBPBankAccountHelper.COLUMNNAME_SEPASDDSCHEME, i % 5 == 0 ? "B2B" : "COR1");
+				account.set_ValueOfColumn(MBPBankAccountHelper.COLUMNNAME_ISTRANSFERRED, i % 4 != 0);
+				account.saveEx();
+
+				seedCheck(paySelection, partner, account, MPaySelectionCheck.PAYMENTRULE_DirectDebit, i,
+						linesPerCheck, M_Warehouse_ID, payDate);
+				seedCheck(paySelection, partner, account, MPaySelectionCheck.PAYMENTRULE_DirectDeposit, i,
+						linesPerCheck, M_Warehouse_ID, payDate);
+				if ((i + 1) % COMMIT_SIZE == 0)
+					trx.commit();
+			}
+			trx.commit();
+			return C_PaySelection_ID;
+		} finally {
+			trx.rollback();
+			trx.close();
+		}
+	}
+
+	/**
+	 * One check with its invoices, every other invoice with an order and every
+	 * fifth with a PO reference
+	 */
+	private void seedCheck(MPaySelection paySelection, MBPartner partner, MBPBankAccount account,
+			String paymentRule, int i, int linesPerCheck, int M_Warehouse_ID, LocalDate payDate) {
+		boolean isSOTrx = MPaySelectionCheck.PAYMENTRULE_DirectDebit.equals(paymentRule);
+		String trxName = paySelection.get_TrxName();
+
+		MPaySelectionCheck check = new MPaySelectionCheck(paySelection, paymentRule);
+		check.setC_BPartner_ID(partner.getC_BPartner_ID());
+		check.setC_BP_BankAccount_ID(account.getC_BP_BankAccount_ID());
+		check.setQty(linesPerCheck);
+		check.saveEx();
+
+		BigDecimal payAmt = BigDecimal.ZERO;
+		for (int j = 0; j < linesPerCheck; j++) {
+			Timestamp dateInvoiced = Timestamp.valueOf(payDate.minusDays(random.nextInt(60)).atStartOfDay());
+			MInvoice invoice = new MInvoice(ctx, 0, trxName);
+			invoice.setAD_Org_ID(paySelection.getAD_Org_ID());
+			invoice.setIsSOTrx(isSOTrx);
+			invoice.setC_DocTypeTarget_ID(isSOTrx ? MDocType.DOCBASETYPE_ARInvoice : MDocType.DOCBASETYPE_APInvoice);
+			invoice.setBPartner(partner);
+			invoice.setDateInvoiced(dateInvoiced);
+			invoice.setDateAcct(dateInvoiced);
+			invoice.setPaymentRule(paymentRule);
+			if (i % 5 == 0)
+				invoice.setPOReference("PO-" + i);
+			if (j % 2 == 0 && M_Warehouse_ID > 0) {
+				MOrder order = new MOrder(ctx, 0, trxName);
+				order.setAD_Org_ID(paySelection.getAD_Org_ID());
+				order.setIsSOTrx(isSOTrx);
+				order.setC_DocTypeTarget_ID();
+				order.setBPartner(partner);
+				order.setM_Warehouse_ID(M_Warehouse_ID);
+				order.setDateOrdered(dateInvoiced);
+				order.setDatePromised(dateInvoiced);
+				order.saveEx();
+				invoice.setC_Order_ID(order.getC_Order_ID());
+			}
+			// a header without lines, the export only reads the totals
+			BigDecimal amount = BigDecimal.valueOf(100 + random.nextInt(1000000), 2);
+			invoice.setTotalLines(amount);
+			invoice.setGrandTotal(amount);
+			invoice.saveEx();
+
+			MPaySelectionLine line = new MPaySelectionLine(paySelection, (j + 1) * 10, paymentRule);
+			line.setInvoice(invoice.getC_Invoice_ID(), isSOTrx, amount, amount, BigDecimal.ZERO, BigDecimal.ZERO);
+			line.setC_PaySelectionCheck_ID(check.getC_PaySelectionCheck_ID());
+			if (j == 0 && i % 7 == 0)
+				line.setDescription("Skonto 2%");
+			line.saveEx();
+			payAmt = payAmt.add(amount);
+		}
+		check.setPayAmt(payAmt);
+		check.saveEx();
+	}
+
+	/**
+	 * Bank holidays on the first weekdays after the pay date, named to match
+	 * SEPA_BANKHOLIDAY_KEYWORD. Without a keyword the export finds none.
+	 */
+	private void seedNonBusinessDays(LocalDate payDate, String trxName) {
+		String keyword = MSysConfig.getValue("SEPA_BANKHOLIDAY_KEYWORD", Env.getAD_Client_ID(ctx));
+		if (keyword == null || keyword.isBlank())
+			return;
+		String name = keyword.replace("%", "").replace('_', 'x');
+		int C_Calendar_ID = MCalendar.getDefault(ctx).getC_Calendar_ID();
+		LocalDate day = payDate;
+		for (int i = 0; i < HOLIDAYS; day = day.plusDays(1)) {
+			if (day.getDayOfWeek() == DayOfWeek.SATURDAY || day.getDayOfWeek() == DayOfWeek.SUNDAY)
+				continue;
+			X_C_NonBusinessDay nonBusinessDay = new X_C_NonBusinessDay(ctx, 0, trxName);
+			nonBusinessDay.setC_Calendar_ID(C_Calendar_ID);
+			nonBusinessDay.setDate1(Timestamp.valueOf(day.atStartOfDay()));
+			nonBusinessDay.setName(name);
+			nonBusinessDay.saveEx();
+			nonBusinessDayIds.add(nonBusinessDay.getC_NonBusinessDay_ID());
+			i++;
+		}
+	}
+
+	/**
+	 * Deletes everything {@link #seed(int, int)} created. The documents are
+	 * drafts without lines and are deleted directly, the partners through the
+	 * model to remove their accounting and tree records.
+	 */
+	public void delete() {
+		Trx trx = Trx.get(Trx.createTrxName("SEPABenchmarkDelete"), true);
+		try {
+			String trxName = trx.getTrxName();
+			String partners = " IN (SELECT C_BPartner_ID FROM C_BPartner WHERE AD_Client_ID=? AND Value LIKE ?)";
+			Object[] params = { Env.getAD_Client_ID(ctx), prefix + "%" };
+			if (C_PaySelection_ID > 0) {
+				DB.executeUpdateEx("DELETE FROM C_PaySelectionLine WHERE C_PaySelection_ID=?",
+						new Object[] { C_PaySelection_ID }, trxName);
+				DB.executeUpdateEx("DELETE FROM C_PaySelectionCheck WHERE C_PaySelection_ID=?",
+						new Object[] { C_PaySelection_ID }, trxName);
+				DB.executeUpdateEx("DELETE FROM C_PaySelection WHERE C_PaySelection_ID=?",
+						new Object[] { C_PaySelection_ID }, trxName);
+			}
+			DB.executeUpdateEx("DELETE FROM C_Invoice WHERE C_BPartner_ID" + partners, params, trxName);
+			DB.executeUpdateEx("DELETE FROM C_Order WHERE C_BPartner_ID" + partners, params, trxName);
+			DB.executeUpdateEx("DELETE FROM C_BP_BankAccount WHERE C_BPartner_ID" + partners, params, trxName);
+			DB.executeUpdateEx("DELETE FROM C_BPartner_Location WHERE C_BPartner_ID" + partners, params, trxName);
+			List<MBPartner> seeded = new Query(ctx, MBPartner.Table_Name, "Value LIKE ?", trxName)
+					.setParameters(prefix + "%")
+					.setClient_ID()
+					.list();
+			for (MBPartner partner : seeded)
+				partner.deleteEx(true);
+			if (C_Location_ID > 0)
+				DB.executeUpdateEx("DELETE FROM C_Location WHERE C_Location_ID=?", new Object[] { C_Location_ID },
+						trxName);
+			for (int C_NonBusinessDay_ID : nonBusinessDayIds)
+				DB.executeUpdateEx("DELETE FROM C_NonBusinessDay WHERE C_NonBusinessDay_ID=?",
+						new Object[] { C_NonBusinessDay_ID }, trxName);
+			trx.commit(true);
+		} catch (Exception e) {
+			// the partners keep the prefix and can be found and deleted by hand
+			s_log.log(Level.SEVERE, "Benchmark data with the search key prefix " + prefix + " not deleted", e);
+		} finally {
+			trx.close();
+		}
+	}
+
+	/**
+	 * @return German IBAN with valid check digits
+	 */
+	private static String getIBAN(long bban) {
+		String number = String.format("%018d", bban);
+		int checkDigits = 98 - new BigInteger(number + "131400").mod(BigInteger.valueOf(97)).intValue();
+		return String.format("DE%02d%s", checkDigits, number);
+	}
+
+}
@@ -0,0 +1,184 @@
+/******************************************************************************
+ * Product: iDempiere Business Suite ERP/CRM/SCM                              *
+ * This program is free software; you can redistribute it and/or modify it    *
+ * under the terms version 2 of the GNU General Public License as published   *
+ * by the Free Software Foundation. This program is distributed in the hope   *
+ * that it will be useful, but WITHOUT ANY WARRANTY; without even the implied *
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.           *
+ * See the GNU General Public License for more details.                       *
+ * You should have received a copy of the GNU General Public License along    *
+ * with this program; if not, write to the Free Software Foundation, Inc.,    *
+ * 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA.                     *
+ *****************************************************************************/
+package de.bxservice.sepa;
+
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.logging.Level;
+
+import org.adempiere.exceptions.AdempiereException;
+import org.compiere.model.MPaySelection;
+import org.compiere.model.MPaySelectionCheck;
+import org.compiere.process.ProcessInfoParameter;
+import org.compiere.process.SvrProcess;
+import org.compiere.util.Trx;
+
+import de.bxservice.sepa.source.SEPARoundTrips;
+
+/**
+ * Runs the export of a pay selection through {@link POExportSource} against
+ * the database and reports wall time, peak heap, bytes written and the
+ * database round trips per table and call site, the figures the load test
+ * reports for its in-memory stand-in.
+ * <p>
+ * The export runs in its own transaction that is rolled back, the mandates
+ * keep their sequence type, and the file is deleted. With the parameter
+ * NoOfChecks the payment selection is only a template: the process seeds that
+ * many synthetic checks per payment rule with {@link SEPAExportBenchmarkData},
+ * measures their export and deletes them again. The process fails when
+ * the round trips per transaction exceed SEPA_MAX_ROUNDTRIPS_PER_TRX, so a
+ * test system catches a regression before an upgrade reaches production.
+ *
+ * @author Diego Ruiz - Bx Service GmbH
+ */
+public class SEPAExportBenchmarkProcess extends SvrProcess {
+
+	private static final String[] PAYMENT_RULES = { MPaySelectionCheck.PAYMENTRULE_DirectDebit,
+			MPaySelectionCheck.PAYMENTRULE_DirectDeposit };
+
+	/** Invoices per seeded check, as in the load test */
+	private static final int SEEDED_LINES_PER_CHECK = 2;
+
+	private int p_C_PaySelection_ID = 0;
+	private int p_NoOfChecks = 0;
+
+	@Override
+	protected void prepare() {
+		for (ProcessInfoParameter para : getParameter()) {
+			String name = para.getParameterName();
+			if (para.getParameter() == null)
+				;
+			else if (name.equals("NoOfChecks"))
+				p_NoOfChecks = para.getParameterAsInt();
+			else
+				log.log(Level.SEVERE, "Unknown Parameter: " + name);
+		}
+		p_C_PaySelection_ID = getRecord_ID();
+	}
+
+	@Override
+	protected String doIt() throws Exception {
+		if (p_C_PaySelection_ID <= 0)
+			throw new AdempiereException("@NotFound@ @C_PaySelection_ID@");
+		if (p_NoOfChecks <= 0)
+			return benchmark(p_C_PaySelection_ID);
+
+		SEPAExportBenchmarkData data = new SEPAExportBenchmarkData(getCtx(),
+				new MPaySelection(getCtx(), p_C_PaySelection_ID, get_TrxName()));
+		try {
+			long start = System.nanoTime();
+			int C_PaySelection_ID = data.seed(p_NoOfChecks, SEEDED_LINES_PER_CHECK);
+			addLog(0, null, BigDecimal.valueOf(p_NoOfChecks), String.format(Locale.ROOT,
+					"Seeded %d checks per payment rule with %d invoices each in %d ms", p_NoOfChecks,
+					SEEDED_LINES_PER_CHECK, (System.nanoTime() - start) / 1_000_000));
+			return benchmark(C_PaySelection_ID);
+		} finally {
+			data.delete();
+		}
+	}
+
+	/**
+	 * Exports the checks of each payment rule of the payment selection
+	 *
+	 * @return process message
+	 */
+	private String benchmark(int C_PaySelection_ID) throws Exception {
+		List<String> exceeded = new ArrayList<>();
+		int numberOfTransactions = 0;
+		for (String paymentRule : PAYMENT_RULES) {
+			Trx trx = Trx.get(Trx.createTrxName("SEPABenchmark"), true);
+			try {
+				MPaySelectionCheck[] checks = MPaySelectionCheck.get(C_PaySelection_ID, paymentRule, 0,
+						trx.getTrxName());
+				if (checks.length > 0) {
+					String message = benchmark(checks, paymentRule, trx.getTrxName());
+					if (message != null)
+						exceeded.add(message);
+					numberOfTransactions += checks.length;
+				}
+			} finally {
+				// nothing of the export is kept
+				trx.rollback();
+				trx.close();
+			}
+		}
+
+		if (!exceeded.isEmpty())
+			throw new AdempiereException(String.join(", ", exceeded));
+		return "@Count@ = " + numberOfTransactions;
+	}
+
+	/**
+	 * Exports the checks once and logs the figures
+	 *
+	 * @return message if the round trip budget is exceeded, else null
+	 */
+	private String benchmark(MPaySelectionCheck[] checks, String paymentRule, String trxName) throws Exception {
+		POExportSource source = new POExportSource(trxName);
+		SEPAPaymentExport export = new SEPAPaymentExport();
+		export.setDocumentType(paymentRule);
+		File file = File.createTempFile("SEPA-benchmark-", export.getFilenameSuffix());
+
+		List<MemoryPoolMXBean> heapPools = new ArrayList<>();
+		for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+			if (pool.getType() == MemoryType.HEAP)
+				heapPools.add(pool);
+		}
+		long baseline = 0;
+		for (MemoryPoolMXBean pool : heapPools) {
+			pool.resetPeakUsage();
+			baseline += pool.getUsage().getUsed();
+		}
+
+		StringBuffer err = new StringBuffer();
+		SEPARoundTrips roundTrips = SEPARoundTrips.start(true);
+		long start = System.nanoTime();
+		int no;
+		long bytes;
+		try {
+			no = export.exportToFile(source, source.getChecks(checks), paymentRule, file, err);
+			bytes = file.length();
+		} finally {
+			roundTrips.close();
+			file.delete();
+		}
+		long millis = (System.nanoTime() - start) / 1_000_000;
+		if (no < 0)
+			throw new AdempiereException(err.toString());
+
+		long peakHeap = 0;
+		for (MemoryPoolMXBean pool : heapPools)
+			peakHeap += pool.getPeakUsage().getUsed();
+
+		String label = MPaySelectionCheck.PAYMENTRULE_DirectDebit.equals(paymentRule) ? "Direct Debit"
+				: "Credit Transfer";
+		double perTransaction = roundTrips.getPerTransaction(no);
+		addLog(0, null, BigDecimal.valueOf(no), String.format(Locale.ROOT,
+				"%s: %d ms, heap %d MB (peak %d MB), %d bytes, %d round trips (%.2f per transaction)", label,
+				millis, Math.max(0, peakHeap - baseline) >> 20, peakHeap >> 20, bytes, roundTrips.getTotal(),
+				perTransaction));
+		for (Map.Entry<String, Long> entry : roundTrips.getCounts().entrySet())
+			addLog(0, null, BigDecimal.valueOf(entry.getValue()), label + ": " + entry.getKey());
+
+		String message = roundTrips.checkBudget(SEPARoundTrips.getBudget(source), no);
+		return message == null ? null : label + ": " + message;
+	}
+
+}
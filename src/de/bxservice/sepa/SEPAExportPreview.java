@@ -0,0 +1,314 @@
+/******************************************************************************
+ * Product: iDempiere Business Suite ERP/CRM/SCM                              *
+ * This program is free software; you can redistribute it and/or modify it    *
+ * under the terms version 2 of the GNU General Public License as published   *
+ * by the Free Software Foundation. This program is distributed in the hope   *
+ * that it will be useful, but WITHOUT ANY WARRANTY; without even the implied *
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.           *
+ * See the GNU General Public License for more details.                       *
+ * You should have received a copy of the GNU General Public License along    *
+ * with this program; if not, write to the Free Software Foundation, Inc.,    *
+ * 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA.                     *
+ *****************************************************************************/
+package de.bxservice.sepa;
+
+import java.math.BigDecimal;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.adempiere.exceptions.DBException;
+import org.compiere.model.MPaySelectionCheck;
+import org.compiere.util.DB;
+import org.compiere.util.Util;
+
+import de.bxservice.sepa.source.SEPAPaySelection;
+
+/**
+ * What an export of a pay selection would write, without rendering anything
+ * or changing IsTransferred: number of transactions and control sum per
+ * scheme, sequence type and execution date, and for direct debits per
+ * creditor organization, creditor identifier and bank account like the PmtInf
+ * blocks of {@link SEPADirectDebitPartition}.
+ * <p>
+ * The figures come from one aggregate query over C_PaySelectionCheck and the
+ * C_BP_BankAccount the export takes for each partner, the first active one by
+ * Created with an IBAN that allows the payment rule. Checks the export would
+ * fail on or skip are reported in groups of their own.
+ * <p>
+ * Like the export, only the first check of a partner whose mandate was never
+ * collected is counted as FRST, its other checks as RCUR. The checks of a
+ * partner are taken in the order of their ids.
+ *
+ * @author Diego Ruiz - Bx Service GmbH
+ */
+public class SEPAExportPreview {
+
+	/** Y for the first check of its partner, the only one that can be FRST */
+	private static final String FIRST_CHECK = "CASE WHEN psc.PartnerCheckNo=1 THEN 'Y' ELSE 'N' END";
+	private static final String HAS_ACCOUNT = "CASE WHEN ba.C_BP_BankAccount_ID IS NULL THEN 'N' ELSE 'Y' END";
+	private static final String GROUP_BY = "ba." + MBPBankAccountHelper.COLUMNNAME_SEPASDDSCHEME + ", ba."
+			+ MBPBankAccountHelper.COLUMNNAME_ISTRANSFERRED + ", " + HAS_ACCOUNT + ", " + FIRST_CHECK
+			+ ", psc.AD_Org_ID, oi." + MOrgHelper.COLUMNNAME_AD_ORG_CREDITORIDENTIFIER + ", ps.C_BankAccount_ID";
+
+	private static final String SQL = "SELECT " + GROUP_BY + ", COUNT(*), COALESCE(SUM(psc.PayAmt),0)"
+			+ " FROM (SELECT c.C_PaySelection_ID, c.C_BPartner_ID, c.AD_Org_ID, c.PayAmt,"
+			+ " ROW_NUMBER() OVER (PARTITION BY c.C_BPartner_ID ORDER BY c.C_PaySelectionCheck_ID) AS PartnerCheckNo"
+			+ " FROM C_PaySelectionCheck c WHERE c.C_PaySelection_ID=? AND c.PaymentRule=?) psc"
+			+ " INNER JOIN C_PaySelection ps ON (ps.C_PaySelection_ID=psc.C_PaySelection_ID)"
+			+ " LEFT JOIN AD_OrgInfo oi ON (oi.AD_Org_ID=psc.AD_Org_ID)"
+			// the account getBPartnerAccount of the export chooses
+			+ " LEFT JOIN (SELECT a.C_BPartner_ID, a.C_BP_BankAccount_ID,"
+			+ " ROW_NUMBER() OVER (PARTITION BY a.C_BPartner_ID ORDER BY a.Created, a.C_BP_BankAccount_ID) AS AccountNo"
+			+ " FROM C_BP_BankAccount a"
+			+ " WHERE a.IsActive='Y' AND LENGTH(a.IBAN)>0 AND a.%s='Y'"
+			+ " AND a.C_BPartner_ID IN (SELECT C_BPartner_ID FROM C_PaySelectionCheck"
+			+ " WHERE C_PaySelection_ID=? AND PaymentRule=?)) acc"
+			+ " ON (acc.C_BPartner_ID=psc.C_BPartner_ID AND acc.AccountNo=1)"
+			+ " LEFT JOIN C_BP_BankAccount ba ON (ba.C_BP_BankAccount_ID=acc.C_BP_BankAccount_ID)"
+			+ " GROUP BY " + GROUP_BY;
+
+	private final String paymentRule;
+	private final List<Group> groups;
+
+	private SEPAExportPreview(String paymentRule, List<Group> groups) {
+		this.paymentRule = paymentRule;
+		this.groups = groups;
+	}
+
+	/**
+	 * @param C_PaySelection_ID pay selection
+	 * @param paymentRule       {@link MPaySelectionCheck#PAYMENTRULE_DirectDebit} or
+	 *                          {@link MPaySelectionCheck#PAYMENTRULE_DirectDeposit}
+	 * @param trxName           transaction
+	 * @return preview of the checks of the pay selection with the payment rule
+	 * @throws DBException if the query fails
+	 */
+	public static SEPAExportPreview get(int C_PaySelection_ID, String paymentRule, String trxName) {
+		SEPAPaymentExport export = new SEPAPaymentExport();
+		export.setDocumentType(paymentRule);
+		if (export.documentType == null)
+			throw new IllegalArgumentException("Payment Rule not supported: " + paymentRule);
+		boolean directDebit = export.isDirectDebit();
+
+		POExportSource source = new POExportSource(trxName);
+		SEPAPaySelection paySelection = source.getPaySelection(C_PaySelection_ID);
+
+		Map<String, Group> groups = new LinkedHashMap<>();
+		String sql = String.format(SQL, directDebit ? "IsDirectDebit" : "IsDirectDeposit");
+		PreparedStatement pstmt = null;
+		ResultSet rs = null;
+		try {
+			pstmt = DB.prepareStatement(sql, trxName);
+			DB.setParameters(pstmt, C_PaySelection_ID, paymentRule, C_PaySelection_ID, paymentRule);
+			rs = pstmt.executeQuery();
+			while (rs.next()) {
+				String sddScheme = rs.getString(1);
+				// the export marks the mandate as transferred with the first check of the partner
+				boolean transferred = "Y".equals(rs.getString(2)) || !"Y".equals(rs.getString(4));
+				boolean hasAccount = "Y".equals(rs.getString(3));
+
+				String scheme = null;
+				String sequenceType = null;
+				String problem = null;
+				if (!hasAccount) {
+					problem = "No valid bank account";
+				} else if (directDebit) {
+					if (Util.isEmpty(sddScheme))
+						problem = "Bank Account without a SEPA Mandate Type set";
+					else if (sddScheme.equals("B2B"))
+						scheme = SEPADirectDebitPartition.SCHEME_B2B;
+					else if (sddScheme.equals("COR1"))
+						scheme = SEPADirectDebitPartition.SCHEME_CORE;
+					else
+						problem = "Not exported, SEPA Mandate Type " + sddScheme;
+					if (scheme != null)
+						sequenceType = transferred ? SEPADirectDebitPartition.SEQUENCE_RECURRING
+								: SEPADirectDebitPartition.SEQUENCE_FIRST;
+				}
+
+				String executionDate = problem == null ? export.getExecutionDate(source, paySelection) : null;
+				// credit transfers are written in one PmtInf block
+				boolean partitioned = scheme != null;
+				Group group = new Group(scheme, sequenceType, partitioned ? rs.getInt(5) : 0,
+						partitioned ? rs.getString(6) : null, partitioned ? rs.getInt(7) : 0, executionDate, problem);
+				group = groups.merge(group.getKey(), group, (a, b) -> a);
+				group.add(rs.getInt(8), rs.getBigDecimal(9));
+			}
+		} catch (SQLException e) {
+			throw new DBException(e, sql);
+		} finally {
+			DB.close(rs, pstmt);
+		}
+
+		List<Group> list = new ArrayList<>(groups.values());
+		// like the export: B2B before CORE, FRST before RCUR, what is not exported last
+		list.sort(Comparator.comparing((Group g) -> g.getProblem() != null)
+				.thenComparing(Group::getScheme, Comparator.nullsLast(Comparator.naturalOrder()))
+				.thenComparing(Group::getSequenceType, Comparator.nullsLast(Comparator.naturalOrder()))
+				.thenComparing(Group::getExecutionDate, Comparator.nullsLast(Comparator.naturalOrder()))
+				.thenComparingInt(Group::getAD_Org_ID)
+				.thenComparing(Group::getCreditorIdentifier, Comparator.nullsLast(Comparator.naturalOrder()))
+				.thenComparingInt(Group::getC_BankAccount_ID));
+		return new SEPAExportPreview(paymentRule, list);
+	}
+
+	/**
+	 * @return payment rule of the previewed checks
+	 */
+	public String getPaymentRule() {
+		return paymentRule;
+	}
+
+	/**
+	 * @return groups, those with a {@link Group#getProblem()} last
+	 */
+	public List<Group> getGroups() {
+		return groups;
+	}
+
+	/**
+	 * @return transactions the export writes
+	 */
+	public int getNumberOfTransactions() {
+		int numberOfTransactions = 0;
+		for (Group group : groups) {
+			if (group.getProblem() == null)
+				numberOfTransactions += group.getNumberOfTransactions();
+		}
+		return numberOfTransactions;
+	}
+
+	/**
+	 * @return sum of the amounts the export writes
+	 */
+	public BigDecimal getControlSum() {
+		BigDecimal controlSum = BigDecimal.ZERO;
+		for (Group group : groups) {
+			if (group.getProblem() == null)
+				controlSum = controlSum.add(group.getControlSum());
+		}
+		return controlSum;
+	}
+
+	/**
+	 * Checks of one PmtInf block: scheme, sequence type, creditor and execution
+	 * date, or checks that cannot be exported for the same reason
+	 */
+	public static class Group {
+		private final String scheme;
+		private final String sequenceType;
+		private final int AD_Org_ID;
+		private final String creditorIdentifier;
+		private final int C_BankAccount_ID;
+		private final String executionDate;
+		private final String problem;
+		private int numberOfTransactions;
+		private BigDecimal controlSum = BigDecimal.ZERO;
+
+		Group(String scheme, String sequenceType, int AD_Org_ID, String creditorIdentifier, int C_BankAccount_ID,
+				String executionDate, String problem) {
+			this.scheme = scheme;
+			this.sequenceType = sequenceType;
+			this.AD_Org_ID = AD_Org_ID;
+			this.creditorIdentifier = creditorIdentifier;
+			this.C_BankAccount_ID = C_BankAccount_ID;
+			this.executionDate = executionDate;
+			this.problem = problem;
+		}
+
+		void add(int numberOfTransactions, BigDecimal controlSum) {
+			this.numberOfTransactions += numberOfTransactions;
+			this.controlSum = this.controlSum.add(controlSum);
+		}
+
+		String getKey() {
+			if (scheme != null)
+				return SEPADirectDebitPartition.getKey(scheme, sequenceType, AD_Org_ID, creditorIdentifier,
+						C_BankAccount_ID, executionDate);
+			return executionDate + "|" + problem;
+		}
+
+		/**
+		 * @return B2B or CORE, null for credit transfers
+		 */
+		public String getScheme() {
+			return scheme;
+		}
+
+		/**
+		 * @return FRST or RCUR, null for credit transfers
+		 */
+		public String getSequenceType() {
+			return sequenceType;
+		}
+
+		/**
+		 * @return creditor organization of a direct debit block, 0 for credit
+		 *         transfers
+		 */
+		public int getAD_Org_ID() {
+			return AD_Org_ID;
+		}
+
+		/**
+		 * @return creditor identifier of the organization, null for credit
+		 *         transfers
+		 */
+		public String getCreditorIdentifier() {
+			return creditorIdentifier;
+		}
+
+		/**
+		 * @return creditor bank account of a direct debit block, 0 for credit
+		 *         transfers
+		 */
+		public int getC_BankAccount_ID() {
+			return C_BankAccount_ID;
+		}
+
+		/**
+		 * @return execution or requested collection date, yyyy-MM-dd
+		 */
+		public String getExecutionDate() {
+			return executionDate;
+		}
+
+		/**
+		 * @return why the checks are not exported, null if they are
+		 */
+		public String getProblem() {
+			return problem;
+		}
+
+		public int getNumberOfTransactions() {
+			return numberOfTransactions;
+		}
+
+		public BigDecimal getControlSum() {
+			return controlSum;
+		}
+
+		@Override
+		public String toString() {
+			StringBuilder text = new StringBuilder();
+			if (problem != null)
+				text.append(problem);
+			else if (scheme != null) {
+				text.append(scheme).append('-').append(sequenceType).append(' ').append(executionDate);
+				if (!Util.isEmpty(creditorIdentifier))
+					text.append(' ').append(creditorIdentifier);
+			}
+			else
+				text.append(executionDate);
+			return text.append(": ").append(numberOfTransactions).append(" / ").append(controlSum.toPlainString())
+					.toString();
+		}
+	}
+
+}
@@ -0,0 +1,66 @@
+/******************************************************************************
+ * Product: iDempiere Business Suite ERP/CRM/SCM                              *
+ * This program is free software; you can redistribute it and/or modify it    *
+ * under the terms version 2 of the GNU General Public License as published   *
+ * by the Free Software Foundation. This program is distributed in the hope   *
+ * that it will be useful, but WITHOUT ANY WARRANTY; without even the implied *
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.           *
+ * See the GNU General Public License for more details.                       *
+ * You should have received a copy of the GNU General Public License along    *
+ * with this program; if not, write to the Free Software Foundation, Inc.,    *
+ * 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA.                     *
+ *****************************************************************************/
+package de.bxservice.sepa;
+
+import java.math.BigDecimal;
+
+import org.adempiere.exceptions.AdempiereException;
+import org.compiere.model.MPaySelectionCheck;
+import org.compiere.process.SvrProcess;
+
+/**
+ * Shows on a pay selection what its SEPA export would contain, one log line
+ * per scheme, sequence type and execution date with the number of
+ * transactions and the control sum. Nothing is rendered or changed.
+ *
+ * @author Diego Ruiz - Bx Service GmbH
+ */
+public class SEPAExportPreviewProcess extends SvrProcess {
+
+	private static final String[] PAYMENT_RULES = { MPaySelectionCheck.PAYMENTRULE_DirectDebit,
+			MPaySelectionCheck.PAYMENTRULE_DirectDeposit };
+
+	private int p_C_PaySelection_ID = 0;
+
+	@Override
+	protected void prepare() {
+		p_C_PaySelection_ID = getRecord_ID();
+	}
+
+	@Override
+	protected String doIt() throws Exception {
+		if (p_C_PaySelection_ID <= 0)
+			throw new AdempiereException("@NotFound@ @C_PaySelection_ID@");
+
+		int numberOfTransactions = 0;
+		BigDecimal controlSum = BigDecimal.ZERO;
+		int notExported = 0;
+		for (String paymentRule : PAYMENT_RULES) {
+			SEPAExportPreview preview = SEPAExportPreview.get(p_C_PaySelection_ID, paymentRule, get_TrxName());
+			String label = MPaySelectionCheck.PAYMENTRULE_DirectDebit.equals(paymentRule) ? "Direct Debit"
+					: "Credit Transfer";
+			for (SEPAExportPreview.Group group : preview.getGroups()) {
+				addLog(0, null, group.getControlSum(), label + " " + group);
+				if (group.getProblem() != null)
+					notExported += group.getNumberOfTransactions();
+			}
+			numberOfTransactions += preview.getNumberOfTransactions();
+			controlSum = controlSum.add(preview.getControlSum());
+		}
+
+		// nothing is created, the figures are what an export would write
+		return "@Count@ = " + numberOfTransactions + ", @Total@ = " + controlSum.toPlainString()
+				+ (notExported > 0 ? ", @Error@ = " + notExported : "");
+	}
+
+}
@@ -0,0 +1,286 @@
+/******************************************************************************
+ * Product: iDempiere Business Suite ERP/CRM/SCM                              *
+ * This program is free software; you can redistribute it and/or modify it    *
+ * under the terms version 2 of the GNU General Public License as published   *
+ * by the Free Software Foundation. This program is distributed in the hope   *
+ * that it will be useful, but WITHOUT ANY WARRANTY; without even the implied *
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.           *
+ * See the GNU General Public License for more details.                       *
+ * You should have received a copy of the GNU General Public License along    *
+ * with this program; if not, write to the Free Software Foundation, Inc.,    *
+ * 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA.                     *
+ *****************************************************************************/
+package de.bxservice.sepa;
+
+import java.io.OutputStream;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.List;
+
+import org.adempiere.exceptions.AdempiereException;
+import org.compiere.model.MBPBankAccount;
+import org.compiere.model.MBankAccount;
+import org.compiere.model.MPaySelection;
+import org.compiere.model.MPaySelectionCheck;
+import org.compiere.util.CCache;
+
+import de.bxservice.sepa.source.SEPABankAccount;
+import de.bxservice.sepa.source.SEPACheck;
+import de.bxservice.sepa.source.SEPAExportSource;
+import de.bxservice.sepa.source.SEPAPartnerAccount;
+import de.bxservice.sepa.source.SEPAPaySelection;
+import de.bxservice.sepa.writer.Pain001_001_09Writer;
+import de.bxservice.sepa.writer.SEPAByteBuffer;
+import de.bxservice.sepa.writer.SEPAGroupHeader;
+import de.bxservice.sepa.writer.SEPAMessageWriter;
+import de.bxservice.sepa.writer.SEPAPaymentInfo;
+import de.bxservice.sepa.writer.SEPATransaction;
+
+/**
+ * SEPA Instant Credit Transfer (SCT Inst) export.
+ * <p>
+ * Through the {@link org.compiere.util.PaymentExport} interface all checks go
+ * into one pain.001 message with LclInstrm INST and without batch booking.
+ * Urgent single payments use {@link #renderInstantPayment(MPaySelectionCheck, OutputStream, StringBuffer)},
+ * which renders one message per check with a pooled buffer. The pay selection,
+ * the accounts of the partner and the validated data of our own account are
+ * cached, so only the lines of the check are read from the database. It reads
+ * in the transaction of the check; this bundle does not register a model event
+ * that calls it, the plugin that sends the payments decides when to.
+ * <p>
+ * The message version is taken from the bank account like for normal credit
+ * transfers, pain.001.001.09 if none is set. A version that cannot carry
+ * instant payments, like pain.001.003.03, is rejected.
+ *
+ * @author Diego Ruiz - Bx Service GmbH
+ */
+public class SEPAInstantPaymentExport extends SEPAPaymentExport {
+
+	/** LclInstrm code of SEPA Instant Credit Transfers */
+	public static final String LOCAL_INSTRUMENT_INST = "INST";
+
+	private static final DateTimeFormatter MSGID_FORMAT = DateTimeFormatter.ofPattern("yyyyMMddHHmmssSSS");
+	private static final DateTimeFormatter CREATION_FORMAT = DateTimeFormatter.ofPattern("yyyy-MM-dd'T'HH:mm:ss.SSS");
+	private static final DateTimeFormatter DATE_FORMAT = DateTimeFormatter.ISO_LOCAL_DATE;
+
+	/** Render buffer per thread, reused for every message */
+	private static final ThreadLocal<SEPAByteBuffer> s_buffers = ThreadLocal
+			.withInitial(() -> new SEPAByteBuffer(4096));
+
+	/**
+	 * Debtor data per bank account, organization and the values it was validated
+	 * with, which are read from the model caches for every message. A changed
+	 * name, IBAN or BIC gives a new key.
+	 */
+	private static final CCache<String, DebtorContext> s_debtorCache = new CCache<>(MBankAccount.Table_Name,
+			"SEPAInstantDebtor", 10, 60, false);
+
+	/** Pay selections of the instant payments, reset when a pay selection changes */
+	private static final CCache<Integer, SEPAPaySelection> s_paySelectionCache = new CCache<>(
+			MPaySelection.Table_Name, "SEPAInstantPaySelection", 10, 60, false);
+
+	/** Accounts per partner, reset when any partner account changes */
+	private static final CCache<String, List<SEPAPartnerAccount>> s_partnerAccountCache = new CCache<>(
+			MBPBankAccount.Table_Name, "SEPAInstantPartnerAccounts", 100, 60, false);
+
+	/**
+	 * default constructor
+	 */
+	public SEPAInstantPaymentExport() {
+		setDocumentType(MPaySelectionCheck.PAYMENTRULE_DirectDeposit);
+	}
+
+	/**
+	 * SCT Inst only exists for credit transfers, other payment rules are not
+	 * supported
+	 */
+	@Override
+	public void setDocumentType(String paymentRule) {
+		super.setDocumentType(paymentRule);
+		if (isDirectDebit())
+			documentType = null;
+		else if (documentType != null)
+			documentType = Pain001_001_09Writer.MESSAGE_TYPE;
+	}
+
+	/**
+	 * The version of the bank account, which must support SCT Inst
+	 *
+	 * @throws AdempiereException if the version cannot carry instant payments
+	 */
+	@Override
+	protected SEPAMessageWriter getMessageWriter(SEPABankAccount bankAccount) {
+		SEPAMessageWriter writer = super.getMessageWriter(bankAccount);
+		if (!writer.isInstantPaymentSupported())
+			throw new AdempiereException(writer.getMessageType() + " does not support SEPA Instant Credit Transfers,"
+					+ " set pain.001.001.09 or later as SEPA credit transfer version of the bank account "
+					+ bankAccount.getIBAN());
+		return writer;
+	}
+
+	@Override
+	protected SEPAPaymentInfo createCreditTransferPaymentInfo(SEPAExportSource source,
+			SEPAPaySelection paySelection, long now, StringBuffer err) throws Exception {
+		LocalDateTime time = LocalDateTime.ofInstant(Instant.ofEpochMilli(now), ZoneId.systemDefault());
+		return createInstantPaymentInfo(getDebtorContext(source, paySelection, err),
+				MSGID_FORMAT.format(time) + "/INST", time);
+	}
+
+	/**
+	 * Renders a SCT Inst message with the check as its only transaction
+	 *
+	 * @param check pay selection check
+	 * @param out   stream the message is written to
+	 * @param err   error messages
+	 * @return size of the message in bytes
+	 * @throws Exception if the check or the bank account cannot be exported
+	 */
+	public int renderInstantPayment(MPaySelectionCheck check, OutputStream out, StringBuffer err) throws Exception {
+		SEPAByteBuffer buffer = s_buffers.get();
+		buffer.reset();
+		renderInstantPayment(check, buffer, err);
+		buffer.writeTo(out);
+		return buffer.size();
+	}
+
+	/**
+	 * Renders a SCT Inst message with the check as its only transaction
+	 *
+	 * @param check pay selection check
+	 * @param err   error messages
+	 * @return the message
+	 * @throws Exception if the check or the bank account cannot be exported
+	 */
+	public byte[] renderInstantPayment(MPaySelectionCheck check, StringBuffer err) throws Exception {
+		SEPAByteBuffer buffer = s_buffers.get();
+		buffer.reset();
+		renderInstantPayment(check, buffer, err);
+		return buffer.toByteArray();
+	}
+
+	/**
+	 * Renders a SCT Inst message with the check as its only transaction into the
+	 * buffer
+	 */
+	public void renderInstantPayment(MPaySelectionCheck check, SEPAByteBuffer out, StringBuffer err)
+			throws Exception {
+		POExportSource source = new InstantExportSource(check.get_TrxName());
+		SEPACheck data = source.getCheck(check);
+		DebtorContext debtor = getDebtorContext(source, source.getPaySelection(data.getC_PaySelection_ID()), err);
+		SEPATransaction transaction = createTransaction(source, data, err);
+
+		LocalDateTime now = LocalDateTime.now();
+		String msgId = MSGID_FORMAT.format(now) + "/" + check.getC_PaySelectionCheck_ID();
+
+		SEPAGroupHeader header = new SEPAGroupHeader();
+		header.setMsgId(msgId);
+		header.setCreationDateTime(CREATION_FORMAT.format(now));
+		header.setNumberOfTransactions(1);
+		header.setInitiatorName(debtor.initiatorName);
+
+		SEPAPaymentInfo paymentInfo = createInstantPaymentInfo(debtor, msgId, now);
+		paymentInfo.setNumberOfTransactions(1);
+		paymentInfo.setControlSum(transaction.getAmount());
+
+		debtor.writer.writeHeader(out, header);
+		debtor.writer.writePaymentInfoStart(out, paymentInfo);
+		debtor.writer.writeTransaction(out, transaction);
+		debtor.writer.writePaymentInfoEnd(out);
+		debtor.writer.writeFooter(out);
+	}
+
+	@Override
+	public String getFilenamePrefix() {
+		return "SEPA-INST-" + MSGID_FORMAT.format(LocalDateTime.now());
+	}
+
+	private SEPAPaymentInfo createInstantPaymentInfo(DebtorContext debtor, String paymentInfoId,
+			LocalDateTime now) {
+		SEPAPaymentInfo paymentInfo = new SEPAPaymentInfo();
+		paymentInfo.setPaymentInfoId(paymentInfoId);
+		paymentInfo.setBatchBooking(false);
+		paymentInfo.setLocalInstrument(LOCAL_INSTRUMENT_INST);
+		// instant payments are executed on any calendar day, no bank day shift
+		paymentInfo.setExecutionDate(DATE_FORMAT.format(now));
+		paymentInfo.setName(debtor.name);
+		paymentInfo.setIBAN(debtor.iban);
+		paymentInfo.setBIC(debtor.bic);
+		return paymentInfo;
+	}
+
+	/**
+	 * Our own name and account, validated once per bank account, organization
+	 * and their current values
+	 */
+	private DebtorContext getDebtorContext(SEPAExportSource source, SEPAPaySelection paySelection,
+			StringBuffer err) throws Exception {
+		SEPABankAccount bankAccount = source.getBankAccount(paySelection.getC_BankAccount_ID());
+		String orgName = source.getOrgName(paySelection.getAD_Org_ID());
+		String initiatorName = paySelection.getAD_Org_ID() != 0 ? orgName : source.getClientName();
+		String key = paySelection.getC_BankAccount_ID() + "|" + paySelection.getAD_Org_ID() + "|" + orgName + "|"
+				+ initiatorName + "|" + bankAccount.getIBAN() + "|" + bankAccount.getBIC() + "|"
+				+ bankAccount.getSepaCtVersion();
+		DebtorContext debtor = s_debtorCache.get(key);
+		if (debtor != null)
+			return debtor;
+
+		SEPAPaymentInfo account = createPaymentInfo(source, paySelection, null, null, err);
+		debtor = new DebtorContext(getMessageWriter(bankAccount), initiatorName, account.getName(),
+				account.getIBAN(), account.getBIC());
+		s_debtorCache.put(key, debtor);
+		return debtor;
+	}
+
+	/**
+	 * Reads the pay selection and the partner accounts through the caches of the
+	 * instant payments. The accounts are only read, credit transfers do not mark
+	 * them as transferred.
+	 */
+	private static class InstantExportSource extends POExportSource {
+
+		InstantExportSource(String trxName) {
+			super(trxName);
+		}
+
+		@Override
+		public SEPAPaySelection getPaySelection(int C_PaySelection_ID) {
+			SEPAPaySelection paySelection = s_paySelectionCache.get(C_PaySelection_ID);
+			if (paySelection == null) {
+				paySelection = super.getPaySelection(C_PaySelection_ID);
+				s_paySelectionCache.put(C_PaySelection_ID, paySelection);
+			}
+			return paySelection;
+		}
+
+		@Override
+		public List<SEPAPartnerAccount> getPartnerAccounts(int C_BPartner_ID) {
+			// a String key, a change of any account resets the whole cache
+			String key = String.valueOf(C_BPartner_ID);
+			List<SEPAPartnerAccount> accounts = s_partnerAccountCache.get(key);
+			if (accounts == null) {
+				accounts = super.getPartnerAccounts(C_BPartner_ID);
+				s_partnerAccountCache.put(key, accounts);
+			}
+			return accounts;
+		}
+	}
+
+	private static class DebtorContext {
+		final SEPAMessageWriter writer;
+		final String initiatorName;
+		final String name;
+		final String iban;
+		final String bic;
+
+		DebtorContext(SEPAMessageWriter writer, String initiatorName, String name, String iban, String bic) {
+			this.writer = writer;
+			this.initiatorName = initiatorName;
+			this.name = name;
+			this.iban = iban;
+			this.bic = bic;
+		}
+	}
+
+}
@@ -0,0 +1,97 @@
+/******************************************************************************
+ * Product: iDempiere Business Suite ERP/CRM/SCM                              *
+ * This program is free software; you can redistribute it and/or modify it    *
+ * under the terms version 2 of the GNU General Public License as published   *
+ * by the Free Software Foundation. This program is distributed in the hope   *
+ * that it will be useful, but WITHOUT ANY WARRANTY; without even the implied *
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.           *
+ * See the GNU General Public License for more details.                       *
+ * You should have received a copy of the GNU General Public License along    *
+ * with this program; if not, write to the Free Software Foundation, Inc.,    *
+ * 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA.                     *
+ *****************************************************************************/
+package de.bxservice.sepa;
+
+import org.compiere.util.Util;
+
+import de.bxservice.sepa.SEPARemittanceTemplate.Field;
+import de.bxservice.sepa.source.SEPAExportSource;
+import de.bxservice.sepa.source.SEPAInvoice;
+import de.bxservice.sepa.source.SEPAPaySelectionLine;
+
+/**
+ * Remittance information and EndToEndId part of one pay selection line.
+ * {@link SEPAPaySelectionLineEventHandler} stores them on the line when it is
+ * saved, the export only joins the values of the lines of a check.
+ *
+ * @author Diego Ruiz - Bx Service GmbH
+ */
+public class SEPALineReferences {
+
+	private SEPALineReferences() {
+	}
+
+	/**
+	 * Unstructured reference of the line, see EACT
+	 * www.eact.eu/main.php?page=SEPA
+	 *
+	 * @param source  database access
+	 * @param line    pay selection line
+	 * @param invoice invoice of the line, null if there is none
+	 * @return the invoice in the layout of {@link SEPARemittanceTemplate}, by
+	 *         default date, document and order number, POReference, ReferenceNo
+	 *         of the partner and grand total followed by the description of the
+	 *         line
+	 */
+	public static String getRemittanceInformation(SEPAExportSource source, SEPAPaySelectionLine line,
+			SEPAInvoice invoice) {
+		StringBuilder remittanceInformationSB = new StringBuilder(64);
+		appendRemittanceInformation(remittanceInformationSB, source, getTemplate(source), line, invoice);
+		return remittanceInformationSB.toString();
+	}
+
+	/**
+	 * Appends the unstructured reference of the line. The order number and the
+	 * partner are only read if the template uses them.
+	 *
+	 * @param out      buffer
+	 * @param source   database access
+	 * @param template layout of the client, see {@link #getTemplate(SEPAExportSource)}
+	 * @param line     pay selection line
+	 * @param invoice  invoice of the line, null if there is none
+	 */
+	public static void appendRemittanceInformation(StringBuilder out, SEPAExportSource source,
+			SEPARemittanceTemplate template, SEPAPaySelectionLine line, SEPAInvoice invoice) {
+		if (invoice == null) {
+			if (!Util.isEmpty(line.getDescription()))
+				out.append(' ').append(line.getDescription());
+			return;
+		}
+
+		String orderNo = template.uses(Field.OrderNo) ? source.getOrderDocumentNo(invoice.getC_Order_ID()) : null;
+		String referenceNo = template.uses(Field.ReferenceNo)
+				? source.getPartner(invoice.getC_BPartner_ID()).getReferenceNo()
+				: null;
+		template.format(out, invoice, orderNo, referenceNo, line.getDescription());
+	}
+
+	/**
+	 * @param source database access
+	 * @return remittance template of the client, {@link SEPARemittanceTemplate#SYSCONFIG}
+	 * @throws IllegalArgumentException if the configured template is not valid
+	 */
+	public static SEPARemittanceTemplate getTemplate(SEPAExportSource source) {
+		return SEPARemittanceTemplate.get(source.getConfigValue(SEPARemittanceTemplate.SYSCONFIG, ""));
+	}
+
+	/**
+	 * @param invoice invoice of the line, null if there is none
+	 * @return document number of the invoice, empty if there is none
+	 */
+	public static String getEndToEndId(SEPAInvoice invoice) {
+		if (invoice == null || Util.isEmpty(invoice.getDocumentNo()))
+			return "";
+		return invoice.getDocumentNo();
+	}
+
+}
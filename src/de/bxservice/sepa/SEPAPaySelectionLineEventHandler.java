@@ -0,0 +1,136 @@
+/******************************************************************************
+ * Product: iDempiere Business Suite ERP/CRM/SCM                              *
+ * This program is free software; you can redistribute it and/or modify it    *
+ * under the terms version 2 of the GNU General Public License as published   *
+ * by the Free Software Foundation. This program is distributed in the hope   *
+ * that it will be useful, but WITHOUT ANY WARRANTY; without even the implied *
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.           *
+ * See the GNU General Public License for more details.                       *
+ * You should have received a copy of the GNU General Public License along    *
+ * with this program; if not, write to the Free Software Foundation, Inc.,    *
+ * 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA.                     *
+ *****************************************************************************/
+package de.bxservice.sepa;
+
+import java.sql.Timestamp;
+import java.util.logging.Level;
+
+import org.adempiere.base.event.AbstractEventHandler;
+import org.adempiere.base.event.IEventTopics;
+import org.compiere.model.MPaySelection;
+import org.compiere.model.MPaySelectionCheck;
+import org.compiere.model.MPaySelectionLine;
+import org.compiere.model.PO;
+import org.compiere.util.CCache;
+import org.compiere.util.CLogger;
+import org.compiere.util.DB;
+import org.osgi.service.event.Event;
+
+import de.bxservice.sepa.source.SEPAInvoice;
+import de.bxservice.sepa.source.SEPAPaySelectionLine;
+
+/**
+ * Computes the remittance information and the EndToEndId part of a pay
+ * selection line when it is created or its invoice, description or payment
+ * rule changes. The export reads the stored values instead of loading the
+ * invoice, its order and its partner while the user waits for the file.
+ * Only lines paid by direct deposit or direct debit from a bank account that
+ * exports with this plugin are handled.
+ * <p>
+ * The time they were computed and the hash of the remittance template are
+ * stored with them. If the invoice changed afterwards, or the order or the
+ * partner whose number the template shows, the template is a different one,
+ * or the values could not be computed, the export computes them again.
+ *
+ * @author Diego Ruiz - Bx Service GmbH
+ */
+public class SEPAPaySelectionLineEventHandler extends AbstractEventHandler {
+
+	/** Logger */
+	private static CLogger log = CLogger.getCLogger(SEPAPaySelectionLineEventHandler.class);
+
+	/** Length of the SepaRemittanceInfo column */
+	private static final int REMITTANCEINFO_LENGTH = 255;
+
+	/**
+	 * Whether the bank account of a pay selection exports with this plugin, reset
+	 * when a pay selection changes
+	 */
+	private static final CCache<Integer, Boolean> s_sepaPaySelectionCache = new CCache<>(
+			MPaySelection.Table_Name, "SEPAExportedPaySelection", 10, 60, false);
+
+	@Override
+	protected void initialize() {
+		registerTableEvent(IEventTopics.PO_BEFORE_NEW, MPaySelectionLine.Table_Name);
+		registerTableEvent(IEventTopics.PO_BEFORE_CHANGE, MPaySelectionLine.Table_Name);
+	}
+
+	@Override
+	protected void doHandleEvent(Event event) {
+		PO po = getPO(event);
+		if (!(po instanceof MPaySelectionLine)
+				|| po.get_ColumnIndex(MPaySelectionLineHelper.COLUMNNAME_SEPAREMITTANCEINFO) < 0)
+			return;
+
+		if (IEventTopics.PO_BEFORE_CHANGE.equals(event.getTopic())
+				&& !po.is_ValueChanged(MPaySelectionLine.COLUMNNAME_C_Invoice_ID)
+				&& !po.is_ValueChanged(MPaySelectionLine.COLUMNNAME_Description)
+				&& !po.is_ValueChanged(MPaySelectionLine.COLUMNNAME_PaymentRule))
+			return;
+
+		MPaySelectionLine psl = (MPaySelectionLine) po;
+		if (!MPaySelectionCheck.PAYMENTRULE_DirectDeposit.equals(psl.getPaymentRule())
+				&& !MPaySelectionCheck.PAYMENTRULE_DirectDebit.equals(psl.getPaymentRule()))
+			return;
+		if (!isSEPAExport(psl.getC_PaySelection_ID(), po.get_TrxName()))
+			return;
+
+		String remittanceInfo = null;
+		String endToEndId = null;
+		Timestamp staged = null;
+		String templateHash = null;
+		try {
+			POExportSource source = new POExportSource(po.get_TrxName());
+			SEPAPaySelectionLine line = source.getPaySelectionLine(psl);
+			SEPAInvoice invoice = line.getC_Invoice_ID() > 0 ? source.getInvoice(line.getC_Invoice_ID()) : null;
+
+			SEPARemittanceTemplate template = SEPALineReferences.getTemplate(source);
+			StringBuilder remittanceInfoSB = new StringBuilder(64);
+			SEPALineReferences.appendRemittanceInformation(remittanceInfoSB, source, template, line, invoice);
+			remittanceInfo = remittanceInfoSB.toString();
+			if (remittanceInfo.length() > REMITTANCEINFO_LENGTH)
+				remittanceInfo = remittanceInfo.substring(0, REMITTANCEINFO_LENGTH);
+			endToEndId = SEPALineReferences.getEndToEndId(invoice);
+			staged = new Timestamp(System.currentTimeMillis());
+			templateHash = template.getHash();
+		} catch (Exception e) {
+			// the export computes them
+			log.log(Level.WARNING, "Remittance information not computed for " + po, e);
+		}
+		po.set_ValueNoCheck(MPaySelectionLineHelper.COLUMNNAME_SEPAREMITTANCEINFO, remittanceInfo);
+		po.set_ValueNoCheck(MPaySelectionLineHelper.COLUMNNAME_SEPAENDTOENDID, endToEndId);
+		// the export computes the values again if the invoice or the template changed afterwards
+		if (po.get_ColumnIndex(MPaySelectionLineHelper.COLUMNNAME_SEPASTAGED) >= 0)
+			po.set_ValueNoCheck(MPaySelectionLineHelper.COLUMNNAME_SEPASTAGED, staged);
+		if (po.get_ColumnIndex(MPaySelectionLineHelper.COLUMNNAME_SEPATEMPLATEHASH) >= 0)
+			po.set_ValueNoCheck(MPaySelectionLineHelper.COLUMNNAME_SEPATEMPLATEHASH, templateHash);
+	}
+
+	/**
+	 * @return true if the bank account of the pay selection has one of the
+	 *         payment export classes of this plugin
+	 */
+	private static boolean isSEPAExport(int C_PaySelection_ID, String trxName) {
+		Boolean sepa = s_sepaPaySelectionCache.get(C_PaySelection_ID);
+		if (sepa == null) {
+			String exportClass = DB.getSQLValueStringEx(trxName, "SELECT ba.PaymentExportClass FROM C_PaySelection ps"
+					+ " INNER JOIN C_BankAccount ba ON (ba.C_BankAccount_ID=ps.C_BankAccount_ID)"
+					+ " WHERE ps.C_PaySelection_ID=?", C_PaySelection_ID);
+			sepa = SEPAPaymentExport.class.getName().equals(exportClass)
+					|| SEPAInstantPaymentExport.class.getName().equals(exportClass);
+			s_sepaPaySelectionCache.put(C_PaySelection_ID, sepa);
+		}
+		return sepa;
+	}
+
+}
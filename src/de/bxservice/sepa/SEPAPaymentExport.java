@@ -17,53 +17,56 @@
 package de.bxservice.sepa;
 
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileNotFoundException;
-import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.math.BigDecimal;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.sql.Timestamp;
-import java.text.NumberFormat;
 import java.text.SimpleDateFormat;
+import java.time.LocalDate;
 import java.util.ArrayList;
 import java.util.Calendar;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
 import java.util.logging.Level;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipOutputStream;
 
-import javax.xml.parsers.DocumentBuilder;
-import javax.xml.parsers.DocumentBuilderFactory;
-import javax.xml.transform.OutputKeys;
-import javax.xml.transform.Transformer;
-import javax.xml.transform.TransformerFactory;
-import javax.xml.transform.dom.DOMSource;
-import javax.xml.transform.stream.StreamResult;
-
 import org.adempiere.exceptions.AdempiereException;
-import org.compiere.model.MBPBankAccount;
-import org.compiere.model.MBPartner;
-import org.compiere.model.MBank;
-import org.compiere.model.MBankAccount;
-import org.compiere.model.MClient;
-import org.compiere.model.MCurrency;
-import org.compiere.model.MInvoice;
-import org.compiere.model.MOrder;
-import org.compiere.model.MOrg;
-import org.compiere.model.MOrgInfo;
-import org.compiere.model.MPaySelection;
 import org.compiere.model.MPaySelectionCheck;
-import org.compiere.model.MPaySelectionLine;
-import org.compiere.model.MSysConfig;
-import org.compiere.model.Query;
-import org.compiere.model.X_C_NonBusinessDay;
 import org.compiere.util.CLogger;
 import org.compiere.util.Env;
 import org.compiere.util.IBAN;
 import org.compiere.util.PaymentExport;
 import org.compiere.util.Util;
-import org.w3c.dom.Document;
-import org.w3c.dom.Element;
+
+import de.bxservice.sepa.output.AtomicFileSink;
+import de.bxservice.sepa.output.SEPAExportCheckpoint;
+import de.bxservice.sepa.output.SEPAOutputSink;
+import de.bxservice.sepa.source.SEPABankAccount;
+import de.bxservice.sepa.source.SEPACheck;
+import de.bxservice.sepa.source.SEPAExportSource;
+import de.bxservice.sepa.source.SEPAInvoice;
+import de.bxservice.sepa.source.SEPAPartner;
+import de.bxservice.sepa.source.SEPAPartnerAccount;
+import de.bxservice.sepa.source.SEPAPaySelection;
+import de.bxservice.sepa.source.SEPAPaySelectionLine;
+import de.bxservice.sepa.source.SEPARoundTrips;
+import de.bxservice.sepa.writer.AbstractSEPAMessageWriter;
+import de.bxservice.sepa.writer.SEPAByteBuffer;
+import de.bxservice.sepa.writer.SEPAGroupHeader;
+import de.bxservice.sepa.writer.SEPAMessageWriter;
+import de.bxservice.sepa.writer.SEPAMessageWriters;
+import de.bxservice.sepa.writer.SEPAParallelRenderer;
+import de.bxservice.sepa.writer.SEPAPaymentInfo;
+import de.bxservice.sepa.writer.SEPATransaction;
 
 /**
  * SEPA Payment Export based on generic export example
@@ -77,23 +80,23 @@ public class SEPAPaymentExport implements PaymentExport {
 	/** Logger */
 	static private CLogger s_log = CLogger.getCLogger(SEPAPaymentExport.class);
 
-	// Main xml elements
-	private static final String PAYMENT_INFO_ELEMENT = "PmtInf";
-	private static final String SECOND_SCT_ELEMENT = "CstmrCdtTrfInitn";
-	private static final String SECOND_SDD_ELEMENT = "CstmrDrctDbtInitn";
-	private static final String ROOT_ELEMENT = "Document";
-
-	// SEPA file type
-	private static final String SEPA_CREDIT_TRANSFER = "pain.001.003.03"; // Use for payments
-	private static final String SEPA_DIRECT_DEBIT = "pain.008.001.08"; // Use for collection
-
-	private ArrayList<MPaySelectionCheck> b2bFirstPayments;
-	private ArrayList<MPaySelectionCheck> cor1FirstPayments;
-	private ArrayList<MPaySelectionCheck> b2bRcurPayments;
-	private ArrayList<MPaySelectionCheck> cor1RcurPayments;
+	/** Maximum length of the unstructured remittance information */
+	private static final int USTRD_LENGTH = 140;
+	/** Appended when not all references fit into Ustrd */
+	private static final String USTRD_MORE = " u.a.";
+	/** Transactions per checkpoint chunk if SEPA_CHECKPOINT_SIZE is not set */
+	private static final int DEFAULT_CHECKPOINT_SIZE = 10000;
+	/** Initial size of the buffer for the elements around the transactions */
+	private static final int FRAME_SIZE = 4096;
+	/** Checks whose data is read at once if SEPA_PREFETCH_SIZE is not set */
+	private static final int DEFAULT_PREFETCH_SIZE = 500;
+	/** Oracle allows at most 1000 values in an IN list */
+	private static final int MAX_PREFETCH_SIZE = 1000;
 
 	private boolean directDebit = false;
-	private String documentType;
+	protected String documentType;
+	/** Directory the checkpoints of large exports are kept in, null for none */
+	private Path checkpointDirectory = SEPAExportCheckpoint.getDefaultDirectory();
 
 	/**************************************************************************
 	 * Export to File
@@ -105,6 +108,56 @@ public class SEPAPaymentExport implements PaymentExport {
 	@Override
 	public int exportToFile(MPaySelectionCheck[] checks, boolean collectiveBooking, String paymentRule, File file,
 			StringBuffer err) {
+		POExportSource source = new POExportSource(checks.length > 0 ? checks[0].get_TrxName() : null);
+		return exportToFile(source, source.getChecks(checks), paymentRule, file, err);
+	} // exportToFile
+
+	/**
+	 * Export to File, with the checks read from any source, e.g. an in-memory
+	 * stand-in of the database. The file is written atomically and published to
+	 * SEPA_SPOOL_DIRECTORY if that is set.
+	 * 
+	 * @param source      database access
+	 * @param checks      checks to export
+	 * @param paymentRule payment rule of the checks
+	 * @param file        file to export checks
+	 * @param err         error messages
+	 * @return number of lines or -1 on error
+	 */
+	public int exportToFile(SEPAExportSource source, List<SEPACheck> checks, String paymentRule, File file,
+			StringBuffer err) {
+		return export(source, checks, paymentRule, new AtomicFileSink(file.toPath(), getSpoolDirectory(source)),
+				err);
+	} // exportToFile
+
+	/**
+	 * Export to a sink. The sink is committed if the export succeeds and
+	 * aborted otherwise, so no partial file is ever published.
+	 * 
+	 * @param checks      array of checks
+	 * @param paymentRule payment rule of the checks
+	 * @param sink        destination, e.g. a {@link de.bxservice.sepa.output.MemorySink}
+	 * @param err         error messages
+	 * @return number of lines or -1 on error
+	 */
+	public int export(MPaySelectionCheck[] checks, String paymentRule, SEPAOutputSink sink, StringBuffer err) {
+		POExportSource source = new POExportSource(checks.length > 0 ? checks[0].get_TrxName() : null);
+		return export(source, source.getChecks(checks), paymentRule, sink, err);
+	} // export
+
+	/**
+	 * Export checks read from any source, e.g. an in-memory stand-in of the
+	 * database
+	 * 
+	 * @param source      database access
+	 * @param checks      checks to export
+	 * @param paymentRule payment rule of the checks
+	 * @param sink        destination
+	 * @param err         error messages
+	 * @return number of lines or -1 on error
+	 */
+	public int export(SEPAExportSource source, List<SEPACheck> checks, String paymentRule, SEPAOutputSink sink,
+			StringBuffer err) {
 
 		setDocumentType(paymentRule);
 		if (documentType == null) {
@@ -112,573 +165,806 @@ public class SEPAPaymentExport implements PaymentExport {
 			return -1;
 		}
 
-		int noLines = checks.length;
+		int noLines = checks.size();
+		SEPAExportCheckpoint checkpoint = null;
+		SEPAParallelRenderer renderer = null;
+		SEPARoundTrips roundTrips = SEPARoundTrips.current();
+		boolean ownRoundTrips = false;
 		try {
+			double roundTripBudget = SEPARoundTrips.getBudget(source);
+			if (roundTrips == null && roundTripBudget > 0) {
+				// only a budget is worth the stack walk per round trip
+				roundTrips = SEPARoundTrips.start(true);
+				ownRoundTrips = true;
+			}
+			SEPAPaySelection paySelection = source.getPaySelection(checks.get(0).getC_PaySelection_ID());
+			SEPAMessageWriter writer = getMessageWriter(source.getBankAccount(paySelection.getC_BankAccount_ID()));
+			renderer = createRenderer(source, writer);
+
+			long now = System.currentTimeMillis();
+			checkpoint = openCheckpoint(source, writer, checks);
+			if (checkpoint != null) {
+				if (checkpoint.isResumed())
+					now = Long.parseLong(checkpoint.getProperty("time"));
+				else
+					checkpoint.setProperty("time", String.valueOf(now));
+			}
+
 			if (isDirectDebit()) {
-				ZipOutputStream out = new ZipOutputStream(new FileOutputStream(file));
-				setDifferentPaymentTypes(checks);
-
-				if (!b2bFirstPayments.isEmpty())
-					addToZipFile(generateDirectDebitFile(
-							b2bFirstPayments.toArray(new MPaySelectionCheck[b2bFirstPayments.size()]), true, true, err),
-							out);
-				if (!b2bRcurPayments.isEmpty())
-					addToZipFile(generateDirectDebitFile(
-							b2bRcurPayments.toArray(new MPaySelectionCheck[b2bRcurPayments.size()]), true, false, err),
-							out);
-				if (!cor1FirstPayments.isEmpty())
-					addToZipFile(generateDirectDebitFile(
-							cor1FirstPayments.toArray(new MPaySelectionCheck[cor1FirstPayments.size()]), false, true,
-							err), out);
-				if (!cor1RcurPayments.isEmpty())
-					addToZipFile(generateDirectDebitFile(
-							cor1RcurPayments.toArray(new MPaySelectionCheck[cor1FirstPayments.size()]), false, false,
-							err), out);
-				out.close();
+				List<SEPADirectDebitPartition> partitions;
+				if (checkpoint != null && checkpoint.isResumed()) {
+					partitions = restorePartitions(source, checks, checkpoint);
+				} else {
+					partitions = partitionDirectDebits(source, checks);
+					if (checkpoint != null)
+						savePartitions(partitions, checkpoint);
+				}
+				if (checkpoint != null && !checkpoint.isResumed())
+					saveCheckpoint(checkpoint);
+
+				ZipOutputStream out = new ZipOutputStream(sink.getOutputStream());
+				// one file per scheme and sequence type with a PmtInf per partition
+				int start = 0;
+				for (int i = 1; i <= partitions.size(); i++) {
+					if (i == partitions.size() || !isSameFile(partitions.get(start), partitions.get(i))) {
+						generateDirectDebitFile(source, writer, renderer, partitions, start, i, now, checkpoint, out,
+								err);
+						start = i;
+					}
+				}
+				out.finish();
 			} else {
-				generateCreditTransferFile(file, checks, err);
+				if (checkpoint != null && !checkpoint.isResumed())
+					saveCheckpoint(checkpoint);
+				generateCreditTransferFile(source, writer, renderer, checks, now, checkpoint, sink.getOutputStream(),
+						err);
 			}
+			checkRoundTrips(source, roundTrips, roundTripBudget, checks.size(), err);
+			sink.commit();
+			if (checkpoint != null)
+				checkpoint.delete();
 			// noLines = numberOfTransactions;
 		} catch (Exception e) {
+			if (renderer != null)
+				renderer.cancel();
+			sink.abort();
+			if (checkpoint != null)
+				checkpoint.close();
 			err.append(e.toString());
 			s_log.log(Level.SEVERE, "", e);
 			return -1;
+		} finally {
+			if (ownRoundTrips)
+				roundTrips.close();
 		}
 
 		return noLines;
-	} // exportToFile
+	} // export
 
-	private void setDifferentPaymentTypes(MPaySelectionCheck[] checks) {
-		boolean isFirstTransfer = false;
-		b2bFirstPayments = new ArrayList<>();
-		cor1FirstPayments = new ArrayList<>();
-		b2bRcurPayments = new ArrayList<>();
-		cor1RcurPayments = new ArrayList<>();
-		for (MPaySelectionCheck check : checks) {
-			MBPartner bPartner = MBPartner.get(Env.getCtx(), check.getC_BPartner_ID());
-			MBPBankAccount bpBankAccount = getBPartnerAccount(bPartner);
-			String lsString = bpBankAccount.get_ValueAsString(MBPBankAccountHelper.COLUMNNAME_SEPASDDSCHEME);
-			if (lsString == "")
-				throw new AdempiereException(
-						"Bank Account without a SEPA Mandate Type set: " + bpBankAccount.getA_Name());
-			isFirstTransfer = !bpBankAccount.get_ValueAsBoolean(MBPBankAccountHelper.COLUMNNAME_ISTRANSFERRED);
+	/**
+	 * Logs the database round trips of the export by call site and enforces the
+	 * budget set in SEPA_MAX_ROUNDTRIPS_PER_TRX, a warning or with
+	 * SEPA_FAIL_ON_ROUNDTRIP_BUDGET=Y an error
+	 *
+	 * @param roundTrips round trips recorded on this thread, null if there is
+	 *                   neither a budget nor a benchmark
+	 */
+	private void checkRoundTrips(SEPAExportSource source, SEPARoundTrips roundTrips, double budget,
+			int numberOfTransactions, StringBuffer err) throws Exception {
+		if (roundTrips == null)
+			return;
+		if (s_log.isLoggable(Level.INFO))
+			s_log.info(numberOfTransactions + " transactions, "
+					+ String.format(Locale.ROOT, "%.2f", roundTrips.getPerTransaction(numberOfTransactions))
+					+ " round trips per transaction, " + roundTrips);
+		if (roundTrips.getTotal() == 0) {
+			s_log.warning("No database round trips observed, " + SEPARoundTrips.MAX_ROUNDTRIPS_PER_TRX
+					+ " is only enforced with the PostgreSQL JDBC driver");
+			return;
+		}
 
-			if (lsString.equals("B2B")) {
-				if (isFirstTransfer) {
-					b2bFirstPayments.add(check);
-					bpBankAccount.set_ValueNoCheck(MBPBankAccountHelper.COLUMNNAME_ISTRANSFERRED, Boolean.TRUE);
-					bpBankAccount.saveEx();
-				} else
-					b2bRcurPayments.add(check);
-			} else if (lsString.equals("COR1")) {
+		String message = roundTrips.checkBudget(budget, numberOfTransactions);
+		if (message == null)
+			return;
+		if (SEPARoundTrips.isFailOnBudget(source)) {
+			err.append(message);
+			throw new Exception();
+		}
+		s_log.warning(message);
+	}
+
+	/**
+	 * Sets the directory the checkpoints of large exports are kept in. A failed
+	 * export leaves its checkpoint there and a retry with the same checks
+	 * continues from it. By default it is
+	 * {@link SEPAExportCheckpoint#getDefaultDirectory()}, never the directory of
+	 * the exported file, which a bank client may pick up. The SysConfig
+	 * SEPA_CHECKPOINT_DIRECTORY overrides both. The default is local to the
+	 * server, on a cluster the SysConfig has to name storage all nodes share
+	 * for a retry on another node to continue.
+	 * 
+	 * @param directory directory, null to not checkpoint
+	 */
+	public void setCheckpointDirectory(Path directory) {
+		checkpointDirectory = directory;
+	}
+
+	/**
+	 * Opens the checkpoint of an export with more than SEPA_CHECKPOINT_SIZE
+	 * transactions, 0 turns checkpoints off. If the checkpoint directory
+	 * cannot be used the export runs without one.
+	 * 
+	 * @return checkpoint or null if the export is not checkpointed
+	 */
+	private SEPAExportCheckpoint openCheckpoint(SEPAExportSource source, SEPAMessageWriter writer,
+			List<SEPACheck> checks) {
+		int chunkSize = source.getConfigIntValue("SEPA_CHECKPOINT_SIZE", DEFAULT_CHECKPOINT_SIZE);
+		if (chunkSize <= 0 || checks.size() <= chunkSize)
+			return null;
+		String configured = source.getConfigValue("SEPA_CHECKPOINT_DIRECTORY", "");
+		Path directory = Util.isEmpty(configured, true) ? checkpointDirectory : Paths.get(configured.trim());
+		if (directory == null)
+			return null;
+
+		// everything the rendered transactions depend on
+		List<Object> values = new ArrayList<>(checks.size() * 3 + 7);
+		values.add(getClass().getName());
+		values.add(writer.getMessageType());
+		values.add(source.getConfigValue(SEPARemittanceTemplate.SYSCONFIG, ""));
+		values.add(source.getConfigBooleanValue("SEPA_USE_BPBANKACCOUNT_NAME", false));
+		// a retry on another day computes other dates, it starts over
+		values.add(LocalDate.now());
+		Set<Integer> paySelectionIds = new LinkedHashSet<>();
+		for (SEPACheck check : checks)
+			paySelectionIds.add(check.getC_PaySelection_ID());
+		for (int paySelectionId : paySelectionIds) {
+			values.add(paySelectionId);
+			values.add(getExecutionDate(source, source.getPaySelection(paySelectionId)));
+		}
+		for (SEPACheck check : checks) {
+			values.add(check.getC_PaySelectionCheck_ID());
+			values.add(check.getC_BPartner_ID());
+			values.add(check.getPayAmt());
+		}
+		try {
+			return SEPAExportCheckpoint.open(directory, SEPAExportCheckpoint.getFingerprint(values), chunkSize);
+		} catch (IOException e) {
+			s_log.log(Level.WARNING, "No checkpoint in " + directory + ", the export continues without one", e);
+			return null;
+		}
+	}
+
+	/**
+	 * Saves the properties of a new checkpoint, the export continues without it
+	 * if they cannot be written
+	 */
+	private void saveCheckpoint(SEPAExportCheckpoint checkpoint) {
+		try {
+			checkpoint.save();
+		} catch (IOException e) {
+			s_log.log(Level.WARNING, "Checkpoint not saved, the export continues without it", e);
+			checkpoint.abandon();
+		}
+	}
+
+	/**
+	 * Keeps which checks go into which PmtInf block. A retry must not partition
+	 * again: the first run already marked the mandates of its first collections
+	 * as transferred.
+	 */
+	private void savePartitions(List<SEPADirectDebitPartition> partitions, SEPAExportCheckpoint checkpoint) {
+		checkpoint.setProperty("partitions", String.valueOf(partitions.size()));
+		for (int i = 0; i < partitions.size(); i++) {
+			SEPADirectDebitPartition partition = partitions.get(i);
+			checkpoint.setProperty("partition." + i, partition.getScheme() + "|" + partition.getSequenceType() + "|"
+					+ partition.getAD_Org_ID() + "|" + partition.getCreditorIdentifier() + "|"
+					+ partition.getC_BankAccount_ID() + "|" + partition.getCollectionDate() + "|"
+					+ partition.getC_PaySelection_ID());
+			StringBuilder ids = new StringBuilder(partition.getNumberOfTransactions() * 8);
+			for (SEPACheck check : partition.getChecks()) {
+				if (ids.length() > 0)
+					ids.append(',');
+				ids.append(check.getC_PaySelectionCheck_ID());
+			}
+			checkpoint.setProperty("partition." + i + ".checks", ids.toString());
+		}
+	}
+
+	/**
+	 * Partitions of the run that left the checkpoint. The accounts of first
+	 * collections are read again to make sure they are marked as transferred,
+	 * the others only when their transactions are rendered.
+	 */
+	private List<SEPADirectDebitPartition> restorePartitions(SEPAExportSource source, List<SEPACheck> checks,
+			SEPAExportCheckpoint checkpoint) {
+		Map<Integer, SEPACheck> checksById = new HashMap<>(checks.size() * 2);
+		for (SEPACheck check : checks)
+			checksById.put(check.getC_PaySelectionCheck_ID(), check);
+
+		int size = Integer.parseInt(checkpoint.getProperty("partitions"));
+		int prefetchSize = getPrefetchSize(source);
+		List<SEPADirectDebitPartition> partitions = new ArrayList<>(size);
+		for (int i = 0; i < size; i++) {
+			String[] key = checkpoint.getProperty("partition." + i).split("\\|", -1);
+			SEPADirectDebitPartition partition = new SEPADirectDebitPartition(key[0], key[1],
+					Integer.parseInt(key[2]), key[3], Integer.parseInt(key[4]), key[5], Integer.parseInt(key[6]));
+			boolean isFirstTransfer = SEPADirectDebitPartition.SEQUENCE_FIRST.equals(partition.getSequenceType());
+
+			List<SEPACheck> partitionChecks = new ArrayList<>();
+			for (String id : checkpoint.getProperty("partition." + i + ".checks").split(",")) {
+				SEPACheck check = checksById.get(Integer.valueOf(id));
+				if (check == null)
+					throw new AdempiereException("Check " + id + " of the checkpoint is not exported");
+				partitionChecks.add(check);
+			}
+			for (int j = 0; j < partitionChecks.size(); j++) {
+				SEPACheck check = partitionChecks.get(j);
+				SEPAPartnerAccount bpBankAccount = null;
 				if (isFirstTransfer) {
-					cor1FirstPayments.add(check);
-					bpBankAccount.set_ValueNoCheck(MBPBankAccountHelper.COLUMNNAME_ISTRANSFERRED, Boolean.TRUE);
-					bpBankAccount.saveEx();
-				} else
-					cor1RcurPayments.add(check);
+					if (prefetchSize > 0 && j % prefetchSize == 0)
+						source.prefetchPartnerAccounts(
+								partitionChecks.subList(j, Math.min(j + prefetchSize, partitionChecks.size())));
+					bpBankAccount = getBPartnerAccount(source, check.getC_BPartner_ID());
+					if (bpBankAccount != null && !bpBankAccount.isTransferred())
+						source.setTransferred(bpBankAccount);
+				}
+				partition.add(check, bpBankAccount);
 			}
+			partitions.add(partition);
 		}
+		return partitions;
 	}
 
-	private File generateCreditTransferFile(File xmlFile, MPaySelectionCheck[] checks, StringBuffer err)
-			throws Exception {
+	/**
+	 * @return directory a pickup job reads the exported files from, null if the
+	 *         files are only written where the caller asks for
+	 */
+	private Path getSpoolDirectory(SEPAExportSource source) {
+		String spoolDirectory = source.getConfigValue("SEPA_SPOOL_DIRECTORY", "");
+		if (Util.isEmpty(spoolDirectory, true))
+			return null;
+		return Paths.get(spoolDirectory.trim());
+	}
 
-		DocumentBuilderFactory dbf = DocumentBuilderFactory.newInstance();
-		DocumentBuilder builder = dbf.newDocumentBuilder();
-		Document document = builder.newDocument();
+	/**
+	 * Returns the writer for the message version configured on the bank account,
+	 * or for the default version of the payment rule if there is none
+	 * 
+	 * @param bankAccount own bank account of the pay selection
+	 * @return message writer
+	 */
+	protected SEPAMessageWriter getMessageWriter(SEPABankAccount bankAccount) {
+		String messageType = isDirectDebit() ? bankAccount.getSepaDdVersion() : bankAccount.getSepaCtVersion();
+		if (Util.isEmpty(messageType, true))
+			messageType = documentType;
 
-		MClient client = MClient.get(Env.getCtx());
+		return SEPAMessageWriters.get(messageType, isDirectDebit());
+	}
 
-		String msgId;
-		String creationDate;
-		int numberOfTransactions = 0;
-		String initiatorName;
-		BigDecimal ctrlSum = BigDecimal.ZERO;
+	/**
+	 * Sorts the checks in one pass into the PmtInf blocks they belong to, see
+	 * {@link SEPADirectDebitPartition}. A mandate that was never collected is a
+	 * first collection and is marked as transferred.
+	 * 
+	 * @return partitions ordered by file, B2B before CORE and FRST before RCUR,
+	 *         then by their first check
+	 */
+	private List<SEPADirectDebitPartition> partitionDirectDebits(SEPAExportSource source, List<SEPACheck> checks) {
+		Map<String, SEPADirectDebitPartition> partitions = new LinkedHashMap<>();
+		Map<Integer, String> collectionDates = new HashMap<>();
+		int prefetchSize = getPrefetchSize(source);
+		for (int i = 0; i < checks.size(); i++) {
+			if (prefetchSize > 0 && i % prefetchSize == 0)
+				source.prefetchPartnerAccounts(checks.subList(i, Math.min(i + prefetchSize, checks.size())));
+			SEPACheck check = checks.get(i);
+			SEPAPartnerAccount bpBankAccount = getBPartnerAccount(source, check.getC_BPartner_ID());
+			if (bpBankAccount == null)
+				throw new AdempiereException("BPARTNER " + source.getPartner(check.getC_BPartner_ID()).getName()
+						+ " does not have a valid bank account");
+			String lsString = bpBankAccount.getSEPASDDScheme();
+			if (Util.isEmpty(lsString))
+				throw new AdempiereException(
+						"Bank Account without a SEPA Mandate Type set: " + bpBankAccount.getA_Name());
 
-		for (int i = 0; i < checks.length; i++) {
-			MPaySelectionCheck mpp = checks[i];
-			ctrlSum = ctrlSum.add(mpp.getPayAmt());
-			numberOfTransactions++;
+			String scheme;
+			if (lsString.equals("B2B"))
+				scheme = SEPADirectDebitPartition.SCHEME_B2B;
+			else if (lsString.equals("COR1"))
+				scheme = SEPADirectDebitPartition.SCHEME_CORE;
+			else
+				continue;
+
+			boolean isFirstTransfer = !bpBankAccount.isTransferred();
+			if (isFirstTransfer)
+				source.setTransferred(bpBankAccount);
+			String sequenceType = isFirstTransfer ? SEPADirectDebitPartition.SEQUENCE_FIRST
+					: SEPADirectDebitPartition.SEQUENCE_RECURRING;
+
+			SEPAPaySelection paySelection = source.getPaySelection(check.getC_PaySelection_ID());
+			String collectionDate = collectionDates.computeIfAbsent(paySelection.getC_PaySelection_ID(),
+					id -> getCollectionDate(source, paySelection));
+			String creditorIdentifier = source.getCreditorIdentifier(check.getAD_Org_ID());
+
+			String key = SEPADirectDebitPartition.getKey(scheme, sequenceType, check.getAD_Org_ID(),
+					creditorIdentifier, paySelection.getC_BankAccount_ID(), collectionDate);
+			SEPADirectDebitPartition partition = partitions.get(key);
+			if (partition == null) {
+				partition = new SEPADirectDebitPartition(scheme, sequenceType, check.getAD_Org_ID(),
+						creditorIdentifier, paySelection.getC_BankAccount_ID(), collectionDate,
+						paySelection.getC_PaySelection_ID());
+				partitions.put(key, partition);
+			}
+			partition.add(check, bpBankAccount);
 		}
 
-		MPaySelectionCheck firstPaySelectionCheck = checks[0];
-		MPaySelection firstPaySelection = firstPaySelectionCheck.getParent();
+		List<SEPADirectDebitPartition> list = new ArrayList<>(partitions.values());
+		// stable, partitions of one file keep the order of their first check
+		list.sort(Comparator.comparing(SEPADirectDebitPartition::getScheme)
+				.thenComparing(SEPADirectDebitPartition::getSequenceType));
+		return list;
+	}
 
-		if (firstPaySelection.getAD_Org_ID() != 0)
-			initiatorName = MOrg.get(Env.getCtx(), firstPaySelection.getAD_Org_ID()).getName();
-		else
-			initiatorName = client.getName();
-
-		msgId = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss").format(firstPaySelection.getCreated());
-
-		creationDate = new SimpleDateFormat("yyyy-MM-dd").format(System.currentTimeMillis()) + "T"
-				+ new SimpleDateFormat("HH:mm:ss").format(System.currentTimeMillis()) + ".000Z";
-
-		String paymentInfoId = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss").format(System.currentTimeMillis()) + "/TRF";
-
-		// Header
-		Element root = document.createElement(ROOT_ELEMENT);
-		root.setAttribute("xmlns:xsi", "http://www.w3.org/2001/XMLSchema-instance");
-		root.setAttribute("xmlns:xsd", "http://www.w3.org/2001/XMLSchema");
-		root.setAttribute("xmlns", "urn:iso:std:iso:20022:tech:xsd:" + documentType);
-		root.setAttribute("xsi:schemaLocation",
-				"urn:iso:std:iso:20022:tech:xsd:" + documentType + " " + documentType + ".xsd");
-
-		// begin of second level node
-		Element secondNodeInitnElement = document.createElement(SECOND_SCT_ELEMENT);
-
-		// Group header element same for both cases
-		Element GrpHdrElement = document.createElement("GrpHdr");
-		GrpHdrElement.appendChild(document.createElement("MsgId")).setTextContent(iSEPA_ConvertSign(msgId, 35));
-		GrpHdrElement.appendChild(document.createElement("CreDtTm")).setTextContent(iSEPA_ConvertSign(creationDate));
-		GrpHdrElement.appendChild(document.createElement("NbOfTxs"))
-				.setTextContent(String.valueOf(numberOfTransactions));
-		GrpHdrElement.appendChild(document.createElement("InitgPty")).appendChild(document.createElement("Nm"))
-				.setTextContent(iSEPA_ConvertSign(initiatorName, 70));
-		secondNodeInitnElement.appendChild(GrpHdrElement);
-
-		// Begin of PmtInf
-		Element paymentInfoElement = document.createElement(PAYMENT_INFO_ELEMENT);
-
-		paymentInfoElement.appendChild(document.createElement("PmtInfId"))
-				.setTextContent(iSEPA_ConvertSign(paymentInfoId, 35));
-		paymentInfoElement.appendChild(document.createElement("PmtMtd")).setTextContent("TRF");
-		paymentInfoElement.appendChild(document.createElement("BtchBookg")).setTextContent("true");
-		paymentInfoElement.appendChild(document.createElement("NbOfTxs"))
-				.setTextContent(String.valueOf(numberOfTransactions));
-		paymentInfoElement.appendChild(document.createElement("CtrlSum")).setTextContent(String.valueOf(ctrlSum));
-
-		Element PmtTpInfElement = document.createElement("PmtTpInf");
-		PmtTpInfElement.appendChild(document.createElement("SvcLvl")).appendChild(document.createElement("Cd"))
-				.setTextContent("SEPA");
-
-		MBankAccount bankAccount = MBankAccount.get(firstPaySelection.getC_BankAccount_ID());
-
-		String executionDate = new SimpleDateFormat("yyyy-MM-dd")
-				.format(getShiftedDate(firstPaySelection.getPayDate()));
-		String dbtr_Name = MOrg.get(Env.getCtx(), firstPaySelection.getAD_Org_ID()).getName();
-		String dbtrAcct_IBAN = IBAN.normalizeIBAN(bankAccount.getIBAN());
-		String dbtrAcct_BIC = MBank.get(bankAccount.getC_Bank_ID()).getSwiftCode();
-
-		if (!IBAN.isValid(dbtrAcct_IBAN)) {
-			err.append("IBAN " + dbtrAcct_IBAN + " is not valid.");
-			throw new Exception();
-		}
+	private static boolean isSameFile(SEPADirectDebitPartition a, SEPADirectDebitPartition b) {
+		return a.getScheme().equals(b.getScheme()) && a.getSequenceType().equals(b.getSequenceType());
+	}
 
-		if (!Util.isEmpty(dbtrAcct_BIC) && dbtrAcct_BIC.length() > 11) {
-			err.append("BIC/SWIFTCode " + dbtrAcct_BIC + " is not valid.");
-			throw new Exception();
-		}
+	/**
+	 * Date the checks of a pay selection are executed on: the pay date for
+	 * credit transfers, the requested collection date for direct debits, each
+	 * shifted to a bank day
+	 * 
+	 * @param source       database access
+	 * @param paySelection pay selection
+	 * @return date as yyyy-MM-dd
+	 */
+	public String getExecutionDate(SEPAExportSource source, SEPAPaySelection paySelection) {
+		if (isDirectDebit())
+			return getCollectionDate(source, paySelection);
+		return new SimpleDateFormat("yyyy-MM-dd").format(getShiftedDate(source, paySelection.getPayDate()));
+	}
 
-		paymentInfoElement.appendChild(PmtTpInfElement);
-		paymentInfoElement.appendChild(document.createElement("ReqdExctnDt"))
-				.setTextContent(iSEPA_ConvertSign(executionDate));
-		paymentInfoElement.appendChild(document.createElement("Dbtr")).appendChild(document.createElement("Nm"))
-				.setTextContent(iSEPA_ConvertSign(dbtr_Name, 70));
-		paymentInfoElement.appendChild(document.createElement("DbtrAcct")).appendChild(document.createElement("Id"))
-				.appendChild(document.createElement("IBAN")).setTextContent(dbtrAcct_IBAN);
-		paymentInfoElement.appendChild(document.createElement("DbtrAgt"))
-				.appendChild(document.createElement("FinInstnId")).appendChild(document.createElement("BIC"))
-				.setTextContent(iSEPA_ConvertSign(dbtrAcct_BIC));
-		paymentInfoElement.appendChild(document.createElement("ChrgBr")).setTextContent("SLEV");
-
-		for (MPaySelectionCheck check : checks) {
-			if (check == null)
-				continue;
+	/**
+	 * Requested collection date of the direct debits of a pay selection, the
+	 * login date shifted by SEPA_SHIFT_DAYS to the next bank day
+	 * 
+	 * @return date as yyyy-MM-dd
+	 */
+	private String getCollectionDate(SEPAExportSource source, SEPAPaySelection paySelection) {
+		Timestamp loginDate = Env.getContextAsDate(Env.getCtx(), "#Date");
+		return new SimpleDateFormat("yyyy-MM-dd").format(getShiftedDate(source, loginDate));
+	}
 
-			paymentInfoElement.appendChild(getCreditTransferTrxInfo(check, document, err));
+	/**
+	 * One pain.001 message, written to the output as it is rendered
+	 */
+	private void generateCreditTransferFile(SEPAExportSource source, SEPAMessageWriter writer,
+			SEPAParallelRenderer renderer, List<SEPACheck> checks, long now, SEPAExportCheckpoint checkpoint,
+			OutputStream out, StringBuffer err) throws Exception {
+
+		BigDecimal ctrlSum = BigDecimal.ZERO;
+		int numberOfTransactions = 0;
+
+		for (SEPACheck check : checks) {
+			ctrlSum = ctrlSum.add(check.getPayAmt());
+			numberOfTransactions++;
 		}
 
-		secondNodeInitnElement.appendChild(paymentInfoElement);
-		root.appendChild(secondNodeInitnElement);
-		document.appendChild(root);
+		SEPAPaySelection firstPaySelection = source.getPaySelection(checks.get(0).getC_PaySelection_ID());
+
+		String msgId = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss").format(firstPaySelection.getCreated());
 
-		convertToXMLFile(document, xmlFile);
+		SEPAPaymentInfo paymentInfo = createCreditTransferPaymentInfo(source, firstPaySelection, now, err);
+		paymentInfo.setNumberOfTransactions(numberOfTransactions);
+		paymentInfo.setControlSum(ctrlSum);
 
-		return xmlFile;
+		SEPAByteBuffer frame = new SEPAByteBuffer(FRAME_SIZE);
+		writer.writeHeader(frame, createGroupHeader(source, firstPaySelection, msgId, numberOfTransactions, now));
+		writer.writePaymentInfoStart(frame, paymentInfo);
+		flush(frame, out);
+		writeTransactions(source, renderer, "CT", checks, null, checkpoint, out, err);
+		writer.writePaymentInfoEnd(frame);
+		writer.writeFooter(frame);
+		flush(frame, out);
 	}
 
-	private File generateDirectDebitFile(MPaySelectionCheck[] checks, boolean isB2B, boolean isFirstTransfer,
-			StringBuffer err) throws Exception {
+	/**
+	 * One pain.008 message with a PmtInf block per partition, written to its own
+	 * entry of the zip file as it is rendered
+	 * 
+	 * @param allPartitions all partitions of the export
+	 * @param start         first partition of the file
+	 * @param end           partition after the last one of the file, all of the
+	 *                      same scheme and sequence type
+	 */
+	private void generateDirectDebitFile(SEPAExportSource source, SEPAMessageWriter writer,
+			SEPAParallelRenderer renderer, List<SEPADirectDebitPartition> allPartitions, int start, int end, long now,
+			SEPAExportCheckpoint checkpoint, ZipOutputStream zos, StringBuffer err) throws Exception {
 
-		String fileType = isB2B ? "B2B" : "CORE";
-		String transerType = isFirstTransfer ? "FRST" : "RCUR";
+		List<SEPADirectDebitPartition> partitions = allPartitions.subList(start, end);
+		String fileType = partitions.get(0).getScheme();
+		String transerType = partitions.get(0).getSequenceType();
 
 		StringBuilder fileName = new StringBuilder("SEPA-Direct-Debit-");
-		fileName.append(new SimpleDateFormat("yyyy-MM-dd_HH-mm-ss").format(System.currentTimeMillis()));
+		fileName.append(new SimpleDateFormat("yyyy-MM-dd_HH-mm-ss").format(now));
 		fileName.append(fileType);
 		fileName.append(transerType);
-		File xmlFile = File.createTempFile(fileName.toString(), ".xml");
-
-		DocumentBuilderFactory dbf = DocumentBuilderFactory.newInstance();
-		DocumentBuilder builder = dbf.newDocumentBuilder();
-		Document document = builder.newDocument();
+		fileName.append(".xml");
 
-		MClient client = MClient.get(Env.getCtx());
-
-		String msgId;
-		String creationDate;
 		int numberOfTransactions = 0;
-		String initiatorName;
-		BigDecimal ctrlSum = BigDecimal.ZERO;
+		for (SEPADirectDebitPartition partition : partitions)
+			numberOfTransactions += partition.getNumberOfTransactions();
 
-		for (int i = 0; i < checks.length; i++) {
-			MPaySelectionCheck mpp = checks[i];
-			ctrlSum = ctrlSum.add(mpp.getPayAmt());
-			numberOfTransactions++;
-		}
+		SEPAPaySelection firstPaySelection = source.getPaySelection(partitions.get(0).getC_PaySelection_ID());
 
-		MPaySelectionCheck firstPaySelectionCheck = checks[0];
-		MPaySelection firstPaySelection = firstPaySelectionCheck.getParent();
+		String msgId = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss").format(firstPaySelection.getCreated()) + "/"
+				+ fileType + "-" + transerType;
 
-		if (firstPaySelection.getAD_Org_ID() != 0)
-			initiatorName = MOrg.get(Env.getCtx(), firstPaySelection.getAD_Org_ID()).getName();
-		else
-			initiatorName = client.getName();
-
-		msgId = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss").format(firstPaySelection.getCreated()) + "/" + fileType
-				+ "-" + transerType;
-
-		StringBuilder paymentInfoId = new StringBuilder(
-				new SimpleDateFormat("yyyy-MM-dd HH:mm:ss").format(System.currentTimeMillis()));
+		StringBuilder paymentInfoId = new StringBuilder(new SimpleDateFormat("yyyy-MM-dd HH:mm:ss").format(now));
 		paymentInfoId.append(" /");
 		paymentInfoId.append(fileType);
 		paymentInfoId.append("-");
 		paymentInfoId.append(transerType);
 
-		creationDate = new SimpleDateFormat("yyyy-MM-dd").format(System.currentTimeMillis()) + "T"
-				+ new SimpleDateFormat("HH:mm:ss").format(System.currentTimeMillis()) + ".000Z";
-
-		// Header
-		Element root = document.createElement(ROOT_ELEMENT);
-		root.setAttribute("xmlns:xsi", "http://www.w3.org/2001/XMLSchema-instance");
-		root.setAttribute("xmlns:xsd", "http://www.w3.org/2001/XMLSchema");
-		root.setAttribute("xmlns", "urn:iso:std:iso:20022:tech:xsd:" + documentType);
-		root.setAttribute("xsi:schemaLocation",
-				"urn:iso:std:iso:20022:tech:xsd:" + documentType + " " + documentType + ".xsd");
-
-		// begin of second level node
-		Element secondNodeInitnElement = document.createElement(SECOND_SDD_ELEMENT);
-
-		// Group header element same for both cases
-		Element GrpHdrElement = document.createElement("GrpHdr");
-		GrpHdrElement.appendChild(document.createElement("MsgId")).setTextContent(iSEPA_ConvertSign(msgId, 35));
-		GrpHdrElement.appendChild(document.createElement("CreDtTm")).setTextContent(iSEPA_ConvertSign(creationDate));
-		GrpHdrElement.appendChild(document.createElement("NbOfTxs"))
-				.setTextContent(String.valueOf(numberOfTransactions));
-		GrpHdrElement.appendChild(document.createElement("InitgPty")).appendChild(document.createElement("Nm"))
-				.setTextContent(iSEPA_ConvertSign(initiatorName, 70));
-		secondNodeInitnElement.appendChild(GrpHdrElement);
-
-		// Begin of PmtInf
-		Element paymentInfoElement = document.createElement(PAYMENT_INFO_ELEMENT);
-
-		paymentInfoElement.appendChild(document.createElement("PmtInfId"))
-				.setTextContent(iSEPA_ConvertSign(paymentInfoId.toString(), 35));
-		paymentInfoElement.appendChild(document.createElement("PmtMtd")).setTextContent("DD");
-		paymentInfoElement.appendChild(document.createElement("BtchBookg")).setTextContent("true");
-		paymentInfoElement.appendChild(document.createElement("NbOfTxs"))
-				.setTextContent(String.valueOf(numberOfTransactions));
-		paymentInfoElement.appendChild(document.createElement("CtrlSum")).setTextContent(String.valueOf(ctrlSum));
-
-		Element PmtTpInfElement = document.createElement("PmtTpInf");
-		PmtTpInfElement.appendChild(document.createElement("SvcLvl")).appendChild(document.createElement("Cd"))
-				.setTextContent("SEPA");
-
-		MBankAccount bankAccount = MBankAccount.get(firstPaySelection.getC_BankAccount_ID());
-
-		Timestamp loginDate = Env.getContextAsDate(Env.getCtx(), "#Date");
-		String executionDate = new SimpleDateFormat("yyyy-MM-dd").format(getShiftedDate(loginDate));
-		String dbtr_Name = MOrg.get(Env.getCtx(), firstPaySelection.getAD_Org_ID()).getName();
-		String dbtrAcct_IBAN = IBAN.normalizeIBAN(bankAccount.getIBAN());
-		String dbtrAcct_BIC = MBank.get(bankAccount.getC_Bank_ID()).getSwiftCode();
-
-		if (!IBAN.isValid(dbtrAcct_IBAN)) {
-			err.append("IBAN " + dbtrAcct_IBAN + " is not valid.");
-			throw new Exception();
+		ZipEntry entry = new ZipEntry(fileName.toString());
+		// the time of the export, a resumed export writes the same zip file
+		entry.setTime(now);
+		zos.putNextEntry(entry);
+
+		SEPAByteBuffer frame = new SEPAByteBuffer(FRAME_SIZE);
+		writer.writeHeader(frame, createGroupHeader(source, firstPaySelection, msgId, numberOfTransactions, now));
+		for (int i = 0; i < partitions.size(); i++) {
+			SEPADirectDebitPartition partition = partitions.get(i);
+			String id = partitions.size() == 1 ? paymentInfoId.toString() : paymentInfoId + "/" + (i + 1);
+
+			SEPAPaymentInfo paymentInfo = createPaymentInfo(source, partition.getAD_Org_ID(),
+					partition.getC_BankAccount_ID(), id, partition.getCollectionDate(), err);
+			paymentInfo.setNumberOfTransactions(partition.getNumberOfTransactions());
+			paymentInfo.setControlSum(partition.getControlSum());
+			paymentInfo.setLocalInstrument(fileType);
+			paymentInfo.setSequenceType(transerType);
+
+			writer.writePaymentInfoStart(frame, paymentInfo);
+			flush(frame, zos);
+			writeTransactions(source, renderer, "DD" + (start + i), partition.getChecks(), partition.getAccounts(),
+					checkpoint, zos, err);
+			writer.writePaymentInfoEnd(frame);
 		}
+		writer.writeFooter(frame);
+		flush(frame, zos);
+		zos.closeEntry();
+	}
 
-		if (!Util.isEmpty(dbtrAcct_BIC) && dbtrAcct_BIC.length() > 11) {
-			err.append("BIC/SWIFTCode " + dbtrAcct_BIC + " is not valid.");
-			throw new Exception();
-		}
+	/**
+	 * Writes the header or closing elements rendered since the last flush
+	 */
+	private static void flush(SEPAByteBuffer frame, OutputStream out) throws IOException {
+		frame.writeTo(out);
+		frame.reset();
+	}
 
-		PmtTpInfElement.appendChild(document.createElement("LclInstrm")).appendChild(document.createElement("Cd"))
-				.setTextContent(fileType);
-		PmtTpInfElement.appendChild(document.createElement("SeqTp")).setTextContent(transerType);
-		paymentInfoElement.appendChild(PmtTpInfElement);
-
-		paymentInfoElement.appendChild(document.createElement("ReqdColltnDt"))
-				.setTextContent(iSEPA_ConvertSign(executionDate));
-		paymentInfoElement.appendChild(document.createElement("Cdtr")).appendChild(document.createElement("Nm"))
-				.setTextContent(iSEPA_ConvertSign(dbtr_Name, 70));
-		paymentInfoElement.appendChild(document.createElement("CdtrAcct")).appendChild(document.createElement("Id"))
-				.appendChild(document.createElement("IBAN")).setTextContent(dbtrAcct_IBAN);
-		paymentInfoElement.appendChild(document.createElement("CdtrAgt"))
-				.appendChild(document.createElement("FinInstnId")).appendChild(document.createElement("BICFI"))
-				.setTextContent(iSEPA_ConvertSign(dbtrAcct_BIC));
-		paymentInfoElement.appendChild(document.createElement("ChrgBr")).setTextContent("SLEV");
-
-		for (MPaySelectionCheck check : checks) {
-			if (check == null)
-				continue;
+	/**
+	 * Renders the transactions of one PmtInf block and writes them to the output
+	 * as they complete. With a checkpoint they are collected in chunks of
+	 * SEPA_CHECKPOINT_SIZE that are saved before they are written, and chunks a
+	 * previous run saved are written without loading their checks again. The
+	 * data of SEPA_PREFETCH_SIZE checks at a time is read in bulk before their
+	 * transactions are created, 0 reads it check by check.
+	 * 
+	 * @param renderer renderer of the export, empty when the block starts
+	 * @param block    name of the block in the checkpoint
+	 * @param accounts account of each check, null or a null element if it has
+	 *                 to be read
+	 */
+	private void writeTransactions(SEPAExportSource source, SEPAParallelRenderer transactions, String block,
+			List<SEPACheck> checks, List<SEPAPartnerAccount> accounts, SEPAExportCheckpoint checkpoint,
+			OutputStream out, StringBuffer err) throws Exception {
+		int chunkSize = checkpoint != null ? checkpoint.getChunkSize() : Math.max(checks.size(), 1);
+		int prefetchSize = getPrefetchSize(source);
+		SEPAByteBuffer rendered = null;
+		for (int start = 0, chunk = 0; start < checks.size(); start += chunkSize, chunk++) {
+			int end = Math.min(start + chunkSize, checks.size());
+			BigDecimal controlSum = BigDecimal.ZERO;
+			if (checkpoint != null) {
+				for (int i = start; i < end; i++)
+					controlSum = controlSum.add(checks.get(i).getPayAmt());
+				if (checkpoint.readChunk(block, chunk, end - start, controlSum, out))
+					continue;
+			}
 
-			paymentInfoElement.appendChild(getDirectDebitTrxInfo(check, document, err));
+			OutputStream chunkOut = out;
+			if (checkpoint != null) {
+				if (rendered == null)
+					rendered = new SEPAByteBuffer((end - start) * 1024);
+				rendered.reset();
+				chunkOut = rendered.asOutputStream();
+			}
+			for (int i = start; i < end; i++) {
+				if (prefetchSize > 0 && (i - start) % prefetchSize == 0) {
+					int prefetchEnd = Math.min(i + prefetchSize, end);
+					source.prefetchPaySelectionLines(checks.subList(i, prefetchEnd));
+					if (accounts == null || accounts.subList(i, prefetchEnd).contains(null))
+						source.prefetchPartnerAccounts(checks.subList(i, prefetchEnd));
+				}
+				SEPAPartnerAccount account = accounts != null ? accounts.get(i) : null;
+				if (account != null)
+					transactions.add(createTransaction(source, checks.get(i), account, err), chunkOut);
+				else
+					transactions.add(createTransaction(source, checks.get(i), err), chunkOut);
+			}
+			transactions.writeTo(chunkOut);
+
+			if (checkpoint != null) {
+				try {
+					checkpoint.saveChunk(block, chunk, end - start, controlSum, rendered);
+				} catch (IOException e) {
+					s_log.log(Level.WARNING, "Chunk " + chunk + " of " + block
+							+ " not saved, the export continues without a checkpoint", e);
+					checkpoint.abandon();
+				}
+				rendered.writeTo(out);
+			}
 		}
+	}
 
-		secondNodeInitnElement.appendChild(paymentInfoElement);
-		root.appendChild(secondNodeInitnElement);
-		document.appendChild(root);
+	/**
+	 * @return checks whose data is read from the source at once, 0 to read it
+	 *         check by check
+	 */
+	private int getPrefetchSize(SEPAExportSource source) {
+		return Math.min(source.getConfigIntValue("SEPA_PREFETCH_SIZE", DEFAULT_PREFETCH_SIZE), MAX_PREFETCH_SIZE);
+	}
 
-		convertToXMLFile(document, xmlFile);
+	/**
+	 * Transactions are loaded from the source on this thread and rendered in
+	 * chunks of SEPA_RENDER_CHUNK_SIZE on the common fork-join pool, 0 renders on
+	 * this thread. One renderer is used for the whole export, its buffers are
+	 * reused by every block.
+	 */
+	private SEPAParallelRenderer createRenderer(SEPAExportSource source, SEPAMessageWriter writer) {
+		return new SEPAParallelRenderer(writer,
+				source.getConfigIntValue("SEPA_RENDER_CHUNK_SIZE", SEPAParallelRenderer.DEFAULT_CHUNK_SIZE));
+	}
 
-		return xmlFile;
+	/**
+	 * Group header, the same for both message types
+	 */
+	private SEPAGroupHeader createGroupHeader(SEPAExportSource source, SEPAPaySelection paySelection, String msgId,
+			int numberOfTransactions, long now) {
+		String initiatorName;
+		if (paySelection.getAD_Org_ID() != 0)
+			initiatorName = source.getOrgName(paySelection.getAD_Org_ID());
+		else
+			initiatorName = source.getClientName();
+
+		SEPAGroupHeader header = new SEPAGroupHeader();
+		header.setMsgId(msgId);
+		header.setCreationDateTime(new SimpleDateFormat("yyyy-MM-dd").format(now) + "T"
+				+ new SimpleDateFormat("HH:mm:ss").format(now) + ".000Z");
+		header.setNumberOfTransactions(numberOfTransactions);
+		header.setInitiatorName(initiatorName);
+		return header;
 	}
 
-	private Element getCreditTransferTrxInfo(MPaySelectionCheck paySelectionCheck, Document document, StringBuffer err)
-			throws Exception {
+	/**
+	 * Payment info of a credit transfer, executed on the pay date of the pay
+	 * selection or the next bank day
+	 */
+	protected SEPAPaymentInfo createCreditTransferPaymentInfo(SEPAExportSource source, SEPAPaySelection paySelection,
+			long now, StringBuffer err) throws Exception {
+		String paymentInfoId = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss").format(now) + "/TRF";
+		String executionDate = getExecutionDate(source, paySelection);
 
-		String pmtId = getEndToEndId(paySelectionCheck);
-		String creditorName;
-		String CdtrAcct_BIC;
-		String CdtrAcct_IBAN;
-		String unverifiedReferenceLine;
+		return createPaymentInfo(source, paySelection, paymentInfoId, executionDate, err);
+	}
 
-		unverifiedReferenceLine = getUnverifiedReferenceLine(paySelectionCheck);
+	/**
+	 * Payment info with our own organization and bank account, the debtor of a
+	 * credit transfer or the creditor of a direct debit
+	 */
+	protected SEPAPaymentInfo createPaymentInfo(SEPAExportSource source, SEPAPaySelection paySelection,
+			String paymentInfoId, String executionDate, StringBuffer err) throws Exception {
+		return createPaymentInfo(source, paySelection.getAD_Org_ID(), paySelection.getC_BankAccount_ID(),
+				paymentInfoId, executionDate, err);
+	}
 
-		BigDecimal payAmt = paySelectionCheck.getPayAmt();
+	/**
+	 * Payment info with the name of an organization and one of our bank accounts
+	 */
+	protected SEPAPaymentInfo createPaymentInfo(SEPAExportSource source, int AD_Org_ID, int C_BankAccount_ID,
+			String paymentInfoId, String executionDate, StringBuffer err) throws Exception {
+		SEPABankAccount bankAccount = source.getBankAccount(C_BankAccount_ID);
 
-		MBPartner bPartner = MBPartner.get(Env.getCtx(), paySelectionCheck.getC_BPartner_ID());
-		creditorName = bPartner.getName();
+		String name = source.getOrgName(AD_Org_ID);
+		String iban = IBAN.normalizeIBAN(bankAccount.getIBAN());
+		String bic = bankAccount.getBIC();
 
-		MBPBankAccount bpBankAccount = getBPartnerAccount(bPartner);
-		if (bpBankAccount == null) {
-			err.append("BPARTNER " + bPartner.getName() + " does not have a valid bank account");
+		if (!IBAN.isValid(iban)) {
+			err.append("IBAN " + iban + " is not valid.");
 			throw new Exception();
 		}
-		CdtrAcct_IBAN = IBAN.normalizeIBAN(bpBankAccount.getIBAN());
-		CdtrAcct_BIC = bpBankAccount.getSwiftCode();
 
-		if (!IBAN.isValid(CdtrAcct_IBAN)) {
-			err.append("IBAN " + CdtrAcct_IBAN + " is not valid. Creditor: " + creditorName);
+		if (!Util.isEmpty(bic) && bic.length() > 11) {
+			err.append("BIC/SWIFTCode " + bic + " is not valid.");
 			throw new Exception();
 		}
-		if (MSysConfig.getBooleanValue("SEPA_USE_BPBANKACCOUNT_NAME", false, Env.getAD_Client_ID(Env.getCtx())))
-			creditorName = bpBankAccount.getA_Name();
 
-		Element CdtTrfTxInfElement = document.createElement("CdtTrfTxInf");
-
-		CdtTrfTxInfElement.appendChild(document.createElement("PmtId"))
-				.appendChild(document.createElement("EndToEndId")).setTextContent(iSEPA_ConvertSign(pmtId, 35));
-
-		Element InstdAmtElement = document.createElement("InstdAmt");
-		InstdAmtElement.setAttribute("Ccy",
-				MCurrency.getISO_Code(Env.getCtx(), paySelectionCheck.getParent().getC_Currency_ID()));
-		InstdAmtElement.setTextContent(String.valueOf(payAmt));
-
-		CdtTrfTxInfElement.appendChild(document.createElement("Amt")).appendChild(InstdAmtElement);
-		CdtTrfTxInfElement.appendChild(document.createElement("CdtrAgt"))
-				.appendChild(document.createElement("FinInstnId")).appendChild(document.createElement("BIC"))
-				.setTextContent(iSEPA_ConvertSign(CdtrAcct_BIC));
-		CdtTrfTxInfElement.appendChild(document.createElement("Cdtr")).appendChild(document.createElement("Nm"))
-				.setTextContent(iSEPA_ConvertSign(creditorName, 70));
-		CdtTrfTxInfElement.appendChild(document.createElement("CdtrAcct")).appendChild(document.createElement("Id"))
-				.appendChild(document.createElement("IBAN")).setTextContent(CdtrAcct_IBAN);
-		CdtTrfTxInfElement.appendChild(document.createElement("RmtInf")).appendChild(document.createElement("Ustrd"))
-				.setTextContent(iSEPA_ConvertSign(unverifiedReferenceLine, 140));
+		SEPAPaymentInfo paymentInfo = new SEPAPaymentInfo();
+		paymentInfo.setPaymentInfoId(paymentInfoId);
+		paymentInfo.setExecutionDate(executionDate);
+		paymentInfo.setName(name);
+		paymentInfo.setIBAN(iban);
+		paymentInfo.setBIC(bic);
+		return paymentInfo;
+	}
 
-		return CdtTrfTxInfElement;
+	/**
+	 * Loads everything the writer needs for one CdtTrfTxInf or DrctDbtTxInf,
+	 * including the account of the partner
+	 */
+	protected SEPATransaction createTransaction(SEPAExportSource source, SEPACheck paySelectionCheck,
+			StringBuffer err) throws Exception {
+		return createTransaction(source, paySelectionCheck,
+				getBPartnerAccount(source, paySelectionCheck.getC_BPartner_ID()), err);
 	}
 
-	private Element getDirectDebitTrxInfo(MPaySelectionCheck paySelectionCheck, Document document, StringBuffer err)
-			throws Exception {
+	/**
+	 * @param template remittance template of the client
+	 * @return true if the stored end to end id and remittance information were
+	 *         rendered with the template and are newer than the last change of
+	 *         the invoice and, where the template shows their number, of its
+	 *         order and its partner
+	 */
+	private static boolean isStaged(SEPAPaySelectionLine line, SEPARemittanceTemplate template) {
+		if (line.getSepaEndToEndId() == null || line.getSepaRemittanceInfo() == null
+				|| line.getSepaStaged() == null || !template.getHash().equals(line.getSepaTemplateHash()))
+			return false;
+		return !isChangedSince(line.getInvoiceUpdated(), line.getSepaStaged())
+				&& !(template.uses(SEPARemittanceTemplate.Field.OrderNo)
+						&& isChangedSince(line.getOrderUpdated(), line.getSepaStaged()))
+				&& !(template.uses(SEPARemittanceTemplate.Field.ReferenceNo)
+						&& isChangedSince(line.getPartnerUpdated(), line.getSepaStaged()));
+	}
 
-		String pmtId = getEndToEndId(paySelectionCheck);
-		String debitorName;
-		String dbtrAcct_BIC;
-		String dbtrAcct_IBAN;
-		String unverifiedReferenceLine;
+	private static boolean isChangedSince(Timestamp updated, Timestamp staged) {
+		return updated != null && updated.after(staged);
+	}
 
-		unverifiedReferenceLine = getUnverifiedReferenceLine(paySelectionCheck);
+	/**
+	 * Loads everything the writer needs for one CdtTrfTxInf or DrctDbtTxInf
+	 * 
+	 * @param bpBankAccount account of the partner, null if there is no valid one
+	 */
+	protected SEPATransaction createTransaction(SEPAExportSource source, SEPACheck paySelectionCheck,
+			SEPAPartnerAccount bpBankAccount, StringBuffer err) throws Exception {
+
+		List<SEPAPaySelectionLine> lines = source.getPaySelectionLines(paySelectionCheck.getC_PaySelectionCheck_ID());
+		List<String> endToEndIds = new ArrayList<>(lines.size());
+		List<String> references = new ArrayList<>(lines.size());
+		SEPARemittanceTemplate template = SEPALineReferences.getTemplate(source);
+		StringBuilder lineBuffer = null;
+		for (SEPAPaySelectionLine line : lines) {
+			String endToEndId = line.getSepaEndToEndId();
+			String reference = line.getSepaRemittanceInfo();
+			if (!isStaged(line, template)) {
+				// not stored, e.g. a line created before the plugin was installed, or
+				// stored before its invoice, the order or partner it shows or the template changed
+				SEPAInvoice invoice = line.getC_Invoice_ID() > 0 ? source.getInvoice(line.getC_Invoice_ID()) : null;
+				if (lineBuffer == null)
+					lineBuffer = new StringBuilder(USTRD_LENGTH);
+				lineBuffer.setLength(0);
+				SEPALineReferences.appendRemittanceInformation(lineBuffer, source, template, line, invoice);
+				endToEndId = SEPALineReferences.getEndToEndId(invoice);
+				reference = lineBuffer.toString();
+			}
+			endToEndIds.add(endToEndId);
+			references.add(reference);
+		}
+		SEPAPaySelection paySelection = source.getPaySelection(paySelectionCheck.getC_PaySelection_ID());
 
-		BigDecimal payAmt = paySelectionCheck.getPayAmt();
+		SEPATransaction transaction = new SEPATransaction();
+		transaction.setEndToEndId(getEndToEndId(endToEndIds));
+		transaction.setRemittanceInformation(getUnverifiedReferenceLine(lines, references));
+		transaction.setAmount(paySelectionCheck.getPayAmt());
+		transaction.setCurrency(source.getCurrencyISOCode(paySelection.getC_Currency_ID()));
 
-		MBPartner bPartner = MBPartner.get(Env.getCtx(), paySelectionCheck.getC_BPartner_ID());
-		debitorName = bPartner.getName();
+		SEPAPartner bPartner = source.getPartner(paySelectionCheck.getC_BPartner_ID());
+		String name = bPartner.getName();
 
-		MBPBankAccount bpBankAccount = getBPartnerAccount(bPartner);
 		if (bpBankAccount == null) {
 			err.append("BPARTNER " + bPartner.getName() + " does not have a valid bank account");
 			throw new Exception();
 		}
-		dbtrAcct_IBAN = IBAN.normalizeIBAN(bpBankAccount.getIBAN());
-		dbtrAcct_BIC = bpBankAccount.getSwiftCode();
+		String iban = IBAN.normalizeIBAN(bpBankAccount.getIBAN());
 
-		if (!IBAN.isValid(dbtrAcct_IBAN)) {
-			err.append("IBAN " + dbtrAcct_IBAN + " is not valid. Creditor: " + debitorName);
+		if (!IBAN.isValid(iban)) {
+			err.append("IBAN " + iban + " is not valid. Creditor: " + name);
 			throw new Exception();
 		}
-		if (MSysConfig.getBooleanValue("SEPA_USE_BPBANKACCOUNT_NAME", false, Env.getAD_Client_ID(Env.getCtx())))
-			debitorName = bpBankAccount.getA_Name();
-
-		Element drctDbtTxInfElement = document.createElement("DrctDbtTxInf");
-
-		drctDbtTxInfElement.appendChild(document.createElement("PmtId"))
-				.appendChild(document.createElement("EndToEndId")).setTextContent(iSEPA_ConvertSign(pmtId, 35));
-
-		Element InstdAmtElement = document.createElement("InstdAmt");
-		InstdAmtElement.setAttribute("Ccy",
-				MCurrency.getISO_Code(Env.getCtx(), paySelectionCheck.getParent().getC_Currency_ID()));
-		InstdAmtElement.setTextContent(String.valueOf(payAmt));
-		drctDbtTxInfElement.appendChild(InstdAmtElement);
-
-		String signatureDate = new SimpleDateFormat("yyyy-MM-dd")
-				.format(bpBankAccount.get_Value(MBPBankAccountHelper.COLUMNNAME_DATEDOC));
-
-		Element drctDbtTxElement = document.createElement("DrctDbtTx");
-		Element mndtRltdInfElement = document.createElement("MndtRltdInf");
-		mndtRltdInfElement.appendChild(document.createElement("MndtId"))
-				.setTextContent(bpBankAccount.get_ValueAsString(MBPBankAccountHelper.COLUMNNAME_MNDTID));
-		mndtRltdInfElement.appendChild(document.createElement("DtOfSgntr")).setTextContent(signatureDate);
-		mndtRltdInfElement.appendChild(document.createElement("AmdmntInd")).setTextContent("false");
-		drctDbtTxElement.appendChild(mndtRltdInfElement);
-
-		Element cdtrSchmeIdElement = document.createElement("CdtrSchmeId");
-		Element cdtrIdElement = document.createElement("Id");
-		Element prvtIdElement = document.createElement("PrvtId");
-		Element othrElement = document.createElement("Othr");
-		Element othrIDElement = document.createElement("Id");
-		String creditorIdentifier = MOrgInfo.get(Env.getCtx(), paySelectionCheck.getAD_Org_ID(), null)
-				.get_ValueAsString(MOrgHelper.COLUMNNAME_AD_ORG_CREDITORIDENTIFIER);
-		othrIDElement.setTextContent(creditorIdentifier);
-		othrElement.appendChild(othrIDElement);
-		othrElement.appendChild(document.createElement("SchmeNm")).appendChild(document.createElement("Prtry"))
-				.setTextContent("SEPA");
-		prvtIdElement.appendChild(othrElement);
-		cdtrIdElement.appendChild(prvtIdElement);
-		cdtrSchmeIdElement.appendChild(cdtrIdElement);
-		drctDbtTxElement.appendChild(cdtrSchmeIdElement);
-		drctDbtTxInfElement.appendChild(drctDbtTxElement);
-
-		drctDbtTxInfElement.appendChild(document.createElement("DbtrAgt"))
-				.appendChild(document.createElement("FinInstnId")).appendChild(document.createElement("BICFI"))
-				.setTextContent(iSEPA_ConvertSign(dbtrAcct_BIC));
-
-		drctDbtTxInfElement.appendChild(document.createElement("Dbtr")).appendChild(document.createElement("Nm"))
-				.setTextContent(iSEPA_ConvertSign(debitorName, 70));
-		drctDbtTxInfElement.appendChild(document.createElement("DbtrAcct")).appendChild(document.createElement("Id"))
-				.appendChild(document.createElement("IBAN")).setTextContent(dbtrAcct_IBAN);
-
-		drctDbtTxInfElement.appendChild(document.createElement("RmtInf")).appendChild(document.createElement("Ustrd"))
-				.setTextContent(iSEPA_ConvertSign(unverifiedReferenceLine, 140));
-
-		return drctDbtTxInfElement;
-	}
-
-	private void convertToXMLFile(Document document, File xmlFile) throws Exception {
-		DOMSource domSource = new DOMSource(document);
-		StreamResult streamResult = new StreamResult(xmlFile);
-		TransformerFactory tf = TransformerFactory.newInstance();
-
-		Transformer serializer = tf.newTransformer();
-		serializer.setOutputProperty(OutputKeys.ENCODING, "UTF-8");
-		serializer.setOutputProperty(OutputKeys.INDENT, "yes");
-		serializer.transform(domSource, streamResult);
-	}
-
-	private void addToZipFile(File file, ZipOutputStream zos) throws FileNotFoundException, IOException {
-		FileInputStream fis = new FileInputStream(file);
-		ZipEntry zipEntry = new ZipEntry(file.getName());
-		zos.putNextEntry(zipEntry);
-
-		byte[] bytes = new byte[1024];
-		int length;
-		while ((length = fis.read(bytes)) >= 0) {
-			zos.write(bytes, 0, length);
+		if (source.getConfigBooleanValue("SEPA_USE_BPBANKACCOUNT_NAME", false))
+			name = bpBankAccount.getA_Name();
+
+		transaction.setName(name);
+		transaction.setIBAN(iban);
+		transaction.setBIC(bpBankAccount.getBIC());
+
+		if (isDirectDebit()) {
+			transaction.setMandateId(bpBankAccount.getMndtId());
+			transaction.setMandateSignatureDate(
+					new SimpleDateFormat("yyyy-MM-dd").format(bpBankAccount.getMandateDate()));
+			transaction.setCreditorIdentifier(source.getCreditorIdentifier(paySelectionCheck.getAD_Org_ID()));
 		}
 
-		zos.closeEntry();
-		fis.close();
+		return transaction;
 	}
 
 	/**
 	 * 
-	 * Generate unstructured reference line
+	 * Generate unstructured reference line. Only whole references of the lines
+	 * are taken, if not all fit into Ustrd the line ends with " u.a.". A single
+	 * reference that is longer than Ustrd is cut. Lengths are counted like the
+	 * writer does, after the conversion to the SEPA character set.
 	 * 
-	 * @param mpp check
+	 * @param lines      lines of the check
+	 * @param references reference of each line
 	 * @return String with the reference line
 	 * 
 	 *         see EACT www.eact.eu/main.php?page=SEPA
 	 */
-	private String getUnverifiedReferenceLine(MPaySelectionCheck mpp) {
-		MPaySelectionLine[] mPaySelectionLines = mpp.getPaySelectionLines(true);
-
-		SimpleDateFormat dateFormat = new SimpleDateFormat("dd.MM.yyyy", Locale.GERMANY);
-
-		StringBuilder remittanceInformationSB = new StringBuilder();
-
-		for (MPaySelectionLine mPaySelectionLine : mPaySelectionLines) {
-			String documentNo = null;
-			MInvoice invoice = MInvoice.get(mPaySelectionLine.getC_Invoice_ID());
-			if (invoice != null) {
-				if (remittanceInformationSB.length() != 0) {
-					remittanceInformationSB.append(",");
-				}
-
-				remittanceInformationSB.append(dateFormat.format(invoice.getDateInvoiced()));
-				remittanceInformationSB.append(" ");
-				documentNo = invoice.getDocumentNo();
-				if (!Util.isEmpty(documentNo)) {
-					remittanceInformationSB.append(documentNo);
-				}
-
-				MOrder order = new MOrder(Env.getCtx(), invoice.getC_Order_ID(), null);
-				if (order != null) {
-					String orderNo = order.getDocumentNo();
-					if (!Util.isEmpty(orderNo)) {
-						remittanceInformationSB.append("/");
-						remittanceInformationSB.append(orderNo);
-					}
+	private String getUnverifiedReferenceLine(List<SEPAPaySelectionLine> lines, List<String> references) {
+		StringBuilder remittanceInformationSB = new StringBuilder(USTRD_LENGTH + USTRD_MORE.length());
+		int length = 0;
+		// end of the references that still leave room for " u.a."
+		int lastFit = 0;
+
+		for (int i = 0; i < lines.size(); i++) {
+			boolean separator = lines.get(i).getC_Invoice_ID() > 0 && remittanceInformationSB.length() != 0;
+			String reference = references.get(i);
+			int referenceLength = AbstractSEPAMessageWriter.getSEPATextLength(reference) + (separator ? 1 : 0);
+
+			if (length + referenceLength > USTRD_LENGTH) {
+				if (lastFit == 0) {
+					// not even the first reference fits, cut it
+					if (separator)
+						remittanceInformationSB.append(",");
+					remittanceInformationSB.append(reference);
+					lastFit = getSEPATextEnd(remittanceInformationSB, USTRD_LENGTH - USTRD_MORE.length());
 				}
-				if (!Util.isEmpty(invoice.getPOReference())) {
-					remittanceInformationSB.append(" ");
-					remittanceInformationSB.append(invoice.getPOReference());
-				}
-				MBPartner bpartner = MBPartner.get(invoice.getCtx(), invoice.getC_BPartner_ID());
-				if (!Util.isEmpty(bpartner.getReferenceNo())) {
-					remittanceInformationSB.append(" ");
-					remittanceInformationSB.append(bpartner.getReferenceNo());
-				}
-				remittanceInformationSB.append(" ");
-				remittanceInformationSB
-						.append(NumberFormat.getNumberInstance(Locale.GERMANY).format(invoice.getGrandTotal()));
-			}
-			if (!Util.isEmpty(mPaySelectionLine.getDescription())) {
-				remittanceInformationSB.append(" ");
-				remittanceInformationSB.append(mPaySelectionLine.getDescription());
+				remittanceInformationSB.setLength(lastFit);
+				return remittanceInformationSB.append(USTRD_MORE).toString();
 			}
+
+			if (separator)
+				remittanceInformationSB.append(",");
+			remittanceInformationSB.append(reference);
+			length += referenceLength;
+			if (length + USTRD_MORE.length() <= USTRD_LENGTH)
+				lastFit = remittanceInformationSB.length();
 		}
-		if (remittanceInformationSB.length() >= 136)
-			return remittanceInformationSB.toString().substring(0, 136) + " u.a.";
 
 		return remittanceInformationSB.toString();
 	} // getUnverifiedReferenceLine
 
-	private String getEndToEndId(MPaySelectionCheck mpp) {
+	/**
+	 * @return index of the text at which the converted text reaches maxLength
+	 */
+	private static int getSEPATextEnd(CharSequence text, int maxLength) {
+		int length = 0;
+		for (int i = 0; i < text.length(); i++) {
+			length += AbstractSEPAMessageWriter.getSEPALength(text.charAt(i));
+			if (length > maxLength)
+				return i;
+		}
+		return text.length();
+	}
+
+	private String getEndToEndId(List<String> endToEndIds) {
 
 		StringBuilder endToEndID = new StringBuilder();
-		MPaySelectionLine[] mPaySelectionLines = mpp.getPaySelectionLines(true);
-
-		for (MPaySelectionLine mPaySelectionLine : mPaySelectionLines) {
-			String documentNo = null;
-			MInvoice invoice = MInvoice.get(mPaySelectionLine.getC_Invoice_ID());
-			if (invoice != null) {
-				documentNo = invoice.getDocumentNo();
-				if (documentNo != null && documentNo.length() > 0) {
-					endToEndID.append(documentNo);
-					endToEndID.append("/");
-				}
+
+		for (String documentNo : endToEndIds) {
+			if (documentNo.length() > 0) {
+				endToEndID.append(documentNo);
+				endToEndID.append("/");
 			}
 		}
 
@@ -688,15 +974,15 @@ public class SEPAPaymentExport implements PaymentExport {
 	/**
 	 * Get Vendor/Customer Bank Account Information Based on BP_
 	 * 
-	 * @param bPartner BPartner
+	 * @param source        database access
+	 * @param C_BPartner_ID BPartner
 	 * @return Account of business partner
 	 */
 
-	private MBPBankAccount getBPartnerAccount(MBPartner bPartner) {
+	private SEPAPartnerAccount getBPartnerAccount(SEPAExportSource source, int C_BPartner_ID) {
 
-		MBPBankAccount[] bpBankAccounts = bPartner.getBankAccounts(true);
-		MBPBankAccount bpBankAccount = null;
-		for (MBPBankAccount bpBankAccountTemp : bpBankAccounts) {
+		SEPAPartnerAccount bpBankAccount = null;
+		for (SEPAPartnerAccount bpBankAccountTemp : source.getPartnerAccounts(C_BPartner_ID)) {
 			if (bpBankAccountTemp.isActive() && !Util.isEmpty(bpBankAccountTemp.getIBAN())) {
 
 				if (isDirectDebit() && bpBankAccountTemp.isDirectDebit())
@@ -741,10 +1027,10 @@ public class SEPAPaymentExport implements PaymentExport {
 
 	public void setDocumentType(String paymentRule) {
 		if (MPaySelectionCheck.PAYMENTRULE_DirectDebit.equals(paymentRule)) {
-			documentType = SEPA_DIRECT_DEBIT;
+			documentType = SEPAMessageWriters.DEFAULT_DIRECT_DEBIT;
 			directDebit = true;
 		} else if (MPaySelectionCheck.PAYMENTRULE_DirectDeposit.equals(paymentRule)) {
-			documentType = SEPA_CREDIT_TRANSFER;
+			documentType = SEPAMessageWriters.DEFAULT_CREDIT_TRANSFER;
 			directDebit = false;
 		}
 	}
@@ -794,12 +1080,12 @@ public class SEPAPaymentExport implements PaymentExport {
 	 * @param originalDate
 	 * @return date shifted n days
 	 */
-	private Timestamp getShiftedDate(Timestamp originalDate) {
+	private Timestamp getShiftedDate(SEPAExportSource source, Timestamp originalDate) {
 		Calendar cal = Calendar.getInstance();
 		cal.setTime(originalDate);
-		cal.add(Calendar.DAY_OF_WEEK, MSysConfig.getIntValue("SEPA_SHIFT_DAYS", 0, Env.getAD_Client_ID(Env.getCtx())));
+		cal.add(Calendar.DAY_OF_WEEK, source.getConfigIntValue("SEPA_SHIFT_DAYS", 0));
 
-		while (!isValidBankDate(cal)) {
+		while (!isValidBankDate(source, cal)) {
 			if (cal.get(Calendar.DAY_OF_WEEK) == Calendar.FRIDAY)
 				cal.add(Calendar.DAY_OF_WEEK, 3);
 			else if (cal.get(Calendar.DAY_OF_WEEK) == Calendar.SATURDAY)
@@ -814,22 +1100,15 @@ public class SEPAPaymentExport implements PaymentExport {
 	/**
 	 * Checks if the date is valid for the bank calendar
 	 */
-	private boolean isValidBankDate(Calendar originalDate) {
+	private boolean isValidBankDate(SEPAExportSource source, Calendar originalDate) {
 		int dow = originalDate.get(Calendar.DAY_OF_WEEK);
 		boolean isWeekday = ((dow >= Calendar.MONDAY) && (dow <= Calendar.FRIDAY));
 
 		if (!isWeekday)
 			return false;
 
-		X_C_NonBusinessDay nonWorkingDay = new Query(Env.getCtx(), X_C_NonBusinessDay.Table_Name,
-				"TRUNC(" + X_C_NonBusinessDay.COLUMNNAME_Date1 + ")=? AND " + X_C_NonBusinessDay.COLUMNNAME_Name
-						+ " LIKE ?",
-				null)
-				.setParameters(new Object[] { new Timestamp(originalDate.getTime().getTime()),
-						MSysConfig.getValue("SEPA_BANKHOLIDAY_KEYWORD", "", Env.getAD_Client_ID(Env.getCtx())) })
-				.setOnlyActiveRecords(true).setClient_ID().first();
-
-		if (nonWorkingDay != null)
+		if (source.isNonBusinessDay(new Timestamp(originalDate.getTime().getTime()),
+				source.getConfigValue("SEPA_BANKHOLIDAY_KEYWORD", "")))
 			return false;
 
 		return true;
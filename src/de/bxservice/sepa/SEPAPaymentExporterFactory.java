@@ -36,6 +36,8 @@ public class SEPAPaymentExporterFactory implements IPaymentExporterFactory {
 	public PaymentExport newPaymentExporterInstance(String className) {
 		if (SEPAPaymentExport.class.getName().equals(className))
 			return new SEPAPaymentExport();
+		if (SEPAInstantPaymentExport.class.getName().equals(className))
+			return new SEPAInstantPaymentExport();
 		return null;
 	}
 
@@ -0,0 +1,369 @@
+/******************************************************************************
+ * Product: iDempiere Business Suite ERP/CRM/SCM                              *
+ * This program is free software; you can redistribute it and/or modify it    *
+ * under the terms version 2 of the GNU General Public License as published   *
+ * by the Free Software Foundation. This program is distributed in the hope   *
+ * that it will be useful, but WITHOUT ANY WARRANTY; without even the implied *
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.           *
+ * See the GNU General Public License for more details.                       *
+ * You should have received a copy of the GNU General Public License along    *
+ * with this program; if not, write to the Free Software Foundation, Inc.,    *
+ * 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA.                     *
+ *****************************************************************************/
+package de.bxservice.sepa;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.time.DateTimeException;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import de.bxservice.sepa.source.SEPAInvoice;
+
+/**
+ * Compiled layout of the remittance information (Ustrd) of one invoice, set
+ * per client in the SysConfig {@value #SYSCONFIG}.
+ * <p>
+ * <code>${Field}</code> is replaced by the value of the field, dates and
+ * amounts can be given a format: <code>${DateInvoiced:yyyy-MM-dd}</code> takes
+ * a {@link DateTimeFormatter} pattern, <code>${GrandTotal:2}</code> the number
+ * of decimals. Text in <code>[...]</code> is left out if a field in it is
+ * empty, <code>\</code> escapes the next character. Fields are
+ * {@link Field#DateInvoiced}, {@link Field#DocumentNo}, {@link Field#OrderNo},
+ * {@link Field#POReference}, {@link Field#ReferenceNo} of the partner,
+ * {@link Field#GrandTotal} and {@link Field#Description} of the pay selection
+ * line.
+ * <p>
+ * A template is parsed once and can be used by several threads. Dates are
+ * formatted with java.time and amounts in German format, e.g. 1.234,5.
+ *
+ * @author Diego Ruiz - Bx Service GmbH
+ */
+public final class SEPARemittanceTemplate {
+
+	/** SysConfig with the template of the client */
+	public static final String SYSCONFIG = "SEPA_REMITTANCE_TEMPLATE";
+
+	/** Layout used when the SysConfig is not set */
+	public static final String DEFAULT_TEMPLATE = "${DateInvoiced} ${DocumentNo}[/${OrderNo}][ ${POReference}]"
+			+ "[ ${ReferenceNo}] ${GrandTotal}[ ${Description}]";
+
+	/** Values of a template */
+	public enum Field {
+		DateInvoiced, DocumentNo, OrderNo, POReference, ReferenceNo, GrandTotal, Description
+	}
+
+	private static final DateTimeFormatter DEFAULT_DATE_FORMAT = DateTimeFormatter.ofPattern("dd.MM.yyyy");
+	/** Like NumberFormat.getNumberInstance(Locale.GERMANY) */
+	private static final int DEFAULT_MAX_DECIMALS = 3;
+
+	private static final Map<String, SEPARemittanceTemplate> s_templates = new ConcurrentHashMap<>();
+
+	private final String template;
+	private final String hash;
+	private final Segment[] segments;
+	private final EnumSet<Field> fields = EnumSet.noneOf(Field.class);
+
+	/**
+	 * @param template template, empty for the {@link #DEFAULT_TEMPLATE}
+	 * @return compiled template
+	 * @throws IllegalArgumentException if the template is not valid
+	 */
+	public static SEPARemittanceTemplate get(String template) {
+		if (template == null || template.isBlank())
+			template = DEFAULT_TEMPLATE;
+		return s_templates.computeIfAbsent(template, SEPARemittanceTemplate::new);
+	}
+
+	private SEPARemittanceTemplate(String template) {
+		this.template = template;
+		hash = String.format("%08x", template.hashCode());
+		int[] position = { 0 };
+		List<Segment> list = parse(position, false);
+		segments = list.toArray(new Segment[0]);
+	}
+
+	/**
+	 * @param field field
+	 * @return true if the template contains the field, fields that are not used
+	 *         do not have to be loaded
+	 */
+	public boolean uses(Field field) {
+		return fields.contains(field);
+	}
+
+	/**
+	 * Appends the remittance information of an invoice
+	 *
+	 * @param out         buffer
+	 * @param invoice     invoice
+	 * @param orderNo     document number of the order of the invoice
+	 * @param referenceNo reference number of the partner of the invoice
+	 * @param description description of the pay selection line
+	 */
+	public void format(StringBuilder out, SEPAInvoice invoice, String orderNo, String referenceNo,
+			String description) {
+		Values values = new Values(invoice, orderNo, referenceNo, description);
+		for (Segment segment : segments)
+			segment.append(out, values);
+	}
+
+	/**
+	 * @return 8 hex digits identifying the template, stored with the rendered
+	 *         remittance information so a change of the SysConfig is noticed.
+	 *         String.hashCode is specified, every server computes the same.
+	 */
+	public String getHash() {
+		return hash;
+	}
+
+	@Override
+	public String toString() {
+		return template;
+	}
+
+	private List<Segment> parse(int[] position, boolean group) {
+		List<Segment> list = new ArrayList<>();
+		StringBuilder literal = new StringBuilder();
+		int length = template.length();
+		while (position[0] < length) {
+			char c = template.charAt(position[0]++);
+			if (c == '\\' && position[0] < length) {
+				literal.append(template.charAt(position[0]++));
+			} else if (c == '[') {
+				addLiteral(list, literal);
+				list.add(new GroupSegment(parse(position, true).toArray(new Segment[0])));
+			} else if (c == ']') {
+				if (!group)
+					throw new IllegalArgumentException("] without [ in " + SYSCONFIG + ": " + template);
+				addLiteral(list, literal);
+				return list;
+			} else if (c == '$' && position[0] < length && template.charAt(position[0]) == '{') {
+				int end = template.indexOf('}', position[0]);
+				if (end < 0)
+					throw new IllegalArgumentException("${ without } in " + SYSCONFIG + ": " + template);
+				addLiteral(list, literal);
+				list.add(createField(template.substring(position[0] + 1, end)));
+				position[0] = end + 1;
+			} else {
+				literal.append(c);
+			}
+		}
+		if (group)
+			throw new IllegalArgumentException("[ without ] in " + SYSCONFIG + ": " + template);
+		addLiteral(list, literal);
+		return list;
+	}
+
+	private static void addLiteral(List<Segment> list, StringBuilder literal) {
+		if (literal.length() > 0) {
+			list.add(new LiteralSegment(literal.toString()));
+			literal.setLength(0);
+		}
+	}
+
+	private Segment createField(String token) {
+		int colon = token.indexOf(':');
+		String name = colon < 0 ? token : token.substring(0, colon);
+		String format = colon < 0 ? null : token.substring(colon + 1);
+
+		Field field;
+		try {
+			field = Field.valueOf(name.trim());
+		} catch (IllegalArgumentException e) {
+			throw new IllegalArgumentException("Unknown field ${" + name + "} in " + SYSCONFIG + ": " + template);
+		}
+		fields.add(field);
+
+		if (field == Field.DateInvoiced) {
+			DateTimeFormatter formatter = DEFAULT_DATE_FORMAT;
+			if (format != null) {
+				try {
+					formatter = DateTimeFormatter.ofPattern(format);
+					formatter.format(LocalDateTime.of(2000, 1, 1, 0, 0));
+				} catch (IllegalArgumentException | DateTimeException e) {
+					throw new IllegalArgumentException("Invalid date format " + format + " in " + SYSCONFIG + ": "
+							+ template, e);
+				}
+			}
+			return new DateSegment(formatter);
+		}
+		if (field == Field.GrandTotal) {
+			int decimals = -1;
+			if (format != null) {
+				try {
+					decimals = Integer.parseInt(format.trim());
+				} catch (NumberFormatException e) {
+					throw new IllegalArgumentException("Invalid number of decimals " + format + " in " + SYSCONFIG
+							+ ": " + template, e);
+				}
+			}
+			return new AmountSegment(decimals);
+		}
+		if (format != null)
+			throw new IllegalArgumentException("${" + name + "} has no format in " + SYSCONFIG + ": " + template);
+		return new TextSegment(field);
+	}
+
+	/**
+	 * Appends the amount in German format: . groups thousands, , separates the
+	 * decimals
+	 *
+	 * @param decimals number of decimals, -1 for up to three without trailing
+	 *                 zeros
+	 */
+	static void appendAmount(StringBuilder out, BigDecimal amount, int decimals) {
+		BigDecimal rounded;
+		if (decimals < 0) {
+			rounded = amount.setScale(DEFAULT_MAX_DECIMALS, RoundingMode.HALF_EVEN).stripTrailingZeros();
+			if (rounded.scale() < 0)
+				rounded = rounded.setScale(0);
+		} else {
+			rounded = amount.setScale(decimals, RoundingMode.HALF_EVEN);
+		}
+
+		String digits = rounded.unscaledValue().abs().toString();
+		int scale = rounded.scale();
+		if (digits.length() <= scale)
+			digits = "0".repeat(scale - digits.length() + 1) + digits;
+		int integerDigits = digits.length() - scale;
+
+		if (rounded.signum() < 0)
+			out.append('-');
+		for (int i = 0; i < integerDigits; i++) {
+			if (i > 0 && (integerDigits - i) % 3 == 0)
+				out.append('.');
+			out.append(digits.charAt(i));
+		}
+		if (scale > 0)
+			out.append(',').append(digits, integerDigits, digits.length());
+	}
+
+	private static final class Values {
+		final SEPAInvoice invoice;
+		final String orderNo;
+		final String referenceNo;
+		final String description;
+
+		Values(SEPAInvoice invoice, String orderNo, String referenceNo, String description) {
+			this.invoice = invoice;
+			this.orderNo = orderNo;
+			this.referenceNo = referenceNo;
+			this.description = description;
+		}
+	}
+
+	private interface Segment {
+		/**
+		 * @return false if a field was empty
+		 */
+		boolean append(StringBuilder out, Values values);
+	}
+
+	private static final class LiteralSegment implements Segment {
+		private final String text;
+
+		LiteralSegment(String text) {
+			this.text = text;
+		}
+
+		@Override
+		public boolean append(StringBuilder out, Values values) {
+			out.append(text);
+			return true;
+		}
+	}
+
+	private static final class GroupSegment implements Segment {
+		private final Segment[] segments;
+
+		GroupSegment(Segment[] segments) {
+			this.segments = segments;
+		}
+
+		@Override
+		public boolean append(StringBuilder out, Values values) {
+			int start = out.length();
+			for (Segment segment : segments) {
+				if (!segment.append(out, values)) {
+					out.setLength(start);
+					break;
+				}
+			}
+			// an optional group never empties the enclosing one
+			return true;
+		}
+	}
+
+	private static final class TextSegment implements Segment {
+		private final Field field;
+
+		TextSegment(Field field) {
+			this.field = field;
+		}
+
+		@Override
+		public boolean append(StringBuilder out, Values values) {
+			String value;
+			switch (field) {
+			case DocumentNo:
+				value = values.invoice.getDocumentNo();
+				break;
+			case OrderNo:
+				value = values.orderNo;
+				break;
+			case POReference:
+				value = values.invoice.getPOReference();
+				break;
+			case ReferenceNo:
+				value = values.referenceNo;
+				break;
+			default:
+				value = values.description;
+				break;
+			}
+			if (value == null || value.isEmpty())
+				return false;
+			out.append(value);
+			return true;
+		}
+	}
+
+	private static final class DateSegment implements Segment {
+		private final DateTimeFormatter formatter;
+
+		DateSegment(DateTimeFormatter formatter) {
+			this.formatter = formatter;
+		}
+
+		@Override
+		public boolean append(StringBuilder out, Values values) {
+			if (values.invoice.getDateInvoiced() == null)
+				return false;
+			formatter.formatTo(values.invoice.getDateInvoiced().toLocalDateTime(), out);
+			return true;
+		}
+	}
+
+	private static final class AmountSegment implements Segment {
+		private final int decimals;
+
+		AmountSegment(int decimals) {
+			this.decimals = decimals;
+		}
+
+		@Override
+		public boolean append(StringBuilder out, Values values) {
+			if (values.invoice.getGrandTotal() == null)
+				return false;
+			appendAmount(out, values.invoice.getGrandTotal(), decimals);
+			return true;
+		}
+	}
+
+}
@@ -0,0 +1,242 @@
+/******************************************************************************
+ * Product: iDempiere Business Suite ERP/CRM/SCM                              *
+ * This program is free software; you can redistribute it and/or modify it    *
+ * under the terms version 2 of the GNU General Public License as published   *
+ * by the Free Software Foundation. This program is distributed in the hope   *
+ * that it will be useful, but WITHOUT ANY WARRANTY; without even the implied *
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.           *
+ * See the GNU General Public License for more details.                       *
+ * You should have received a copy of the GNU General Public License along    *
+ * with this program; if not, write to the Free Software Foundation, Inc.,    *
+ * 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA.                     *
+ *****************************************************************************/
+package de.bxservice.sepa.output;
+
+import java.io.BufferedOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ThreadLocalRandom;
+
+import de.bxservice.sepa.writer.SEPAByteBuffer;
+
+/**
+ * Writes to a staging file through a {@link FileChannel}. On commit the
+ * staging file is forced to disk and atomically renamed, so a pickup job
+ * never sees a truncated file.
+ * <p>
+ * With a spool directory the file is staged there and published with a single
+ * rename into the spool directory. The target gets the same file first, as a
+ * hard link or, across file systems, a copy; if publishing fails the target is
+ * removed again, so the export either succeeds completely or leaves nothing.
+ *
+ * @author Diego Ruiz - Bx Service GmbH
+ */
+public class AtomicFileSink implements SEPAOutputSink {
+
+	private static final int BUFFER_SIZE = 64 * 1024;
+
+	private final Path target;
+	private final Path spoolDirectory;
+	/** where the file is staged, the spool directory if there is one */
+	private final Path stagingTarget;
+	private Path staging;
+	private FileChannel channel;
+	private OutputStream stream;
+	private long bytesWritten;
+	private boolean committed;
+
+	/**
+	 * @param target file that exists only after commit
+	 */
+	public AtomicFileSink(Path target) {
+		this(target, null);
+	}
+
+	/**
+	 * @param target         file that exists only after commit
+	 * @param spoolDirectory directory the committed file is published to, null
+	 *                       for none
+	 */
+	public AtomicFileSink(Path target, Path spoolDirectory) {
+		this.target = target.toAbsolutePath();
+		this.spoolDirectory = spoolDirectory;
+		stagingTarget = spoolDirectory != null ? spoolDirectory.toAbsolutePath().resolve(target.getFileName())
+				: this.target;
+	}
+
+	private FileChannel channel() throws IOException {
+		if (committed)
+			throw new IllegalStateException("Sink already committed: " + target);
+		if (channel == null) {
+			staging = createStagingFile(stagingTarget);
+			channel = FileChannel.open(staging, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+		}
+		return channel;
+	}
+
+	@Override
+	public OutputStream getOutputStream() throws IOException {
+		if (stream == null) {
+			OutputStream channelStream = Channels.newOutputStream(channel());
+			stream = new FilterOutputStream(new BufferedOutputStream(channelStream, BUFFER_SIZE)) {
+				@Override
+				public void write(byte[] b, int off, int len) throws IOException {
+					out.write(b, off, len);
+					bytesWritten += len;
+				}
+
+				@Override
+				public void write(int b) throws IOException {
+					out.write(b);
+					bytesWritten++;
+				}
+
+				@Override
+				public void close() throws IOException {
+					// the channel stays open until commit or abort
+					flush();
+				}
+			};
+		}
+		return stream;
+	}
+
+	@Override
+	public void write(SEPAByteBuffer buffer) throws IOException {
+		if (stream != null)
+			stream.flush();
+		writeFully(channel(), buffer.asByteBuffer());
+		bytesWritten += buffer.size();
+	}
+
+	@Override
+	public void commit() throws IOException {
+		FileChannel fileChannel = channel();
+		if (stream != null)
+			stream.flush();
+		fileChannel.force(true);
+		fileChannel.close();
+		if (spoolDirectory != null) {
+			placeTarget(staging, target);
+			try {
+				moveAtomically(staging, stagingTarget);
+			} catch (IOException e) {
+				// not published, the export fails and must not leave a file behind
+				Files.deleteIfExists(target);
+				throw e;
+			}
+		} else {
+			moveAtomically(staging, target);
+		}
+		committed = true;
+	}
+
+	@Override
+	public void abort() {
+		if (committed)
+			return;
+		try {
+			if (channel != null)
+				channel.close();
+			if (staging != null)
+				Files.deleteIfExists(staging);
+		} catch (IOException e) {
+			// nothing was published, a leftover staging file is harmless
+		}
+	}
+
+	@Override
+	public long getBytesWritten() {
+		return bytesWritten;
+	}
+
+	/**
+	 * @return the target file
+	 */
+	public Path getTarget() {
+		return target;
+	}
+
+	/**
+	 * Puts the staged file atomically at the target before it is published. A
+	 * hard link costs nothing; only if the spool directory is on another file
+	 * system the file is copied.
+	 */
+	private static void placeTarget(Path staged, Path target) throws IOException {
+		Path link = createStagingFile(target);
+		try {
+			Files.delete(link);
+			try {
+				Files.createLink(link, staged);
+			} catch (IOException | UnsupportedOperationException e) {
+				copy(staged, link);
+			}
+			moveAtomically(link, target);
+		} catch (IOException e) {
+			Files.deleteIfExists(link);
+			throw e;
+		}
+	}
+
+	private static void copy(Path source, Path destination) throws IOException {
+		try (FileChannel in = FileChannel.open(source, StandardOpenOption.READ);
+				FileChannel out = FileChannel.open(destination, StandardOpenOption.CREATE_NEW,
+						StandardOpenOption.WRITE)) {
+			long size = in.size();
+			for (long position = 0; position < size;)
+				position += in.transferTo(position, size - position, out);
+			out.force(true);
+		}
+	}
+
+	/**
+	 * Staging files live in the directory of the target so the rename never
+	 * crosses a file system. Unlike a temporary file they get the default
+	 * permissions, which the published file keeps.
+	 */
+	private static Path createStagingFile(Path target) throws IOException {
+		Path directory = target.toAbsolutePath().getParent();
+		Files.createDirectories(directory);
+		while (true) {
+			Path staging = directory.resolve("." + target.getFileName() + "-"
+					+ Long.toUnsignedString(ThreadLocalRandom.current().nextLong()) + ".part");
+			try {
+				return Files.createFile(staging);
+			} catch (FileAlreadyExistsException e) {
+				// try another name
+			}
+		}
+	}
+
+	private static void moveAtomically(Path source, Path destination) throws IOException {
+		Files.move(source, destination, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+		syncDirectory(destination.getParent());
+	}
+
+	/**
+	 * Makes the rename durable. Not every platform can open a directory, then
+	 * the file system has to take care of it.
+	 */
+	private static void syncDirectory(Path directory) {
+		try (FileChannel dir = FileChannel.open(directory, StandardOpenOption.READ)) {
+			dir.force(true);
+		} catch (IOException e) {
+			// not supported on this platform
+		}
+	}
+
+	private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+		while (buffer.hasRemaining())
+			channel.write(buffer);
+	}
+
+}
@@ -0,0 +1,89 @@
+/******************************************************************************
+ * Product: iDempiere Business Suite ERP/CRM/SCM                              *
+ * This program is free software; you can redistribute it and/or modify it    *
+ * under the terms version 2 of the GNU General Public License as published   *
+ * by the Free Software Foundation. This program is distributed in the hope   *
+ * that it will be useful, but WITHOUT ANY WARRANTY; without even the implied *
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.           *
+ * See the GNU General Public License for more details.                       *
+ * You should have received a copy of the GNU General Public License along    *
+ * with this program; if not, write to the Free Software Foundation, Inc.,    *
+ * 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA.                     *
+ *****************************************************************************/
+package de.bxservice.sepa.output;
+
+import java.io.OutputStream;
+
+import de.bxservice.sepa.writer.SEPAByteBuffer;
+
+/**
+ * Keeps the export in memory, e.g. to hand it to the browser as a download
+ * without a file round trip.
+ *
+ * @author Diego Ruiz - Bx Service GmbH
+ */
+public class MemorySink implements SEPAOutputSink {
+
+	private final SEPAByteBuffer content;
+	private final OutputStream stream;
+	private boolean committed;
+
+	public MemorySink() {
+		this(64 * 1024);
+	}
+
+	/**
+	 * @param initialCapacity expected size in bytes
+	 */
+	public MemorySink(int initialCapacity) {
+		content = new SEPAByteBuffer(initialCapacity);
+		stream = new OutputStream() {
+			@Override
+			public void write(int b) {
+				content.write(b);
+			}
+
+			@Override
+			public void write(byte[] b, int off, int len) {
+				content.write(b, off, len);
+			}
+		};
+	}
+
+	@Override
+	public OutputStream getOutputStream() {
+		return stream;
+	}
+
+	@Override
+	public void write(SEPAByteBuffer buffer) {
+		content.write(buffer);
+	}
+
+	@Override
+	public void commit() {
+		committed = true;
+	}
+
+	@Override
+	public void abort() {
+		if (!committed)
+			content.reset();
+	}
+
+	@Override
+	public long getBytesWritten() {
+		return content.size();
+	}
+
+	/**
+	 * @return the committed content
+	 * @throws IllegalStateException if the sink was not committed
+	 */
+	public byte[] toByteArray() {
+		if (!committed)
+			throw new IllegalStateException("Export not committed");
+		return content.toByteArray();
+	}
+
+}
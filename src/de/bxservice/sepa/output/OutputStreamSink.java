@@ -0,0 +1,81 @@
+/******************************************************************************
+ * Product: iDempiere Business Suite ERP/CRM/SCM                              *
+ * This program is free software; you can redistribute it and/or modify it    *
+ * under the terms version 2 of the GNU General Public License as published   *
+ * by the Free Software Foundation. This program is distributed in the hope   *
+ * that it will be useful, but WITHOUT ANY WARRANTY; without even the implied *
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.           *
+ * See the GNU General Public License for more details.                       *
+ * You should have received a copy of the GNU General Public License along    *
+ * with this program; if not, write to the Free Software Foundation, Inc.,    *
+ * 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA.                     *
+ *****************************************************************************/
+package de.bxservice.sepa.output;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+import de.bxservice.sepa.writer.SEPAByteBuffer;
+
+/**
+ * Writes straight into a stream owned by the caller, e.g. a servlet response.
+ * The stream is flushed on commit but never closed. Content that already went
+ * out cannot be taken back, so {@link #abort()} does nothing.
+ *
+ * @author Diego Ruiz - Bx Service GmbH
+ */
+public class OutputStreamSink implements SEPAOutputSink {
+
+	private final OutputStream stream;
+	private long bytesWritten;
+
+	/**
+	 * @param out destination stream, stays open
+	 */
+	public OutputStreamSink(OutputStream out) {
+		stream = new FilterOutputStream(out) {
+			@Override
+			public void write(byte[] b, int off, int len) throws IOException {
+				out.write(b, off, len);
+				bytesWritten += len;
+			}
+
+			@Override
+			public void write(int b) throws IOException {
+				out.write(b);
+				bytesWritten++;
+			}
+
+			@Override
+			public void close() throws IOException {
+				flush();
+			}
+		};
+	}
+
+	@Override
+	public OutputStream getOutputStream() {
+		return stream;
+	}
+
+	@Override
+	public void write(SEPAByteBuffer buffer) throws IOException {
+		buffer.writeTo(stream);
+	}
+
+	@Override
+	public void commit() throws IOException {
+		stream.flush();
+	}
+
+	@Override
+	public void abort() {
+	}
+
+	@Override
+	public long getBytesWritten() {
+		return bytesWritten;
+	}
+
+}
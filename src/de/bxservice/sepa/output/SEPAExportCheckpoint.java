@@ -0,0 +1,522 @@
+/******************************************************************************
+ * Product: iDempiere Business Suite ERP/CRM/SCM                              *
+ * This program is free software; you can redistribute it and/or modify it    *
+ * under the terms version 2 of the GNU General Public License as published   *
+ * by the Free Software Foundation. This program is distributed in the hope   *
+ * that it will be useful, but WITHOUT ANY WARRANTY; without even the implied *
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.           *
+ * See the GNU General Public License for more details.                       *
+ * You should have received a copy of the GNU General Public License along    *
+ * with this program; if not, write to the Free Software Foundation, Inc.,    *
+ * 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA.                     *
+ *****************************************************************************/
+package de.bxservice.sepa.output;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.OpenOption;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileAttribute;
+import java.nio.file.attribute.PosixFilePermission;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import de.bxservice.sepa.writer.SEPAByteBuffer;
+
+/**
+ * Progress of a large export, so a failed run can be resumed instead of
+ * starting from zero.
+ * <p>
+ * The transactions of each PmtInf block are rendered in chunks. Every
+ * completed chunk is saved to its own file and recorded with its number of
+ * transactions and control sum in an append-only log; a retry of the same
+ * export appends the saved bytes instead of loading and rendering the checks
+ * again. Everything else a run decides once, like its creation time or which
+ * checks go into which block, is kept in the properties of the checkpoint, so
+ * the resumed file is identical to the one an uninterrupted run writes.
+ * <p>
+ * A checkpoint lives in its own directory named after the fingerprint of the
+ * export, a different selection of checks never sees it. It is deleted when
+ * the export succeeds.
+ * <p>
+ * Checkpoints hold payment data: their directories and files are only
+ * accessible by the owner of the server process, and the default location is
+ * a private directory in java.io.tmpdir, not the directory of the exported
+ * file. A run locks its checkpoint, so two runs of the same export cannot
+ * write it at once. Checkpoints older than {@value #MAX_AGE_DAYS} days that
+ * are not locked are deleted when the next checkpoint is opened.
+ * <p>
+ * A checkpoint is an optimization: if it cannot be written, the export
+ * {@link #abandon() abandons} it and continues without one.
+ *
+ * @author Diego Ruiz - Bx Service GmbH
+ */
+public class SEPAExportCheckpoint {
+
+	private static final String DIRECTORY_PREFIX = ".sepa-checkpoint-";
+	private static final String PROPERTIES = "checkpoint.properties";
+	private static final String LOG = "chunks.log";
+	private static final String LOCK = "checkpoint.lock";
+	private static final String CHUNK_SUFFIX = ".chunk";
+
+	/** Days a checkpoint is kept for a retry */
+	public static final int MAX_AGE_DAYS = 2;
+
+	private static final Set<PosixFilePermission> DIRECTORY_PERMISSIONS = PosixFilePermissions
+			.fromString("rwx------");
+	private static final Set<PosixFilePermission> FILE_PERMISSIONS = PosixFilePermissions.fromString("rw-------");
+
+	private static final String FINGERPRINT = "fingerprint";
+	private static final String CHUNK_SIZE = "chunkSize";
+
+	private final Path directory;
+	private final int chunkSize;
+	private final Properties properties = new Properties();
+	private final Map<String, Chunk> chunks = new HashMap<>();
+	private final boolean resumed;
+	private boolean abandoned;
+	private FileChannel log;
+	private FileChannel lockChannel;
+	private FileLock lock;
+
+	/**
+	 * Private directory in java.io.tmpdir, where checkpoints are kept if no other
+	 * directory is configured. It is local to the server: on a cluster a retry
+	 * that runs on another node does not see it and starts over, the SysConfig
+	 * SEPA_CHECKPOINT_DIRECTORY has to point to storage all nodes share and
+	 * lock, e.g. an NFSv4 mount.
+	 *
+	 * @return default directory
+	 */
+	public static Path getDefaultDirectory() {
+		return Paths.get(System.getProperty("java.io.tmpdir"), "idempiere-sepa-checkpoints");
+	}
+
+	/**
+	 * Opens the checkpoint of an export, a new one if there is none or if it was
+	 * written for other checks or another chunk size. Expired checkpoints in the
+	 * directory are deleted first.
+	 *
+	 * @param parent      directory the checkpoints are kept in, the
+	 *                    {@link #getDefaultDirectory()} is created if it is
+	 *                    missing
+	 * @param fingerprint identifies the checks of the export and how they are
+	 *                    exported, see {@link #getFingerprint(Iterable)}
+	 * @param chunkSize   transactions per chunk
+	 * @return checkpoint, locked until it is closed or deleted
+	 * @throws IOException if the directory cannot be written, is not private or
+	 *                     another run of the same export holds the checkpoint
+	 */
+	public static SEPAExportCheckpoint open(Path parent, String fingerprint, int chunkSize) throws IOException {
+		if (parent.equals(getDefaultDirectory()))
+			createPrivateDirectory(parent);
+		deleteExpired(parent);
+		return new SEPAExportCheckpoint(parent.resolve(DIRECTORY_PREFIX + fingerprint.substring(0, 32)),
+				fingerprint, chunkSize);
+	}
+
+	private SEPAExportCheckpoint(Path directory, String fingerprint, int chunkSize) throws IOException {
+		this.directory = directory;
+		this.chunkSize = chunkSize;
+
+		createPrivateDirectory(directory);
+		lockChannel = createFile(directory.resolve(LOCK), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+		lock = tryLock(lockChannel);
+		if (lock == null) {
+			lockChannel.close();
+			lockChannel = null;
+			throw new IOException("Checkpoint " + directory + " is used by another run of the same export");
+		}
+
+		try {
+			resumed = load(fingerprint);
+		} catch (IOException | RuntimeException e) {
+			close();
+			throw e;
+		}
+	}
+
+	/**
+	 * Reads the checkpoint of a previous run, or clears it if it was written for
+	 * another export
+	 *
+	 * @return true if the previous run was the same export
+	 */
+	private boolean load(String fingerprint) throws IOException {
+		Path file = directory.resolve(PROPERTIES);
+		boolean valid = false;
+		if (Files.isRegularFile(file)) {
+			try (Reader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+				properties.load(reader);
+			}
+			valid = fingerprint.equals(properties.getProperty(FINGERPRINT))
+					&& String.valueOf(chunkSize).equals(properties.getProperty(CHUNK_SIZE));
+		}
+
+		if (valid) {
+			readLog();
+		} else {
+			clear();
+			properties.clear();
+			properties.setProperty(FINGERPRINT, fingerprint);
+			properties.setProperty(CHUNK_SIZE, String.valueOf(chunkSize));
+		}
+		return valid;
+	}
+
+	/**
+	 * Fingerprint of an export: the same values in the same order give the same
+	 * fingerprint
+	 *
+	 * @param values e.g. the payment rule and the id, partner and amount of every
+	 *               check
+	 * @return hex encoded SHA-256
+	 */
+	public static String getFingerprint(Iterable<?> values) {
+		try {
+			MessageDigest digest = MessageDigest.getInstance("SHA-256");
+			for (Object value : values) {
+				digest.update(String.valueOf(value).getBytes(StandardCharsets.UTF_8));
+				digest.update((byte) 0);
+			}
+			StringBuilder hex = new StringBuilder(64);
+			for (byte b : digest.digest())
+				hex.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+			return hex.toString();
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * @return true if a previous run of the same export left this checkpoint
+	 */
+	public boolean isResumed() {
+		return resumed;
+	}
+
+	/**
+	 * @return transactions per chunk
+	 */
+	public int getChunkSize() {
+		return chunkSize;
+	}
+
+	/**
+	 * @return value saved by {@link #setProperty(String, String)}, null if there
+	 *         is none
+	 */
+	public String getProperty(String key) {
+		return properties.getProperty(key);
+	}
+
+	/**
+	 * Sets a value, saved with {@link #save()}
+	 */
+	public void setProperty(String key, String value) {
+		properties.setProperty(key, value);
+	}
+
+	/**
+	 * Saves the properties, before the first chunk is saved
+	 *
+	 * @throws IOException if the file cannot be written
+	 */
+	public void save() throws IOException {
+		if (abandoned)
+			return;
+		Path staging = directory.resolve(PROPERTIES + ".part");
+		try (FileChannel channel = createFile(staging, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+				StandardOpenOption.TRUNCATE_EXISTING)) {
+			OutputStream out = Channels.newOutputStream(channel);
+			properties.store(out, "SEPA export checkpoint");
+			out.flush();
+			channel.force(true);
+		}
+		Files.move(staging, directory.resolve(PROPERTIES), StandardCopyOption.ATOMIC_MOVE,
+				StandardCopyOption.REPLACE_EXISTING);
+	}
+
+	/**
+	 * Appends a chunk saved by a previous run
+	 *
+	 * @param block                PmtInf block
+	 * @param index                chunk of the block
+	 * @param numberOfTransactions transactions the chunk must have
+	 * @param controlSum           control sum the chunk must have
+	 * @param out                  output the chunk is written to
+	 * @return false if the chunk was not saved or does not match, it has to be
+	 *         rendered
+	 * @throws IOException if the output cannot be written
+	 */
+	public boolean readChunk(String block, int index, int numberOfTransactions, BigDecimal controlSum,
+			OutputStream out) throws IOException {
+		if (abandoned)
+			return false;
+		Chunk chunk = chunks.get(getName(block, index));
+		if (chunk == null || chunk.numberOfTransactions != numberOfTransactions
+				|| chunk.controlSum.compareTo(controlSum) != 0)
+			return false;
+		byte[] content;
+		try {
+			content = Files.readAllBytes(directory.resolve(getName(block, index) + CHUNK_SUFFIX));
+		} catch (IOException e) {
+			return false;
+		}
+		if (content.length != chunk.size)
+			return false;
+		out.write(content);
+		return true;
+	}
+
+	/**
+	 * Saves a rendered chunk. The chunk file is on disk before it is logged, a
+	 * chunk that is logged can always be read.
+	 *
+	 * @param block                PmtInf block
+	 * @param index                chunk of the block
+	 * @param numberOfTransactions transactions of the chunk
+	 * @param controlSum           sum of the amounts of the chunk
+	 * @param content              rendered transactions
+	 * @throws IOException if the chunk cannot be written
+	 */
+	public void saveChunk(String block, int index, int numberOfTransactions, BigDecimal controlSum,
+			SEPAByteBuffer content) throws IOException {
+		if (abandoned)
+			return;
+		String name = getName(block, index);
+		Path staging = directory.resolve(name + CHUNK_SUFFIX + ".part");
+		try (FileChannel channel = createFile(staging, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+				StandardOpenOption.TRUNCATE_EXISTING)) {
+			ByteBuffer buffer = content.asByteBuffer();
+			while (buffer.hasRemaining())
+				channel.write(buffer);
+			channel.force(true);
+		}
+		Files.move(staging, directory.resolve(name + CHUNK_SUFFIX), StandardCopyOption.ATOMIC_MOVE,
+				StandardCopyOption.REPLACE_EXISTING);
+
+		if (log == null)
+			log = createFile(directory.resolve(LOG), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+					StandardOpenOption.APPEND);
+		String line = name + " " + numberOfTransactions + " " + controlSum.toPlainString() + " " + content.size()
+				+ "\n";
+		ByteBuffer buffer = ByteBuffer.wrap(line.getBytes(StandardCharsets.UTF_8));
+		while (buffer.hasRemaining())
+			log.write(buffer);
+		log.force(false);
+
+		chunks.put(name, new Chunk(numberOfTransactions, controlSum, content.size()));
+	}
+
+	/**
+	 * Stops using the checkpoint after it could not be written, e.g. because the
+	 * disk is full. Nothing is saved or read any more, the chunks logged so far
+	 * stay for a retry. The lock is kept until the checkpoint is closed or
+	 * deleted.
+	 */
+	public void abandon() {
+		abandoned = true;
+		if (log != null) {
+			try {
+				log.close();
+			} catch (IOException e) {
+				// nothing to flush, every line was forced
+			}
+			log = null;
+		}
+	}
+
+	/**
+	 * Releases the checkpoint and its lock, it stays on disk for a retry
+	 */
+	public void close() {
+		if (log != null) {
+			try {
+				log.close();
+			} catch (IOException e) {
+				// nothing to flush, every line was forced
+			}
+			log = null;
+		}
+		if (lockChannel != null) {
+			try {
+				// closing the channel releases the lock
+				lockChannel.close();
+			} catch (IOException e) {
+				// the lock goes with the process
+			}
+			lockChannel = null;
+			lock = null;
+		}
+	}
+
+	/**
+	 * Deletes the checkpoint once the export succeeded
+	 */
+	public void delete() {
+		try {
+			clear();
+			// still locked, a run opening it now fails instead of using a deleted lock
+			Files.deleteIfExists(directory.resolve(LOCK));
+		} catch (IOException e) {
+			// a leftover checkpoint only costs disk space and expires
+		}
+		close();
+		try {
+			Files.deleteIfExists(directory);
+		} catch (IOException e) {
+			// a run opened it again in the meantime
+		}
+	}
+
+	/**
+	 * Deletes the checkpoints older than {@value #MAX_AGE_DAYS} days, except
+	 * those a running export holds
+	 */
+	private static void deleteExpired(Path parent) {
+		if (!Files.isDirectory(parent))
+			return;
+		long expired = System.currentTimeMillis() - TimeUnit.DAYS.toMillis(MAX_AGE_DAYS);
+		try (DirectoryStream<Path> directories = Files.newDirectoryStream(parent, DIRECTORY_PREFIX + "*")) {
+			for (Path directory : directories) {
+				try {
+					if (!Files.isDirectory(directory, LinkOption.NOFOLLOW_LINKS)
+							|| Files.getLastModifiedTime(directory).toMillis() >= expired)
+						continue;
+					try (FileChannel channel = FileChannel.open(directory.resolve(LOCK), StandardOpenOption.CREATE,
+							StandardOpenOption.WRITE)) {
+						if (tryLock(channel) == null)
+							continue;
+						try (DirectoryStream<Path> files = Files.newDirectoryStream(directory)) {
+							for (Path file : files)
+								Files.deleteIfExists(file);
+						}
+					}
+					Files.deleteIfExists(directory);
+				} catch (IOException e) {
+					// e.g. of another user, it is left alone
+				}
+			}
+		} catch (IOException e) {
+			// expired checkpoints are deleted by a later export
+		}
+	}
+
+	/**
+	 * @return the lock, null if another run holds it
+	 */
+	private static FileLock tryLock(FileChannel channel) throws IOException {
+		try {
+			return channel.tryLock();
+		} catch (OverlappingFileLockException e) {
+			// held by another export of this server
+			return null;
+		}
+	}
+
+	/**
+	 * Creates a directory only the owner can access. An existing directory must
+	 * not be a link and is made private, which fails if it belongs to someone
+	 * else.
+	 */
+	private static void createPrivateDirectory(Path directory) throws IOException {
+		boolean posix = isPosix(directory);
+		if (Files.isSymbolicLink(directory))
+			throw new IOException(directory + " is a link");
+		if (!Files.isDirectory(directory)) {
+			if (posix)
+				Files.createDirectories(directory, PosixFilePermissions.asFileAttribute(DIRECTORY_PERMISSIONS));
+			else
+				Files.createDirectories(directory);
+		}
+		if (posix)
+			Files.setPosixFilePermissions(directory, DIRECTORY_PERMISSIONS);
+	}
+
+	/**
+	 * Opens a file of the checkpoint, a new file is only accessible by the owner
+	 */
+	private static FileChannel createFile(Path file, OpenOption... options) throws IOException {
+		Set<OpenOption> optionSet = Set.of(options);
+		if (!isPosix(file.getParent()))
+			return FileChannel.open(file, optionSet);
+		FileAttribute<Set<PosixFilePermission>> permissions = PosixFilePermissions.asFileAttribute(FILE_PERMISSIONS);
+		return FileChannel.open(file, optionSet, permissions);
+	}
+
+	private static boolean isPosix(Path path) {
+		return path.getFileSystem().supportedFileAttributeViews().contains("posix");
+	}
+
+	private void readLog() throws IOException {
+		Path file = directory.resolve(LOG);
+		if (!Files.isRegularFile(file))
+			return;
+		try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+			for (String line = reader.readLine(); line != null; line = reader.readLine()) {
+				String[] fields = line.split(" ");
+				if (fields.length != 4)
+					continue;
+				try {
+					chunks.put(fields[0], new Chunk(Integer.parseInt(fields[1]), new BigDecimal(fields[2]),
+							Integer.parseInt(fields[3])));
+				} catch (NumberFormatException e) {
+					// the last line of a run that stopped while writing it
+				}
+			}
+		}
+	}
+
+	/**
+	 * Deletes the files of the checkpoint, except the lock this run holds
+	 */
+	private void clear() throws IOException {
+		if (!Files.isDirectory(directory))
+			return;
+		try (DirectoryStream<Path> files = Files.newDirectoryStream(directory)) {
+			for (Path file : files) {
+				if (!file.getFileName().toString().equals(LOCK))
+					Files.deleteIfExists(file);
+			}
+		}
+	}
+
+	private static String getName(String block, int index) {
+		return block + "-" + index;
+	}
+
+	private static class Chunk {
+		final int numberOfTransactions;
+		final BigDecimal controlSum;
+		final int size;
+
+		Chunk(int numberOfTransactions, BigDecimal controlSum, int size) {
+			this.numberOfTransactions = numberOfTransactions;
+			this.controlSum = controlSum;
+			this.size = size;
+		}
+	}
+
+}
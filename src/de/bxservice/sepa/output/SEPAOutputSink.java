@@ -0,0 +1,56 @@
+/******************************************************************************
+ * Product: iDempiere Business Suite ERP/CRM/SCM                              *
+ * This program is free software; you can redistribute it and/or modify it    *
+ * under the terms version 2 of the GNU General Public License as published   *
+ * by the Free Software Foundation. This program is distributed in the hope   *
+ * that it will be useful, but WITHOUT ANY WARRANTY; without even the implied *
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.           *
+ * See the GNU General Public License for more details.                       *
+ * You should have received a copy of the GNU General Public License along    *
+ * with this program; if not, write to the Free Software Foundation, Inc.,    *
+ * 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA.                     *
+ *****************************************************************************/
+package de.bxservice.sepa.output;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+import de.bxservice.sepa.writer.SEPAByteBuffer;
+
+/**
+ * Destination of an export. Content is only visible at the destination after
+ * {@link #commit()}; {@link #abort()} discards everything written so far, as
+ * far as the destination allows it.
+ *
+ * @author Diego Ruiz - Bx Service GmbH
+ */
+public interface SEPAOutputSink {
+
+	/**
+	 * @return stream to write to, closing it does not commit the sink
+	 * @throws IOException if the destination cannot be opened
+	 */
+	public OutputStream getOutputStream() throws IOException;
+
+	/**
+	 * Writes the content of the buffer
+	 */
+	public void write(SEPAByteBuffer buffer) throws IOException;
+
+	/**
+	 * Flushes and publishes the written content. The sink cannot be used
+	 * afterwards.
+	 */
+	public void commit() throws IOException;
+
+	/**
+	 * Discards the written content. Does nothing after {@link #commit()}.
+	 */
+	public void abort();
+
+	/**
+	 * @return number of bytes written so far
+	 */
+	public long getBytesWritten();
+
+}
@@ -0,0 +1,77 @@
+/******************************************************************************
+ * Product: iDempiere Business Suite ERP/CRM/SCM                              *
+ * This program is free software; you can redistribute it and/or modify it    *
+ * under the terms version 2 of the GNU General Public License as published   *
+ * by the Free Software Foundation. This program is distributed in the hope   *
+ * that it will be useful, but WITHOUT ANY WARRANTY; without even the implied *
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.           *
+ * See the GNU General Public License for more details.                       *
+ * You should have received a copy of the GNU General Public License along    *
+ * with this program; if not, write to the Free Software Foundation, Inc.,    *
+ * 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA.                     *
+ *****************************************************************************/
+package de.bxservice.sepa.source;
+
+/**
+ * Our own bank account (C_BankAccount) with the BIC of its bank
+ *
+ * @author Diego Ruiz - Bx Service GmbH
+ */
+public class SEPABankAccount {
+
+	private int bankAccountId;
+	private String iban;
+	private String bic;
+	private String sepaCtVersion;
+	private String sepaDdVersion;
+
+	public int getC_BankAccount_ID() {
+		return bankAccountId;
+	}
+
+	public void setC_BankAccount_ID(int bankAccountId) {
+		this.bankAccountId = bankAccountId;
+	}
+
+	public String getIBAN() {
+		return iban;
+	}
+
+	public void setIBAN(String iban) {
+		this.iban = iban;
+	}
+
+	/**
+	 * @return SwiftCode of the bank
+	 */
+	public String getBIC() {
+		return bic;
+	}
+
+	public void setBIC(String bic) {
+		this.bic = bic;
+	}
+
+	/**
+	 * @return pain.001 version, empty for the default
+	 */
+	public String getSepaCtVersion() {
+		return sepaCtVersion;
+	}
+
+	public void setSepaCtVersion(String sepaCtVersion) {
+		this.sepaCtVersion = sepaCtVersion;
+	}
+
+	/**
+	 * @return pain.008 version, empty for the default
+	 */
+	public String getSepaDdVersion() {
+		return sepaDdVersion;
+	}
+
+	public void setSepaDdVersion(String sepaDdVersion) {
+		this.sepaDdVersion = sepaDdVersion;
+	}
+
+}
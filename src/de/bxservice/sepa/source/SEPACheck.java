@@ -0,0 +1,70 @@
+/******************************************************************************
+ * Product: iDempiere Business Suite ERP/CRM/SCM                              *
+ * This program is free software; you can redistribute it and/or modify it    *
+ * under the terms version 2 of the GNU General Public License as published   *
+ * by the Free Software Foundation. This program is distributed in the hope   *
+ * that it will be useful, but WITHOUT ANY WARRANTY; without even the implied *
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.           *
+ * See the GNU General Public License for more details.                       *
+ * You should have received a copy of the GNU General Public License along    *
+ * with this program; if not, write to the Free Software Foundation, Inc.,    *
+ * 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA.                     *
+ *****************************************************************************/
+package de.bxservice.sepa.source;
+
+import java.math.BigDecimal;
+
+/**
+ * Pay selection check (C_PaySelectionCheck), one transaction of the export
+ *
+ * @author Diego Ruiz - Bx Service GmbH
+ */
+public class SEPACheck {
+
+	private int paySelectionCheckId;
+	private int paySelectionId;
+	private int bpartnerId;
+	private int orgId;
+	private BigDecimal payAmt;
+
+	public int getC_PaySelectionCheck_ID() {
+		return paySelectionCheckId;
+	}
+
+	public void setC_PaySelectionCheck_ID(int paySelectionCheckId) {
+		this.paySelectionCheckId = paySelectionCheckId;
+	}
+
+	public int getC_PaySelection_ID() {
+		return paySelectionId;
+	}
+
+	public void setC_PaySelection_ID(int paySelectionId) {
+		this.paySelectionId = paySelectionId;
+	}
+
+	public int getC_BPartner_ID() {
+		return bpartnerId;
+	}
+
+	public void setC_BPartner_ID(int bpartnerId) {
+		this.bpartnerId = bpartnerId;
+	}
+
+	public int getAD_Org_ID() {
+		return orgId;
+	}
+
+	public void setAD_Org_ID(int orgId) {
+		this.orgId = orgId;
+	}
+
+	public BigDecimal getPayAmt() {
+		return payAmt;
+	}
+
+	public void setPayAmt(BigDecimal payAmt) {
+		this.payAmt = payAmt;
+	}
+
+}
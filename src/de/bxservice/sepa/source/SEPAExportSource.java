@@ -0,0 +1,150 @@
+/******************************************************************************
+ * Product: iDempiere Business Suite ERP/CRM/SCM                              *
+ * This program is free software; you can redistribute it and/or modify it    *
+ * under the terms version 2 of the GNU General Public License as published   *
+ * by the Free Software Foundation. This program is distributed in the hope   *
+ * that it will be useful, but WITHOUT ANY WARRANTY; without even the implied *
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.           *
+ * See the GNU General Public License for more details.                       *
+ * You should have received a copy of the GNU General Public License along    *
+ * with this program; if not, write to the Free Software Foundation, Inc.,    *
+ * 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA.                     *
+ *****************************************************************************/
+package de.bxservice.sepa.source;
+
+import java.sql.Timestamp;
+import java.util.List;
+
+/**
+ * Everything the export reads from or writes to the database. The export
+ * itself does not touch the database, so it can run against an in-memory
+ * stand-in, e.g. in a load test.
+ * <p>
+ * An implementation is used for one export at a time and does not need to be
+ * thread-safe. The lookups that reach the database are observed by
+ * {@link SEPARoundTrips}.
+ *
+ * @author Diego Ruiz - Bx Service GmbH
+ */
+public interface SEPAExportSource {
+
+	/**
+	 * @param C_PaySelection_ID pay selection
+	 * @return pay selection
+	 */
+	SEPAPaySelection getPaySelection(int C_PaySelection_ID);
+
+	/**
+	 * @param C_BankAccount_ID our own bank account
+	 * @return bank account
+	 */
+	SEPABankAccount getBankAccount(int C_BankAccount_ID);
+
+	/**
+	 * @param AD_Org_ID organization
+	 * @return name of the organization
+	 */
+	String getOrgName(int AD_Org_ID);
+
+	/**
+	 * @return name of the login client
+	 */
+	String getClientName();
+
+	/**
+	 * @param AD_Org_ID organization
+	 * @return SEPA creditor identifier of the organization
+	 */
+	String getCreditorIdentifier(int AD_Org_ID);
+
+	/**
+	 * @param C_Currency_ID currency
+	 * @return ISO code, e.g. EUR
+	 */
+	String getCurrencyISOCode(int C_Currency_ID);
+
+	/**
+	 * @param C_BPartner_ID business partner
+	 * @return business partner
+	 */
+	SEPAPartner getPartner(int C_BPartner_ID);
+
+	/**
+	 * @param C_BPartner_ID business partner
+	 * @return bank accounts of the business partner
+	 */
+	List<SEPAPartnerAccount> getPartnerAccounts(int C_BPartner_ID);
+
+	/**
+	 * @param C_PaySelectionCheck_ID check
+	 * @return lines of the check ordered by line number
+	 */
+	List<SEPAPaySelectionLine> getPaySelectionLines(int C_PaySelectionCheck_ID);
+
+	/**
+	 * Loads the lines of the checks with their invoices, the document numbers of
+	 * the orders of the invoices and the partners of the checks and the invoices
+	 * in a few queries. The lookups of this data that follow are served from
+	 * what was loaded, until the next call replaces it.
+	 *
+	 * @param checks next checks of the export
+	 */
+	void prefetchPaySelectionLines(List<SEPACheck> checks);
+
+	/**
+	 * Loads the bank accounts of the partners of the checks in one query. The
+	 * lookups of these accounts that follow are served from what was loaded,
+	 * until the next call replaces it.
+	 *
+	 * @param checks next checks of the export
+	 */
+	void prefetchPartnerAccounts(List<SEPACheck> checks);
+
+	/**
+	 * @param C_Invoice_ID invoice
+	 * @return invoice or null if it does not exist
+	 */
+	SEPAInvoice getInvoice(int C_Invoice_ID);
+
+	/**
+	 * @param C_Order_ID order
+	 * @return document number or null if there is no order
+	 */
+	String getOrderDocumentNo(int C_Order_ID);
+
+	/**
+	 * @param date    day
+	 * @param keyword the non-business day name must be like the keyword
+	 * @return true if the day is a bank holiday
+	 */
+	boolean isNonBusinessDay(Timestamp date, String keyword);
+
+	/**
+	 * Marks the mandate of the account as used for a first direct debit
+	 *
+	 * @param account bank account of the business partner
+	 */
+	void setTransferred(SEPAPartnerAccount account);
+
+	/**
+	 * @param name         SysConfig name
+	 * @param defaultValue value if not configured
+	 * @return configured value of the login client
+	 */
+	String getConfigValue(String name, String defaultValue);
+
+	/**
+	 * @param name         SysConfig name
+	 * @param defaultValue value if not configured
+	 * @return configured value of the login client
+	 */
+	boolean getConfigBooleanValue(String name, boolean defaultValue);
+
+	/**
+	 * @param name         SysConfig name
+	 * @param defaultValue value if not configured
+	 * @return configured value of the login client
+	 */
+	int getConfigIntValue(String name, int defaultValue);
+
+}
@@ -0,0 +1,92 @@
+/******************************************************************************
+ * Product: iDempiere Business Suite ERP/CRM/SCM                              *
+ * This program is free software; you can redistribute it and/or modify it    *
+ * under the terms version 2 of the GNU General Public License as published   *
+ * by the Free Software Foundation. This program is distributed in the hope   *
+ * that it will be useful, but WITHOUT ANY WARRANTY; without even the implied *
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.           *
+ * See the GNU General Public License for more details.                       *
+ * You should have received a copy of the GNU General Public License along    *
+ * with this program; if not, write to the Free Software Foundation, Inc.,    *
+ * 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA.                     *
+ *****************************************************************************/
+package de.bxservice.sepa.source;
+
+import java.math.BigDecimal;
+import java.sql.Timestamp;
+
+/**
+ * Invoice (C_Invoice) paid by a pay selection line
+ *
+ * @author Diego Ruiz - Bx Service GmbH
+ */
+public class SEPAInvoice {
+
+	private int invoiceId;
+	private int bpartnerId;
+	private int orderId;
+	private String documentNo;
+	private Timestamp dateInvoiced;
+	private String poReference;
+	private BigDecimal grandTotal;
+
+	public int getC_Invoice_ID() {
+		return invoiceId;
+	}
+
+	public void setC_Invoice_ID(int invoiceId) {
+		this.invoiceId = invoiceId;
+	}
+
+	public int getC_BPartner_ID() {
+		return bpartnerId;
+	}
+
+	public void setC_BPartner_ID(int bpartnerId) {
+		this.bpartnerId = bpartnerId;
+	}
+
+	/**
+	 * @return order of the invoice, 0 if none
+	 */
+	public int getC_Order_ID() {
+		return orderId;
+	}
+
+	public void setC_Order_ID(int orderId) {
+		this.orderId = orderId;
+	}
+
+	public String getDocumentNo() {
+		return documentNo;
+	}
+
+	public void setDocumentNo(String documentNo) {
+		this.documentNo = documentNo;
+	}
+
+	public Timestamp getDateInvoiced() {
+		return dateInvoiced;
+	}
+
+	public void setDateInvoiced(Timestamp dateInvoiced) {
+		this.dateInvoiced = dateInvoiced;
+	}
+
+	public String getPOReference() {
+		return poReference;
+	}
+
+	public void setPOReference(String poReference) {
+		this.poReference = poReference;
+	}
+
+	public BigDecimal getGrandTotal() {
+		return grandTotal;
+	}
+
+	public void setGrandTotal(BigDecimal grandTotal) {
+		this.grandTotal = grandTotal;
+	}
+
+}
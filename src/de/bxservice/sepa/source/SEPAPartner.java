@@ -0,0 +1,53 @@
+/******************************************************************************
+ * Product: iDempiere Business Suite ERP/CRM/SCM                              *
+ * This program is free software; you can redistribute it and/or modify it    *
+ * under the terms version 2 of the GNU General Public License as published   *
+ * by the Free Software Foundation. This program is distributed in the hope   *
+ * that it will be useful, but WITHOUT ANY WARRANTY; without even the implied *
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.           *
+ * See the GNU General Public License for more details.                       *
+ * You should have received a copy of the GNU General Public License along    *
+ * with this program; if not, write to the Free Software Foundation, Inc.,    *
+ * 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA.                     *
+ *****************************************************************************/
+package de.bxservice.sepa.source;
+
+/**
+ * Business partner (C_BPartner) of a check or an invoice
+ *
+ * @author Diego Ruiz - Bx Service GmbH
+ */
+public class SEPAPartner {
+
+	private int bpartnerId;
+	private String name;
+	private String referenceNo;
+
+	public int getC_BPartner_ID() {
+		return bpartnerId;
+	}
+
+	public void setC_BPartner_ID(int bpartnerId) {
+		this.bpartnerId = bpartnerId;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public void setName(String name) {
+		this.name = name;
+	}
+
+	/**
+	 * @return our customer or vendor number at the partner
+	 */
+	public String getReferenceNo() {
+		return referenceNo;
+	}
+
+	public void setReferenceNo(String referenceNo) {
+		this.referenceNo = referenceNo;
+	}
+
+}
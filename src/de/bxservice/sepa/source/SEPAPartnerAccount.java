@@ -0,0 +1,155 @@
+/******************************************************************************
+ * Product: iDempiere Business Suite ERP/CRM/SCM                              *
+ * This program is free software; you can redistribute it and/or modify it    *
+ * under the terms version 2 of the GNU General Public License as published   *
+ * by the Free Software Foundation. This program is distributed in the hope   *
+ * that it will be useful, but WITHOUT ANY WARRANTY; without even the implied *
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.           *
+ * See the GNU General Public License for more details.                       *
+ * You should have received a copy of the GNU General Public License along    *
+ * with this program; if not, write to the Free Software Foundation, Inc.,    *
+ * 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA.                     *
+ *****************************************************************************/
+package de.bxservice.sepa.source;
+
+import java.sql.Timestamp;
+
+/**
+ * Bank account of a business partner (C_BP_BankAccount) with the mandate
+ * data of direct debits
+ *
+ * @author Diego Ruiz - Bx Service GmbH
+ */
+public class SEPAPartnerAccount {
+
+	private int bpBankAccountId;
+	private int bpartnerId;
+	private boolean active;
+	private boolean directDebit;
+	private boolean directDeposit;
+	private String iban;
+	private String bic;
+	private String accountName;
+	private String mandateId;
+	private Timestamp mandateDate;
+	private String sddScheme;
+	private boolean transferred;
+
+	public int getC_BP_BankAccount_ID() {
+		return bpBankAccountId;
+	}
+
+	public void setC_BP_BankAccount_ID(int bpBankAccountId) {
+		this.bpBankAccountId = bpBankAccountId;
+	}
+
+	public int getC_BPartner_ID() {
+		return bpartnerId;
+	}
+
+	public void setC_BPartner_ID(int bpartnerId) {
+		this.bpartnerId = bpartnerId;
+	}
+
+	public boolean isActive() {
+		return active;
+	}
+
+	public void setActive(boolean active) {
+		this.active = active;
+	}
+
+	/**
+	 * @return true if the account can be used for direct debits
+	 */
+	public boolean isDirectDebit() {
+		return directDebit;
+	}
+
+	public void setDirectDebit(boolean directDebit) {
+		this.directDebit = directDebit;
+	}
+
+	/**
+	 * @return true if the account can be used for credit transfers
+	 */
+	public boolean isDirectDeposit() {
+		return directDeposit;
+	}
+
+	public void setDirectDeposit(boolean directDeposit) {
+		this.directDeposit = directDeposit;
+	}
+
+	public String getIBAN() {
+		return iban;
+	}
+
+	public void setIBAN(String iban) {
+		this.iban = iban;
+	}
+
+	/**
+	 * @return SwiftCode of the bank
+	 */
+	public String getBIC() {
+		return bic;
+	}
+
+	public void setBIC(String bic) {
+		this.bic = bic;
+	}
+
+	/**
+	 * @return name of the account holder
+	 */
+	public String getA_Name() {
+		return accountName;
+	}
+
+	public void setA_Name(String accountName) {
+		this.accountName = accountName;
+	}
+
+	public String getMndtId() {
+		return mandateId;
+	}
+
+	public void setMndtId(String mandateId) {
+		this.mandateId = mandateId;
+	}
+
+	/**
+	 * @return date the mandate was signed
+	 */
+	public Timestamp getMandateDate() {
+		return mandateDate;
+	}
+
+	public void setMandateDate(Timestamp mandateDate) {
+		this.mandateDate = mandateDate;
+	}
+
+	/**
+	 * @return B2B or COR1
+	 */
+	public String getSEPASDDScheme() {
+		return sddScheme;
+	}
+
+	public void setSEPASDDScheme(String sddScheme) {
+		this.sddScheme = sddScheme;
+	}
+
+	/**
+	 * @return true if a first direct debit was already collected with the mandate
+	 */
+	public boolean isTransferred() {
+		return transferred;
+	}
+
+	public void setTransferred(boolean transferred) {
+		this.transferred = transferred;
+	}
+
+}
@@ -0,0 +1,82 @@
+/******************************************************************************
+ * Product: iDempiere Business Suite ERP/CRM/SCM                              *
+ * This program is free software; you can redistribute it and/or modify it    *
+ * under the terms version 2 of the GNU General Public License as published   *
+ * by the Free Software Foundation. This program is distributed in the hope   *
+ * that it will be useful, but WITHOUT ANY WARRANTY; without even the implied *
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.           *
+ * See the GNU General Public License for more details.                       *
+ * You should have received a copy of the GNU General Public License along    *
+ * with this program; if not, write to the Free Software Foundation, Inc.,    *
+ * 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA.                     *
+ *****************************************************************************/
+package de.bxservice.sepa.source;
+
+import java.sql.Timestamp;
+
+/**
+ * Pay selection (C_PaySelection) the checks belong to
+ *
+ * @author Diego Ruiz - Bx Service GmbH
+ */
+public class SEPAPaySelection {
+
+	private int paySelectionId;
+	private int orgId;
+	private int bankAccountId;
+	private int currencyId;
+	private Timestamp created;
+	private Timestamp payDate;
+
+	public int getC_PaySelection_ID() {
+		return paySelectionId;
+	}
+
+	public void setC_PaySelection_ID(int paySelectionId) {
+		this.paySelectionId = paySelectionId;
+	}
+
+	public int getAD_Org_ID() {
+		return orgId;
+	}
+
+	public void setAD_Org_ID(int orgId) {
+		this.orgId = orgId;
+	}
+
+	/**
+	 * @return our own bank account
+	 */
+	public int getC_BankAccount_ID() {
+		return bankAccountId;
+	}
+
+	public void setC_BankAccount_ID(int bankAccountId) {
+		this.bankAccountId = bankAccountId;
+	}
+
+	public int getC_Currency_ID() {
+		return currencyId;
+	}
+
+	public void setC_Currency_ID(int currencyId) {
+		this.currencyId = currencyId;
+	}
+
+	public Timestamp getCreated() {
+		return created;
+	}
+
+	public void setCreated(Timestamp created) {
+		this.created = created;
+	}
+
+	public Timestamp getPayDate() {
+		return payDate;
+	}
+
+	public void setPayDate(Timestamp payDate) {
+		this.payDate = payDate;
+	}
+
+}
@@ -0,0 +1,151 @@
+/******************************************************************************
+ * Product: iDempiere Business Suite ERP/CRM/SCM                              *
+ * This program is free software; you can redistribute it and/or modify it    *
+ * under the terms version 2 of the GNU General Public License as published   *
+ * by the Free Software Foundation. This program is distributed in the hope   *
+ * that it will be useful, but WITHOUT ANY WARRANTY; without even the implied *
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.           *
+ * See the GNU General Public License for more details.                       *
+ * You should have received a copy of the GNU General Public License along    *
+ * with this program; if not, write to the Free Software Foundation, Inc.,    *
+ * 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA.                     *
+ *****************************************************************************/
+package de.bxservice.sepa.source;
+
+import java.sql.Timestamp;
+
+/**
+ * Pay selection line (C_PaySelectionLine), one paid invoice of a check
+ *
+ * @author Diego Ruiz - Bx Service GmbH
+ */
+public class SEPAPaySelectionLine {
+
+	private int paySelectionLineId;
+	private int paySelectionCheckId;
+	private int invoiceId;
+	private String description;
+	private String sepaRemittanceInfo;
+	private String sepaEndToEndId;
+	private Timestamp sepaStaged;
+	private String sepaTemplateHash;
+	private Timestamp invoiceUpdated;
+	private Timestamp partnerUpdated;
+	private Timestamp orderUpdated;
+
+	public int getC_PaySelectionLine_ID() {
+		return paySelectionLineId;
+	}
+
+	public void setC_PaySelectionLine_ID(int paySelectionLineId) {
+		this.paySelectionLineId = paySelectionLineId;
+	}
+
+	public int getC_PaySelectionCheck_ID() {
+		return paySelectionCheckId;
+	}
+
+	public void setC_PaySelectionCheck_ID(int paySelectionCheckId) {
+		this.paySelectionCheckId = paySelectionCheckId;
+	}
+
+	public int getC_Invoice_ID() {
+		return invoiceId;
+	}
+
+	public void setC_Invoice_ID(int invoiceId) {
+		this.invoiceId = invoiceId;
+	}
+
+	public String getDescription() {
+		return description;
+	}
+
+	public void setDescription(String description) {
+		this.description = description;
+	}
+
+	/**
+	 * @return remittance information computed when the line was saved, null if
+	 *         it has not been computed
+	 */
+	public String getSepaRemittanceInfo() {
+		return sepaRemittanceInfo;
+	}
+
+	public void setSepaRemittanceInfo(String sepaRemittanceInfo) {
+		this.sepaRemittanceInfo = sepaRemittanceInfo;
+	}
+
+	/**
+	 * @return EndToEndId part computed when the line was saved, null if it has
+	 *         not been computed
+	 */
+	public String getSepaEndToEndId() {
+		return sepaEndToEndId;
+	}
+
+	public void setSepaEndToEndId(String sepaEndToEndId) {
+		this.sepaEndToEndId = sepaEndToEndId;
+	}
+
+	/**
+	 * @return when the remittance information and the EndToEndId were computed,
+	 *         null if they have not been computed
+	 */
+	public Timestamp getSepaStaged() {
+		return sepaStaged;
+	}
+
+	public void setSepaStaged(Timestamp sepaStaged) {
+		this.sepaStaged = sepaStaged;
+	}
+
+	/**
+	 * @return {@link de.bxservice.sepa.SEPARemittanceTemplate#getHash()} of the
+	 *         template the stored remittance information was rendered with
+	 */
+	public String getSepaTemplateHash() {
+		return sepaTemplateHash;
+	}
+
+	public void setSepaTemplateHash(String sepaTemplateHash) {
+		this.sepaTemplateHash = sepaTemplateHash;
+	}
+
+	/**
+	 * @return last change of the invoice, null if there is none
+	 */
+	public Timestamp getInvoiceUpdated() {
+		return invoiceUpdated;
+	}
+
+	public void setInvoiceUpdated(Timestamp invoiceUpdated) {
+		this.invoiceUpdated = invoiceUpdated;
+	}
+
+	/**
+	 * @return last change of the partner of the invoice, whose ReferenceNo a
+	 *         template can use, null if there is no invoice
+	 */
+	public Timestamp getPartnerUpdated() {
+		return partnerUpdated;
+	}
+
+	public void setPartnerUpdated(Timestamp partnerUpdated) {
+		this.partnerUpdated = partnerUpdated;
+	}
+
+	/**
+	 * @return last change of the order of the invoice, whose DocumentNo a
+	 *         template can use, null if there is none
+	 */
+	public Timestamp getOrderUpdated() {
+		return orderUpdated;
+	}
+
+	public void setOrderUpdated(Timestamp orderUpdated) {
+		this.orderUpdated = orderUpdated;
+	}
+
+}
@@ -0,0 +1,375 @@
+/******************************************************************************
+ * Product: iDempiere Business Suite ERP/CRM/SCM                              *
+ * This program is free software; you can redistribute it and/or modify it    *
+ * under the terms version 2 of the GNU General Public License as published   *
+ * by the Free Software Foundation. This program is distributed in the hope   *
+ * that it will be useful, but WITHOUT ANY WARRANTY; without even the implied *
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.           *
+ * See the GNU General Public License for more details.                       *
+ * You should have received a copy of the GNU General Public License along    *
+ * with this program; if not, write to the Free Software Foundation, Inc.,    *
+ * 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA.                     *
+ *****************************************************************************/
+package de.bxservice.sepa.source;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.logging.Handler;
+import java.util.logging.Level;
+import java.util.logging.LogRecord;
+import java.util.logging.Logger;
+
+/**
+ * Database round trips of the export running on the current thread, grouped
+ * by table and by the export method that caused them, e.g.
+ * {@code C_Order @ SEPAPaymentExport.getUnverifiedReferenceLine}.
+ * <p>
+ * Round trips are observed, not declared by the source: while a recorder is
+ * started, the PostgreSQL JDBC driver reports each statement it sends to a
+ * handler on its logger, which counts the statements sent by a thread with a
+ * recorder. A lookup answered by a model cache never reaches the driver and is
+ * not counted, a {@code new MOrder(...)} or {@code Query} anywhere in the
+ * export is. Other drivers report nothing. A source that is no database, like
+ * the stand-in of the load test, calls {@link #record(String)} for each lookup
+ * it would send.
+ * <p>
+ * The table is taken from the statement when the driver parses it, a statement
+ * the connection has already prepared is counted as {@code statement}. The call
+ * site is the first frame of this plugin outside of the
+ * {@link SEPAExportSource} and lambdas, so a lookup in a lambda of
+ * {@code Map.computeIfAbsent} or a stream is still blamed on the export method
+ * that caused it. It is only searched if the recorder was started with call
+ * sites.
+ *
+ * @author Diego Ruiz - Bx Service GmbH
+ */
+public class SEPARoundTrips implements AutoCloseable {
+
+	/** SysConfig of the budget of round trips per transaction, none if empty or 0 */
+	public static final String MAX_ROUNDTRIPS_PER_TRX = "SEPA_MAX_ROUNDTRIPS_PER_TRX";
+	/** SysConfig, Y to fail an export above the budget instead of logging a warning */
+	public static final String FAIL_ON_ROUNDTRIP_BUDGET = "SEPA_FAIL_ON_ROUNDTRIP_BUDGET";
+
+	/** Logger the PostgreSQL JDBC driver reports the statements it sends to */
+	private static final Logger s_driverLog = Logger.getLogger("org.postgresql.core.v3.QueryExecutorImpl");
+	private static final Logger s_log = Logger.getLogger(SEPARoundTrips.class.getName());
+	private static final StackWalker s_walker = StackWalker.getInstance(StackWalker.Option.RETAIN_CLASS_REFERENCE);
+	private static final ThreadLocal<SEPARoundTrips> s_current = new ThreadLocal<>();
+
+	/** Started recorders of all threads, the driver handler is installed while there are any */
+	private static int s_started = 0;
+	private static Handler s_driverHandler;
+	private static Level s_driverLevel;
+
+	private final boolean callSites;
+	private final Map<String, long[]> counts = new HashMap<>();
+	private long total = 0;
+	/** A round trip is pending until its table is known, i.e. until the next one starts */
+	private boolean pending = false;
+	private String pendingTable;
+	private String pendingCallSite;
+	private boolean closed = false;
+
+	private SEPARoundTrips(boolean callSites) {
+		this.callSites = callSites;
+	}
+
+	/**
+	 * Starts recording the round trips of the current thread
+	 *
+	 * @param callSites true to group the round trips by the export method that
+	 *                  caused them, costs a stack walk per round trip
+	 * @return recorder, to be closed on the same thread
+	 * @throws IllegalStateException if a recorder is already started on this
+	 *                               thread
+	 */
+	public static SEPARoundTrips start(boolean callSites) {
+		if (s_current.get() != null)
+			throw new IllegalStateException("Round trips are already recorded on this thread");
+		SEPARoundTrips roundTrips = new SEPARoundTrips(callSites);
+		s_current.set(roundTrips);
+		observeDriver();
+		return roundTrips;
+	}
+
+	/**
+	 * @return recorder started on the current thread or null
+	 */
+	public static SEPARoundTrips current() {
+		return s_current.get();
+	}
+
+	/**
+	 * Counts one round trip of the current thread, if it is recorded
+	 *
+	 * @param tableName table that is read or written
+	 */
+	public static void record(String tableName) {
+		SEPARoundTrips roundTrips = s_current.get();
+		if (roundTrips != null) {
+			roundTrips.execute();
+			roundTrips.pendingTable = tableName;
+		}
+	}
+
+	/**
+	 * @param source source of the export
+	 * @return round trips per transaction allowed by SEPA_MAX_ROUNDTRIPS_PER_TRX,
+	 *         0 for no budget
+	 */
+	public static double getBudget(SEPAExportSource source) {
+		String value = source.getConfigValue(MAX_ROUNDTRIPS_PER_TRX, "");
+		if (value == null || value.isBlank())
+			return 0;
+		try {
+			return Math.max(0, Double.parseDouble(value.trim()));
+		} catch (NumberFormatException e) {
+			// a typo must not fail an export that is already rendered
+			s_log.warning(MAX_ROUNDTRIPS_PER_TRX + " is not a number, no budget: " + value);
+			return 0;
+		}
+	}
+
+	/**
+	 * @param source source of the export
+	 * @return true if SEPA_FAIL_ON_ROUNDTRIP_BUDGET fails an export above the
+	 *         budget
+	 */
+	public static boolean isFailOnBudget(SEPAExportSource source) {
+		return source.getConfigBooleanValue(FAIL_ON_ROUNDTRIP_BUDGET, false);
+	}
+
+	/**
+	 * @param budget               round trips per transaction, see
+	 *                             {@link #getBudget(SEPAExportSource)}
+	 * @param numberOfTransactions transactions of the export
+	 * @return message with the round trips by call site if the budget is
+	 *         exceeded, else null
+	 */
+	public String checkBudget(double budget, int numberOfTransactions) {
+		double perTransaction = getPerTransaction(numberOfTransactions);
+		if (budget <= 0 || perTransaction <= budget)
+			return null;
+		return String.format(Locale.ROOT, "%.2f database round trips per transaction exceed the budget of %s: %s",
+				perTransaction, BigDecimal.valueOf(budget).stripTrailingZeros().toPlainString(), this);
+	}
+
+	/**
+	 * @return number of round trips
+	 */
+	public long getTotal() {
+		return total;
+	}
+
+	/**
+	 * @return round trips per table and call site, the most frequent first
+	 */
+	public Map<String, Long> getCounts() {
+		flush();
+		List<Map.Entry<String, Long>> entries = new ArrayList<>(counts.size());
+		counts.forEach((key, count) -> entries.add(Map.entry(key, count[0])));
+		entries.sort(Map.Entry.<String, Long>comparingByValue().reversed().thenComparing(Map.Entry.comparingByKey()));
+
+		Map<String, Long> result = new LinkedHashMap<>();
+		for (Map.Entry<String, Long> entry : entries)
+			result.put(entry.getKey(), entry.getValue());
+		return result;
+	}
+
+	/**
+	 * @param numberOfTransactions transactions of the export
+	 * @return round trips per transaction
+	 */
+	public double getPerTransaction(int numberOfTransactions) {
+		return numberOfTransactions == 0 ? total : (double) total / numberOfTransactions;
+	}
+
+	/**
+	 * Stops recording, the counts stay readable
+	 */
+	@Override
+	public void close() {
+		if (closed)
+			return;
+		closed = true;
+		flush();
+		if (s_current.get() == this)
+			s_current.remove();
+		unobserveDriver();
+	}
+
+	/**
+	 * @return e.g. {@code 120011 round trips: 40000 C_Invoice @ SEPAPaymentExport.createTransaction, ...}
+	 */
+	@Override
+	public String toString() {
+		StringBuilder summary = new StringBuilder();
+		summary.append(getTotal()).append(" round trips");
+		String separator = ": ";
+		for (Map.Entry<String, Long> entry : getCounts().entrySet()) {
+			summary.append(separator).append(entry.getValue()).append(' ').append(entry.getKey());
+			separator = ", ";
+		}
+		return summary.toString();
+	}
+
+	/**
+	 * A statement is sent, its table follows when the driver parses it
+	 */
+	private void execute() {
+		flush();
+		total++;
+		pending = true;
+		pendingTable = null;
+		pendingCallSite = callSites ? getCallSite() : null;
+	}
+
+	/**
+	 * @param sql statement the driver parses for the pending round trip
+	 */
+	private void parse(String sql) {
+		if (pending && pendingTable == null)
+			pendingTable = getTableName(sql);
+	}
+
+	private void flush() {
+		if (!pending)
+			return;
+		pending = false;
+		String key = pendingTable == null ? "statement" : pendingTable;
+		if (pendingCallSite != null)
+			key += " @ " + pendingCallSite;
+		counts.computeIfAbsent(key, k -> new long[1])[0]++;
+	}
+
+	/**
+	 * @param sql statement
+	 * @return first table after FROM, UPDATE or INTO outside of parentheses and
+	 *         quotes, e.g. C_Invoice for a PO load with subqueries of virtual
+	 *         columns, or null
+	 */
+	static String getTableName(String sql) {
+		int depth = 0;
+		boolean quoted = false;
+		for (int i = 0; i < sql.length(); i++) {
+			char c = sql.charAt(i);
+			if (c == '\'')
+				quoted = !quoted;
+			else if (quoted)
+				continue;
+			else if (c == '(')
+				depth++;
+			else if (c == ')')
+				depth--;
+			else if (depth == 0 && Character.isLetter(c) && (i == 0 || !Character.isLetterOrDigit(sql.charAt(i - 1)))) {
+				int end = i;
+				while (end < sql.length() && Character.isLetter(sql.charAt(end)))
+					end++;
+				String keyword = sql.substring(i, end);
+				if (keyword.equalsIgnoreCase("FROM") || keyword.equalsIgnoreCase("UPDATE")
+						|| keyword.equalsIgnoreCase("INTO")) {
+					String table = getIdentifier(sql, end);
+					if (table != null)
+						return table;
+				}
+				i = end - 1;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * @return identifier after the whitespace at start without its schema, or
+	 *         null if a subquery follows
+	 */
+	private static String getIdentifier(String sql, int start) {
+		int i = start;
+		while (i < sql.length() && Character.isWhitespace(sql.charAt(i)))
+			i++;
+		int begin = i;
+		while (i < sql.length() && (Character.isLetterOrDigit(sql.charAt(i)) || sql.charAt(i) == '_'
+				|| sql.charAt(i) == '.' || sql.charAt(i) == '"')) {
+			if (sql.charAt(i) == '.')
+				begin = i + 1;
+			i++;
+		}
+		return i > begin ? sql.substring(begin, i).replace("\"", "") : null;
+	}
+
+	/**
+	 * @return class and method of the first frame of this plugin outside of this
+	 *         class, the source and lambdas, e.g.
+	 *         {@code SEPAPaymentExport.createTransaction}
+	 */
+	private static String getCallSite() {
+		return s_walker.walk(frames -> frames
+				.filter(SEPARoundTrips::isCallSite)
+				.findFirst()
+				.map(frame -> frame.getDeclaringClass().getSimpleName() + "." + frame.getMethodName())
+				.orElse("unknown"));
+	}
+
+	/**
+	 * Lambdas are skipped, the method that created one is further down the stack
+	 */
+	private static boolean isCallSite(StackWalker.StackFrame frame) {
+		Class<?> frameClass = frame.getDeclaringClass();
+		String name = frameClass.getName();
+		return name.startsWith("de.bxservice.sepa.") && !name.startsWith(SEPARoundTrips.class.getName())
+				&& !SEPAExportSource.class.isAssignableFrom(frameClass) && !frame.getMethodName().startsWith("lambda$");
+	}
+
+	private static synchronized void observeDriver() {
+		if (s_started++ > 0)
+			return;
+		s_driverHandler = new DriverHandler();
+		s_driverLevel = s_driverLog.getLevel();
+		s_driverLog.setLevel(Level.FINEST);
+		s_driverLog.addHandler(s_driverHandler);
+	}
+
+	private static synchronized void unobserveDriver() {
+		if (--s_started > 0)
+			return;
+		s_driverLog.removeHandler(s_driverHandler);
+		s_driverLog.setLevel(s_driverLevel);
+		s_driverHandler = null;
+	}
+
+	/**
+	 * Counts the statements the driver reports for a thread with a recorder, one
+	 * simple or batch execute is one round trip
+	 */
+	private static class DriverHandler extends Handler {
+
+		@Override
+		public void publish(LogRecord record) {
+			SEPARoundTrips roundTrips = s_current.get();
+			String message = record.getMessage();
+			if (roundTrips == null || message == null)
+				return;
+			message = message.stripLeading();
+			if (message.startsWith("simple execute") || message.startsWith("batch execute")) {
+				roundTrips.execute();
+			} else if (message.startsWith("FE=> Parse(")) {
+				Object[] parameters = record.getParameters();
+				if (parameters != null && parameters.length > 1 && parameters[1] != null)
+					roundTrips.parse(parameters[1].toString());
+			}
+		}
+
+		@Override
+		public void flush() {
+		}
+
+		@Override
+		public void close() {
+		}
+	}
+
+}
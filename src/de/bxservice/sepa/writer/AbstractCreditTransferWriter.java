@@ -0,0 +1,119 @@
+/******************************************************************************
+ * Product: iDempiere Business Suite ERP/CRM/SCM                              *
+ * This program is free software; you can redistribute it and/or modify it    *
+ * under the terms version 2 of the GNU General Public License as published   *
+ * by the Free Software Foundation. This program is distributed in the hope   *
+ * that it will be useful, but WITHOUT ANY WARRANTY; without even the implied *
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.           *
+ * See the GNU General Public License for more details.                       *
+ * You should have received a copy of the GNU General Public License along    *
+ * with this program; if not, write to the Free Software Foundation, Inc.,    *
+ * 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA.                     *
+ *****************************************************************************/
+package de.bxservice.sepa.writer;
+
+/**
+ * Customer credit transfer initiation (pain.001). The versions differ in the
+ * name of the BIC element and in the structure of the requested execution
+ * date.
+ *
+ * @author Diego Ruiz - Bx Service GmbH
+ */
+public abstract class AbstractCreditTransferWriter extends AbstractSEPAMessageWriter {
+
+	// PmtInf
+	private final Tag pmtInf = new Tag(2, "PmtInf");
+	private final Tag pmtInfId = new Tag(3, "PmtInfId");
+	private final byte[] pmtMtd = element(new Tag(3, "PmtMtd"), "TRF");
+	private final byte[] btchBookgTrue = element(new Tag(3, "BtchBookg"), "true");
+	private final byte[] btchBookgFalse = element(new Tag(3, "BtchBookg"), "false");
+	private final Tag nbOfTxs = new Tag(3, "NbOfTxs");
+	private final Tag ctrlSum = new Tag(3, "CtrlSum");
+	private final Tag pmtTpInf = new Tag(3, "PmtTpInf");
+	private final Tag svcLvlCd = new Tag(4, "SvcLvl", "Cd");
+	private final Tag lclInstrmCd = new Tag(4, "LclInstrm", "Cd");
+	private final Tag reqdExctnDt;
+	private final Tag dbtrNm = new Tag(3, "Dbtr", "Nm");
+	private final Tag dbtrAcctIBAN = new Tag(3, "DbtrAcct", "Id", "IBAN");
+	private final Tag dbtrAgtBIC;
+	private final byte[] dbtrAgtNotProvided = element(new Tag(3, "DbtrAgt", "FinInstnId", "Othr", "Id"),
+			"NOTPROVIDED");
+	private final byte[] chrgBr = element(new Tag(3, "ChrgBr"), "SLEV");
+
+	// CdtTrfTxInf
+	private final Tag cdtTrfTxInf = new Tag(3, "CdtTrfTxInf");
+	private final Tag endToEndId = new Tag(4, "PmtId", "EndToEndId");
+	private final Tag amt = new Tag(4, "Amt");
+	private final byte[] instdAmtOpen = new Tag(5, "InstdAmt").openWithAttribute("Ccy");
+	private final Tag instdAmt = new Tag(5, "InstdAmt");
+	private final Tag cdtrAgtBIC;
+	private final Tag cdtrNm = new Tag(4, "Cdtr", "Nm");
+	private final Tag cdtrAcctIBAN = new Tag(4, "CdtrAcct", "Id", "IBAN");
+	private final Tag ustrd = new Tag(4, "RmtInf", "Ustrd");
+
+	/**
+	 * @param messageType    pain.001 version
+	 * @param bicElement     BIC or BICFI
+	 * @param datedExecution true if ReqdExctnDt wraps the date in a Dt element
+	 */
+	protected AbstractCreditTransferWriter(String messageType, String bicElement, boolean datedExecution) {
+		super(messageType, "CstmrCdtTrfInitn");
+		reqdExctnDt = datedExecution ? new Tag(3, "ReqdExctnDt", "Dt") : new Tag(3, "ReqdExctnDt");
+		dbtrAgtBIC = new Tag(3, "DbtrAgt", "FinInstnId", bicElement);
+		cdtrAgtBIC = new Tag(4, "CdtrAgt", "FinInstnId", bicElement);
+	}
+
+	@Override
+	public boolean isDirectDebit() {
+		return false;
+	}
+
+	@Override
+	public void writePaymentInfoStart(SEPAByteBuffer out, SEPAPaymentInfo paymentInfo) {
+		out.write(pmtInf.start);
+		writeElement(out, pmtInfId, paymentInfo.getPaymentInfoId(), 35);
+		out.write(pmtMtd);
+		out.write(paymentInfo.isBatchBooking() ? btchBookgTrue : btchBookgFalse);
+		writeElement(out, nbOfTxs, paymentInfo.getNumberOfTransactions());
+		writeElement(out, ctrlSum, paymentInfo.getControlSum());
+		out.write(pmtTpInf.start);
+		writeElement(out, svcLvlCd, paymentInfo.getServiceLevel());
+		if (paymentInfo.getLocalInstrument() != null)
+			writeElement(out, lclInstrmCd, paymentInfo.getLocalInstrument());
+		out.write(pmtTpInf.end);
+		writeElement(out, reqdExctnDt, paymentInfo.getExecutionDate());
+		writeElement(out, dbtrNm, paymentInfo.getName(), 70);
+		writeElement(out, dbtrAcctIBAN, paymentInfo.getIBAN());
+		if (isEmpty(paymentInfo.getBIC()))
+			out.write(dbtrAgtNotProvided);
+		else
+			writeElement(out, dbtrAgtBIC, paymentInfo.getBIC());
+		out.write(chrgBr);
+	}
+
+	@Override
+	public void writeTransaction(SEPAByteBuffer out, SEPATransaction transaction) {
+		out.write(cdtTrfTxInf.start);
+		writeElement(out, endToEndId, transaction.getEndToEndId(), 35);
+		out.write(amt.start);
+		out.write(instdAmtOpen);
+		out.writeXmlText(transaction.getCurrency());
+		out.write(ATTRIBUTE_END);
+		out.writeAscii(transaction.getAmount().toPlainString());
+		out.write(instdAmt.close);
+		out.write(amt.end);
+		if (!isEmpty(transaction.getBIC()))
+			writeElement(out, cdtrAgtBIC, transaction.getBIC());
+		writeElement(out, cdtrNm, transaction.getName(), 70);
+		writeElement(out, cdtrAcctIBAN, transaction.getIBAN());
+		if (!isEmpty(transaction.getRemittanceInformation()))
+			writeElement(out, ustrd, transaction.getRemittanceInformation(), 140);
+		out.write(cdtTrfTxInf.end);
+	}
+
+	@Override
+	public void writePaymentInfoEnd(SEPAByteBuffer out) {
+		out.write(pmtInf.end);
+	}
+
+}
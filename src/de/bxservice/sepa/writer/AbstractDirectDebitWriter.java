@@ -0,0 +1,139 @@
+/******************************************************************************
+ * Product: iDempiere Business Suite ERP/CRM/SCM                              *
+ * This program is free software; you can redistribute it and/or modify it    *
+ * under the terms version 2 of the GNU General Public License as published   *
+ * by the Free Software Foundation. This program is distributed in the hope   *
+ * that it will be useful, but WITHOUT ANY WARRANTY; without even the implied *
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.           *
+ * See the GNU General Public License for more details.                       *
+ * You should have received a copy of the GNU General Public License along    *
+ * with this program; if not, write to the Free Software Foundation, Inc.,    *
+ * 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA.                     *
+ *****************************************************************************/
+package de.bxservice.sepa.writer;
+
+/**
+ * Customer direct debit initiation (pain.008). The versions differ in the name
+ * of the BIC element.
+ *
+ * @author Diego Ruiz - Bx Service GmbH
+ */
+public abstract class AbstractDirectDebitWriter extends AbstractSEPAMessageWriter {
+
+	// PmtInf
+	private final Tag pmtInf = new Tag(2, "PmtInf");
+	private final Tag pmtInfId = new Tag(3, "PmtInfId");
+	private final byte[] pmtMtd = element(new Tag(3, "PmtMtd"), "DD");
+	private final byte[] btchBookgTrue = element(new Tag(3, "BtchBookg"), "true");
+	private final byte[] btchBookgFalse = element(new Tag(3, "BtchBookg"), "false");
+	private final Tag nbOfTxs = new Tag(3, "NbOfTxs");
+	private final Tag ctrlSum = new Tag(3, "CtrlSum");
+	private final Tag pmtTpInf = new Tag(3, "PmtTpInf");
+	private final Tag svcLvlCd = new Tag(4, "SvcLvl", "Cd");
+	private final Tag lclInstrmCd = new Tag(4, "LclInstrm", "Cd");
+	private final Tag seqTp = new Tag(4, "SeqTp");
+	private final Tag reqdColltnDt = new Tag(3, "ReqdColltnDt");
+	private final Tag cdtrNm = new Tag(3, "Cdtr", "Nm");
+	private final Tag cdtrAcctIBAN = new Tag(3, "CdtrAcct", "Id", "IBAN");
+	private final Tag cdtrAgtBIC;
+	private final byte[] cdtrAgtNotProvided = element(new Tag(3, "CdtrAgt", "FinInstnId", "Othr", "Id"),
+			"NOTPROVIDED");
+	private final byte[] chrgBr = element(new Tag(3, "ChrgBr"), "SLEV");
+
+	// DrctDbtTxInf
+	private final Tag drctDbtTxInf = new Tag(3, "DrctDbtTxInf");
+	private final Tag endToEndId = new Tag(4, "PmtId", "EndToEndId");
+	private final byte[] instdAmtOpen = new Tag(4, "InstdAmt").openWithAttribute("Ccy");
+	private final Tag instdAmt = new Tag(4, "InstdAmt");
+	private final Tag drctDbtTx = new Tag(4, "DrctDbtTx");
+	private final Tag mndtRltdInf = new Tag(5, "MndtRltdInf");
+	private final Tag mndtId = new Tag(6, "MndtId");
+	private final Tag dtOfSgntr = new Tag(6, "DtOfSgntr");
+	private final byte[] amdmntInd = element(new Tag(6, "AmdmntInd"), "false");
+	private final Tag cdtrSchmeIdOthr = new Tag(5, "CdtrSchmeId", "Id", "PrvtId", "Othr");
+	private final Tag cdtrSchmeIdOthrId = new Tag(9, "Id");
+	private final byte[] schmeNm = element(new Tag(9, "SchmeNm", "Prtry"), "SEPA");
+	private final Tag dbtrAgtBIC;
+	private final byte[] dbtrAgtNotProvided = element(new Tag(4, "DbtrAgt", "FinInstnId", "Othr", "Id"),
+			"NOTPROVIDED");
+	private final Tag dbtrNm = new Tag(4, "Dbtr", "Nm");
+	private final Tag dbtrAcctIBAN = new Tag(4, "DbtrAcct", "Id", "IBAN");
+	private final Tag ustrd = new Tag(4, "RmtInf", "Ustrd");
+
+	/**
+	 * @param messageType pain.008 version
+	 * @param bicElement  BIC or BICFI
+	 */
+	protected AbstractDirectDebitWriter(String messageType, String bicElement) {
+		super(messageType, "CstmrDrctDbtInitn");
+		cdtrAgtBIC = new Tag(3, "CdtrAgt", "FinInstnId", bicElement);
+		dbtrAgtBIC = new Tag(4, "DbtrAgt", "FinInstnId", bicElement);
+	}
+
+	@Override
+	public boolean isDirectDebit() {
+		return true;
+	}
+
+	@Override
+	public void writePaymentInfoStart(SEPAByteBuffer out, SEPAPaymentInfo paymentInfo) {
+		out.write(pmtInf.start);
+		writeElement(out, pmtInfId, paymentInfo.getPaymentInfoId(), 35);
+		out.write(pmtMtd);
+		out.write(paymentInfo.isBatchBooking() ? btchBookgTrue : btchBookgFalse);
+		writeElement(out, nbOfTxs, paymentInfo.getNumberOfTransactions());
+		writeElement(out, ctrlSum, paymentInfo.getControlSum());
+		out.write(pmtTpInf.start);
+		writeElement(out, svcLvlCd, paymentInfo.getServiceLevel());
+		writeElement(out, lclInstrmCd, paymentInfo.getLocalInstrument());
+		writeElement(out, seqTp, paymentInfo.getSequenceType());
+		out.write(pmtTpInf.end);
+		writeElement(out, reqdColltnDt, paymentInfo.getExecutionDate());
+		writeElement(out, cdtrNm, paymentInfo.getName(), 70);
+		writeElement(out, cdtrAcctIBAN, paymentInfo.getIBAN());
+		if (isEmpty(paymentInfo.getBIC()))
+			out.write(cdtrAgtNotProvided);
+		else
+			writeElement(out, cdtrAgtBIC, paymentInfo.getBIC());
+		out.write(chrgBr);
+	}
+
+	@Override
+	public void writeTransaction(SEPAByteBuffer out, SEPATransaction transaction) {
+		out.write(drctDbtTxInf.start);
+		writeElement(out, endToEndId, transaction.getEndToEndId(), 35);
+		out.write(instdAmtOpen);
+		out.writeXmlText(transaction.getCurrency());
+		out.write(ATTRIBUTE_END);
+		out.writeAscii(transaction.getAmount().toPlainString());
+		out.write(instdAmt.close);
+
+		out.write(drctDbtTx.start);
+		out.write(mndtRltdInf.start);
+		writeElement(out, mndtId, transaction.getMandateId());
+		writeElement(out, dtOfSgntr, transaction.getMandateSignatureDate());
+		out.write(amdmntInd);
+		out.write(mndtRltdInf.end);
+		out.write(cdtrSchmeIdOthr.start);
+		writeElement(out, cdtrSchmeIdOthrId, transaction.getCreditorIdentifier());
+		out.write(schmeNm);
+		out.write(cdtrSchmeIdOthr.end);
+		out.write(drctDbtTx.end);
+
+		if (isEmpty(transaction.getBIC()))
+			out.write(dbtrAgtNotProvided);
+		else
+			writeElement(out, dbtrAgtBIC, transaction.getBIC());
+		writeElement(out, dbtrNm, transaction.getName(), 70);
+		writeElement(out, dbtrAcctIBAN, transaction.getIBAN());
+		if (!isEmpty(transaction.getRemittanceInformation()))
+			writeElement(out, ustrd, transaction.getRemittanceInformation(), 140);
+		out.write(drctDbtTxInf.end);
+	}
+
+	@Override
+	public void writePaymentInfoEnd(SEPAByteBuffer out) {
+		out.write(pmtInf.end);
+	}
+
+}
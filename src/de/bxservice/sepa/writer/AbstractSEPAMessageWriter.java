@@ -0,0 +1,263 @@
+/******************************************************************************
+ * Product: iDempiere Business Suite ERP/CRM/SCM                              *
+ * This program is free software; you can redistribute it and/or modify it    *
+ * under the terms version 2 of the GNU General Public License as published   *
+ * by the Free Software Foundation. This program is distributed in the hope   *
+ * that it will be useful, but WITHOUT ANY WARRANTY; without even the implied *
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.           *
+ * See the GNU General Public License for more details.                       *
+ * You should have received a copy of the GNU General Public License along    *
+ * with this program; if not, write to the Free Software Foundation, Inc.,    *
+ * 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA.                     *
+ *****************************************************************************/
+package de.bxservice.sepa.writer;
+
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Base class of the message writers. Every tag, the namespace declaration and
+ * the fixed parts of the document are encoded to UTF-8 once, when the writer is
+ * created, so rendering a transaction is mostly a sequence of array copies.
+ *
+ * @author Diego Ruiz - Bx Service GmbH
+ */
+public abstract class AbstractSEPAMessageWriter implements SEPAMessageWriter {
+
+	private static final String INDENT = "  ";
+
+	private final String messageType;
+	private final byte[] documentStart;
+	private final byte[] documentEnd;
+	private final Tag initiationTag;
+
+	private final Tag grpHdr = new Tag(2, "GrpHdr");
+	private final Tag msgId = new Tag(3, "MsgId");
+	private final Tag creDtTm = new Tag(3, "CreDtTm");
+	private final Tag grpNbOfTxs = new Tag(3, "NbOfTxs");
+	private final Tag grpCtrlSum = new Tag(3, "CtrlSum");
+	private final Tag initgPtyNm = new Tag(3, "InitgPty", "Nm");
+
+	/**
+	 * @param messageType       e.g. pain.001.001.09
+	 * @param initiationElement CstmrCdtTrfInitn or CstmrDrctDbtInitn
+	 */
+	protected AbstractSEPAMessageWriter(String messageType, String initiationElement) {
+		this.messageType = messageType;
+		String namespace = "urn:iso:std:iso:20022:tech:xsd:" + messageType;
+		documentStart = bytes("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+				+ "<Document xmlns=\"" + namespace + "\""
+				+ " xmlns:xsi=\"http://www.w3.org/2001/XMLSchema-instance\""
+				+ " xsi:schemaLocation=\"" + namespace + " " + messageType + ".xsd\">\n");
+		documentEnd = bytes("</Document>\n");
+		initiationTag = new Tag(1, initiationElement);
+	}
+
+	@Override
+	public String getMessageType() {
+		return messageType;
+	}
+
+	@Override
+	public void writeHeader(SEPAByteBuffer out, SEPAGroupHeader header) {
+		out.write(documentStart);
+		out.write(initiationTag.start);
+		out.write(grpHdr.start);
+		writeElement(out, msgId, header.getMsgId(), 35);
+		writeElement(out, creDtTm, header.getCreationDateTime());
+		writeElement(out, grpNbOfTxs, header.getNumberOfTransactions());
+		if (header.getControlSum() != null)
+			writeElement(out, grpCtrlSum, header.getControlSum());
+		writeElement(out, initgPtyNm, header.getInitiatorName(), 70);
+		out.write(grpHdr.end);
+	}
+
+	@Override
+	public void writeFooter(SEPAByteBuffer out) {
+		out.write(initiationTag.end);
+		out.write(documentEnd);
+	}
+
+	protected static boolean isEmpty(String s) {
+		return s == null || s.isBlank();
+	}
+
+	protected static byte[] bytes(String s) {
+		return s.getBytes(StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * Writes a leaf element containing text that has to be converted to the SEPA
+	 * character set
+	 */
+	protected static void writeElement(SEPAByteBuffer out, Tag tag, String text, int maxLength) {
+		out.write(tag.open);
+		writeSEPAText(out, text, maxLength);
+		out.write(tag.close);
+	}
+
+	/**
+	 * Writes a leaf element containing a code or identifier (IBAN, BIC, date)
+	 * that is only escaped
+	 */
+	protected static void writeElement(SEPAByteBuffer out, Tag tag, String text) {
+		out.write(tag.open);
+		out.writeXmlText(text);
+		out.write(tag.close);
+	}
+
+	protected static void writeElement(SEPAByteBuffer out, Tag tag, int value) {
+		out.write(tag.open);
+		out.writeAscii(Integer.toString(value));
+		out.write(tag.close);
+	}
+
+	protected static void writeElement(SEPAByteBuffer out, Tag tag, BigDecimal value) {
+		out.write(tag.open);
+		out.writeAscii(value.toPlainString());
+		out.write(tag.close);
+	}
+
+	/**
+	 * Precompiles a complete leaf element with constant content
+	 */
+	protected static byte[] element(Tag tag, String constant) {
+		byte[] content = bytes(constant);
+		byte[] element = new byte[tag.open.length + content.length + tag.close.length];
+		System.arraycopy(tag.open, 0, element, 0, tag.open.length);
+		System.arraycopy(content, 0, element, tag.open.length, content.length);
+		System.arraycopy(tag.close, 0, element, tag.open.length + content.length, tag.close.length);
+		return element;
+	}
+
+	/**
+	 * Writes the text converted to the characters allowed in SEPA messages. The
+	 * conversion is the same as {@link de.bxservice.sepa.SEPAPaymentExport#iSEPA_ConvertSign(String)}
+	 * but escapes directly into the buffer; maxLength counts the characters of
+	 * the converted text, not the bytes.
+	 *
+	 * @param out       buffer
+	 * @param text      text, null writes nothing
+	 * @param maxLength maximum length, 0 for unlimited
+	 */
+	public static void writeSEPAText(SEPAByteBuffer out, String text, int maxLength) {
+		if (text == null)
+			return;
+		int remaining = maxLength > 0 ? maxLength : Integer.MAX_VALUE;
+		for (int i = 0, len = text.length(); i < len && remaining > 0; i++) {
+			char c = text.charAt(i);
+			String replacement = getSEPAReplacement(c);
+			if (replacement == null) {
+				out.writeXmlChar(c);
+				remaining--;
+				continue;
+			}
+			for (int j = 0; j < replacement.length() && remaining > 0; j++, remaining--)
+				out.write(replacement.charAt(j));
+		}
+	}
+
+	/**
+	 * @param text text
+	 * @return length of the text once converted by
+	 *         {@link #writeSEPAText(SEPAByteBuffer, String, int)}, the length
+	 *         maxLength is compared with
+	 */
+	public static int getSEPATextLength(CharSequence text) {
+		if (text == null)
+			return 0;
+		int length = 0;
+		for (int i = 0, len = text.length(); i < len; i++)
+			length += getSEPALength(text.charAt(i));
+		return length;
+	}
+
+	/**
+	 * @param c character
+	 * @return number of characters c is converted to
+	 */
+	public static int getSEPALength(char c) {
+		String replacement = getSEPAReplacement(c);
+		return replacement == null ? 1 : replacement.length();
+	}
+
+	/**
+	 * @return replacement of a character not allowed in SEPA messages, null if
+	 *         it is written as it is
+	 */
+	private static String getSEPAReplacement(char c) {
+		switch (c) {
+		case 'ä':
+			return "ae";
+		case 'ö':
+			return "oe";
+		case 'ü':
+			return "ue";
+		case 'Ä':
+			return "Ae";
+		case 'Ö':
+			return "Oe";
+		case 'Ü':
+			return "Ue";
+		case 'ß':
+			return "ss";
+		case 'é':
+		case 'è':
+			return "e";
+		case '&':
+			return "und";
+		default:
+			return null;
+		}
+	}
+
+	/**
+	 * An element, or a path of nested elements, at a fixed depth of the document
+	 * with its opening and closing sequences already encoded
+	 */
+	protected static final class Tag {
+		/** opening of a leaf element, text follows */
+		final byte[] open;
+		/** closing of a leaf element */
+		final byte[] close;
+		/** opening of an element with child elements */
+		final byte[] start;
+		/** closing of an element with child elements */
+		final byte[] end;
+		private final String name;
+		private final String indent;
+
+		/**
+		 * @param depth depth of the first element, Document being 0
+		 * @param path  element names, each one nested in the previous one
+		 */
+		public Tag(int depth, String... path) {
+			StringBuilder opening = new StringBuilder();
+			StringBuilder closing = new StringBuilder();
+			for (int i = 0; i < path.length - 1; i++) {
+				String pad = INDENT.repeat(depth + i);
+				opening.append(pad).append('<').append(path[i]).append(">\n");
+				closing.insert(0, pad + "</" + path[i] + ">\n");
+			}
+			name = path[path.length - 1];
+			indent = INDENT.repeat(depth + path.length - 1);
+			open = bytes(opening + indent + "<" + name + ">");
+			close = bytes("</" + name + ">\n" + closing);
+			start = bytes(opening + indent + "<" + name + ">\n");
+			end = bytes(indent + "</" + name + ">\n" + closing);
+		}
+
+		/**
+		 * @return opening sequence of the innermost element with an attribute, the
+		 *         attribute value and {@link AbstractSEPAMessageWriter#ATTRIBUTE_END}
+		 *         have to follow. Only valid for single element tags.
+		 */
+		public byte[] openWithAttribute(String attribute) {
+			return bytes(indent + "<" + name + " " + attribute + "=\"");
+		}
+	}
+
+	/** closes the attribute value and the start tag opened by {@link Tag#openWithAttribute(String)} */
+	protected static final byte[] ATTRIBUTE_END = bytes("\">");
+
+}
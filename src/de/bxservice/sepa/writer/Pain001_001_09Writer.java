@@ -0,0 +1,34 @@
+/******************************************************************************
+ * Product: iDempiere Business Suite ERP/CRM/SCM                              *
+ * This program is free software; you can redistribute it and/or modify it    *
+ * under the terms version 2 of the GNU General Public License as published   *
+ * by the Free Software Foundation. This program is distributed in the hope   *
+ * that it will be useful, but WITHOUT ANY WARRANTY; without even the implied *
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.           *
+ * See the GNU General Public License for more details.                       *
+ * You should have received a copy of the GNU General Public License along    *
+ * with this program; if not, write to the Free Software Foundation, Inc.,    *
+ * 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA.                     *
+ *****************************************************************************/
+package de.bxservice.sepa.writer;
+
+/**
+ * pain.001.001.09, the ISO 2019 credit transfer version (EPC rulebook 2023),
+ * also used for SCT Inst
+ *
+ * @author Diego Ruiz - Bx Service GmbH
+ */
+public class Pain001_001_09Writer extends AbstractCreditTransferWriter {
+
+	public static final String MESSAGE_TYPE = "pain.001.001.09";
+
+	public Pain001_001_09Writer() {
+		super(MESSAGE_TYPE, "BICFI", true);
+	}
+
+	@Override
+	public boolean isInstantPaymentSupported() {
+		return true;
+	}
+
+}
@@ -0,0 +1,28 @@
+/******************************************************************************
+ * Product: iDempiere Business Suite ERP/CRM/SCM                              *
+ * This program is free software; you can redistribute it and/or modify it    *
+ * under the terms version 2 of the GNU General Public License as published   *
+ * by the Free Software Foundation. This program is distributed in the hope   *
+ * that it will be useful, but WITHOUT ANY WARRANTY; without even the implied *
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.           *
+ * See the GNU General Public License for more details.                       *
+ * You should have received a copy of the GNU General Public License along    *
+ * with this program; if not, write to the Free Software Foundation, Inc.,    *
+ * 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA.                     *
+ *****************************************************************************/
+package de.bxservice.sepa.writer;
+
+/**
+ * pain.008.001.08, the ISO 2019 direct debit version used so far
+ *
+ * @author Diego Ruiz - Bx Service GmbH
+ */
+public class Pain008_001_08Writer extends AbstractDirectDebitWriter {
+
+	public static final String MESSAGE_TYPE = "pain.008.001.08";
+
+	public Pain008_001_08Writer() {
+		super(MESSAGE_TYPE, "BICFI");
+	}
+
+}
@@ -0,0 +1,176 @@
+/******************************************************************************
+ * Product: iDempiere Business Suite ERP/CRM/SCM                              *
+ * This program is free software; you can redistribute it and/or modify it    *
+ * under the terms version 2 of the GNU General Public License as published   *
+ * by the Free Software Foundation. This program is distributed in the hope   *
+ * that it will be useful, but WITHOUT ANY WARRANTY; without even the implied *
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.           *
+ * See the GNU General Public License for more details.                       *
+ * You should have received a copy of the GNU General Public License along    *
+ * with this program; if not, write to the Free Software Foundation, Inc.,    *
+ * 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA.                     *
+ *****************************************************************************/
+package de.bxservice.sepa.writer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Growable, unsynchronized byte buffer the message writers render into. It is
+ * meant to be reused: call {@link #reset()} instead of allocating a new one for
+ * every message.
+ *
+ * @author Diego Ruiz - Bx Service GmbH
+ */
+public final class SEPAByteBuffer {
+
+	private byte[] buf;
+	private int count;
+
+	public SEPAByteBuffer() {
+		this(8192);
+	}
+
+	public SEPAByteBuffer(int initialCapacity) {
+		buf = new byte[Math.max(initialCapacity, 16)];
+	}
+
+	private void ensureCapacity(int minCapacity) {
+		if (minCapacity > buf.length)
+			buf = Arrays.copyOf(buf, Math.max(buf.length << 1, minCapacity));
+	}
+
+	public void write(int b) {
+		ensureCapacity(count + 1);
+		buf[count++] = (byte) b;
+	}
+
+	public void write(byte[] b) {
+		write(b, 0, b.length);
+	}
+
+	public void write(byte[] b, int off, int len) {
+		ensureCapacity(count + len);
+		System.arraycopy(b, off, buf, count, len);
+		count += len;
+	}
+
+	public void write(SEPAByteBuffer other) {
+		write(other.buf, 0, other.count);
+	}
+
+	/**
+	 * Writes a sequence that is known to be plain ASCII (numbers, dates, codes)
+	 */
+	public void writeAscii(CharSequence s) {
+		int len = s.length();
+		ensureCapacity(count + len);
+		for (int i = 0; i < len; i++)
+			buf[count++] = (byte) s.charAt(i);
+	}
+
+	/**
+	 * Writes a character as UTF-8, escaping the XML markup characters
+	 *
+	 * @param c character
+	 */
+	public void writeXmlChar(char c) {
+		switch (c) {
+		case '&':
+			writeAscii("&amp;");
+			return;
+		case '<':
+			writeAscii("&lt;");
+			return;
+		case '>':
+			writeAscii("&gt;");
+			return;
+		case '"':
+			writeAscii("&quot;");
+			return;
+		case '\'':
+			writeAscii("&apos;");
+			return;
+		default:
+			writeUtf8(c);
+		}
+	}
+
+	/**
+	 * Writes the text as UTF-8, escaping the XML markup characters
+	 */
+	public void writeXmlText(CharSequence s) {
+		if (s == null)
+			return;
+		for (int i = 0, len = s.length(); i < len; i++)
+			writeXmlChar(s.charAt(i));
+	}
+
+	private void writeUtf8(char c) {
+		if (c < 0x80) {
+			write(c);
+		} else if (c < 0x800) {
+			ensureCapacity(count + 2);
+			buf[count++] = (byte) (0xC0 | (c >> 6));
+			buf[count++] = (byte) (0x80 | (c & 0x3F));
+		} else if (Character.isSurrogate(c)) {
+			// characters outside the BMP are not part of the SEPA character set
+			write('?');
+		} else {
+			ensureCapacity(count + 3);
+			buf[count++] = (byte) (0xE0 | (c >> 12));
+			buf[count++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+			buf[count++] = (byte) (0x80 | (c & 0x3F));
+		}
+	}
+
+	public int size() {
+		return count;
+	}
+
+	public void reset() {
+		count = 0;
+	}
+
+	public byte[] toByteArray() {
+		return Arrays.copyOf(buf, count);
+	}
+
+	/**
+	 * @return a read-only view on the current content, valid until the next write
+	 */
+	public ByteBuffer asByteBuffer() {
+		return ByteBuffer.wrap(buf, 0, count).asReadOnlyBuffer();
+	}
+
+	public void writeTo(OutputStream out) throws IOException {
+		out.write(buf, 0, count);
+	}
+
+	/**
+	 * @return stream appending to this buffer, e.g. to collect what a renderer
+	 *         writes
+	 */
+	public OutputStream asOutputStream() {
+		return new OutputStream() {
+			@Override
+			public void write(int b) {
+				SEPAByteBuffer.this.write(b);
+			}
+
+			@Override
+			public void write(byte[] b, int off, int len) {
+				SEPAByteBuffer.this.write(b, off, len);
+			}
+		};
+	}
+
+	@Override
+	public String toString() {
+		return new String(buf, 0, count, StandardCharsets.UTF_8);
+	}
+
+}
@@ -0,0 +1,76 @@
+/******************************************************************************
+ * Product: iDempiere Business Suite ERP/CRM/SCM                              *
+ * This program is free software; you can redistribute it and/or modify it    *
+ * under the terms version 2 of the GNU General Public License as published   *
+ * by the Free Software Foundation. This program is distributed in the hope   *
+ * that it will be useful, but WITHOUT ANY WARRANTY; without even the implied *
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.           *
+ * See the GNU General Public License for more details.                       *
+ * You should have received a copy of the GNU General Public License along    *
+ * with this program; if not, write to the Free Software Foundation, Inc.,    *
+ * 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA.                     *
+ *****************************************************************************/
+package de.bxservice.sepa.writer;
+
+import java.math.BigDecimal;
+
+/**
+ * Content of the GrpHdr element of a SEPA message
+ *
+ * @author Diego Ruiz - Bx Service GmbH
+ */
+public class SEPAGroupHeader {
+
+	private String msgId;
+	private String creationDateTime;
+	private int numberOfTransactions;
+	private BigDecimal controlSum;
+	private String initiatorName;
+
+	public String getMsgId() {
+		return msgId;
+	}
+
+	public void setMsgId(String msgId) {
+		this.msgId = msgId;
+	}
+
+	/**
+	 * @return ISO date time (yyyy-MM-ddTHH:mm:ss...)
+	 */
+	public String getCreationDateTime() {
+		return creationDateTime;
+	}
+
+	public void setCreationDateTime(String creationDateTime) {
+		this.creationDateTime = creationDateTime;
+	}
+
+	public int getNumberOfTransactions() {
+		return numberOfTransactions;
+	}
+
+	public void setNumberOfTransactions(int numberOfTransactions) {
+		this.numberOfTransactions = numberOfTransactions;
+	}
+
+	/**
+	 * @return control sum or null when the message does not carry one in the header
+	 */
+	public BigDecimal getControlSum() {
+		return controlSum;
+	}
+
+	public void setControlSum(BigDecimal controlSum) {
+		this.controlSum = controlSum;
+	}
+
+	public String getInitiatorName() {
+		return initiatorName;
+	}
+
+	public void setInitiatorName(String initiatorName) {
+		this.initiatorName = initiatorName;
+	}
+
+}
@@ -0,0 +1,63 @@
+/******************************************************************************
+ * Product: iDempiere Business Suite ERP/CRM/SCM                              *
+ * This program is free software; you can redistribute it and/or modify it    *
+ * under the terms version 2 of the GNU General Public License as published   *
+ * by the Free Software Foundation. This program is distributed in the hope   *
+ * that it will be useful, but WITHOUT ANY WARRANTY; without even the implied *
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.           *
+ * See the GNU General Public License for more details.                       *
+ * You should have received a copy of the GNU General Public License along    *
+ * with this program; if not, write to the Free Software Foundation, Inc.,    *
+ * 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA.                     *
+ *****************************************************************************/
+package de.bxservice.sepa.writer;
+
+/**
+ * Renders one ISO 20022 message version (e.g. pain.001.001.09). A message is
+ * written as header, one or more payment info blocks with their transactions
+ * and footer.
+ * <p>
+ * Implementations must be stateless so one instance can be shared by all
+ * threads. Register additional versions with
+ * {@link SEPAMessageWriters#register(SEPAMessageWriter)}.
+ *
+ * @author Diego Ruiz - Bx Service GmbH
+ */
+public interface SEPAMessageWriter {
+
+	/**
+	 * @return message identifier, e.g. pain.008.001.08
+	 */
+	public String getMessageType();
+
+	/**
+	 * @return true for pain.008 (direct debit), false for pain.001 (credit transfer)
+	 */
+	public boolean isDirectDebit();
+
+	/**
+	 * @return true if the version can carry SEPA Instant Credit Transfers
+	 *         (LclInstrm INST), pain.001.001.09 and later
+	 */
+	public default boolean isInstantPaymentSupported() {
+		return false;
+	}
+
+	/**
+	 * Writes the XML declaration, the Document and initiation elements and the
+	 * group header
+	 */
+	public void writeHeader(SEPAByteBuffer out, SEPAGroupHeader header);
+
+	/**
+	 * Opens a PmtInf block and writes everything before the first transaction
+	 */
+	public void writePaymentInfoStart(SEPAByteBuffer out, SEPAPaymentInfo paymentInfo);
+
+	public void writeTransaction(SEPAByteBuffer out, SEPATransaction transaction);
+
+	public void writePaymentInfoEnd(SEPAByteBuffer out);
+
+	public void writeFooter(SEPAByteBuffer out);
+
+}
@@ -0,0 +1,80 @@
+/******************************************************************************
+ * Product: iDempiere Business Suite ERP/CRM/SCM                              *
+ * This program is free software; you can redistribute it and/or modify it    *
+ * under the terms version 2 of the GNU General Public License as published   *
+ * by the Free Software Foundation. This program is distributed in the hope   *
+ * that it will be useful, but WITHOUT ANY WARRANTY; without even the implied *
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.           *
+ * See the GNU General Public License for more details.                       *
+ * You should have received a copy of the GNU General Public License along    *
+ * with this program; if not, write to the Free Software Foundation, Inc.,    *
+ * 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA.                     *
+ *****************************************************************************/
+package de.bxservice.sepa.writer;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Registry of the available message versions. Other bundles can add versions
+ * for their banks with {@link #register(SEPAMessageWriter)}.
+ *
+ * @author Diego Ruiz - Bx Service GmbH
+ */
+public class SEPAMessageWriters {
+
+	/** Used when the bank account does not define a credit transfer version */
+	public static final String DEFAULT_CREDIT_TRANSFER = Pain001_003_03Writer.MESSAGE_TYPE;
+	/** Used when the bank account does not define a direct debit version */
+	public static final String DEFAULT_DIRECT_DEBIT = Pain008_001_08Writer.MESSAGE_TYPE;
+
+	private static final Map<String, SEPAMessageWriter> s_writers = new ConcurrentHashMap<>();
+
+	static {
+		register(new Pain001_003_03Writer());
+		register(new Pain001_001_09Writer());
+		register(new Pain008_001_02Writer());
+		register(new Pain008_001_08Writer());
+	}
+
+	private SEPAMessageWriters() {
+	}
+
+	/**
+	 * Adds or replaces the writer for its message type
+	 *
+	 * @param writer writer
+	 */
+	public static void register(SEPAMessageWriter writer) {
+		s_writers.put(writer.getMessageType(), writer);
+	}
+
+	/**
+	 * @param messageType e.g. pain.001.001.09
+	 * @return writer or null if the version is not supported
+	 */
+	public static SEPAMessageWriter get(String messageType) {
+		if (messageType == null)
+			return null;
+		return s_writers.get(messageType.trim());
+	}
+
+	/**
+	 * @param messageType configured version, empty for the default
+	 * @param directDebit true for pain.008, false for pain.001
+	 * @return writer for the version
+	 * @throws IllegalArgumentException if the version is unknown or of the wrong kind
+	 */
+	public static SEPAMessageWriter get(String messageType, boolean directDebit) {
+		if (messageType == null || messageType.isBlank())
+			messageType = directDebit ? DEFAULT_DIRECT_DEBIT : DEFAULT_CREDIT_TRANSFER;
+		SEPAMessageWriter writer = get(messageType);
+		if (writer == null)
+			throw new IllegalArgumentException("SEPA message version not supported: " + messageType);
+		if (writer.isDirectDebit() != directDebit)
+			throw new IllegalArgumentException(messageType + " is not a "
+					+ (directDebit ? "direct debit" : "credit transfer") + " message");
+		return writer;
+	}
+
+}
@@ -0,0 +1,222 @@
+/******************************************************************************
+ * Product: iDempiere Business Suite ERP/CRM/SCM                              *
+ * This program is free software; you can redistribute it and/or modify it    *
+ * under the terms version 2 of the GNU General Public License as published   *
+ * by the Free Software Foundation. This program is distributed in the hope   *
+ * that it will be useful, but WITHOUT ANY WARRANTY; without even the implied *
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.           *
+ * See the GNU General Public License for more details.                       *
+ * You should have received a copy of the GNU General Public License along    *
+ * with this program; if not, write to the Free Software Foundation, Inc.,    *
+ * 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA.                     *
+ *****************************************************************************/
+package de.bxservice.sepa.writer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+/**
+ * Renders the transactions of a PmtInf block in chunks on a fork-join pool.
+ * <p>
+ * The thread that loads the transactions adds them in order. Every full chunk
+ * is rendered into its own buffer while the next one is loaded, and rendered
+ * chunks are written to the output in the original order as soon as they and
+ * all chunks before them are done. As the writers are stateless the output is
+ * the same as rendering all transactions on one thread.
+ * <p>
+ * At most twice the parallelism of the pool chunks are in flight; when the
+ * limit is reached, adding waits for the oldest chunk and writes it. Memory
+ * is bounded by the chunks in flight, not by the size of the file.
+ * <p>
+ * Only the rendering is parallel. Loading stays on the calling thread, as the
+ * checks are read in the transaction of the export and its connection cannot
+ * be shared, so an export is never faster than its database reads.
+ * <p>
+ * One renderer is used for all blocks of an export: the chunk buffers are
+ * kept after they were written and reused for the next chunks. If the export
+ * fails, {@link #cancel()} stops the chunks still rendering.
+ * <p>
+ * Not thread-safe, only the loading thread uses a renderer.
+ *
+ * @author Diego Ruiz - Bx Service GmbH
+ */
+public class SEPAParallelRenderer {
+
+	/** Transactions per chunk if nothing else is configured */
+	public static final int DEFAULT_CHUNK_SIZE = 500;
+
+	/** Bytes of a rendered transaction, to size the chunk buffers */
+	private static final int TRANSACTION_SIZE = 1024;
+	/**
+	 * Bytes rendered on the calling thread before they are written, when there
+	 * is no pool
+	 */
+	private static final int FLUSH_SIZE = 64 * TRANSACTION_SIZE;
+
+	private final SEPAMessageWriter writer;
+	private final int chunkSize;
+	private final ForkJoinPool pool;
+	private final int maxChunksInFlight;
+	/** chunks submitted and not yet written, oldest first */
+	private final Deque<ForkJoinTask<SEPAByteBuffer>> chunks = new ArrayDeque<>();
+	/** buffers of chunks that were written, taken again by the next chunks */
+	private final Deque<SEPAByteBuffer> buffers = new ArrayDeque<>();
+	private List<SEPATransaction> current;
+	/** transactions rendered on the calling thread when there is no pool */
+	private SEPAByteBuffer rendered;
+	private int numberOfTransactions;
+
+	/**
+	 * @param writer    writer of the message
+	 * @param chunkSize transactions per chunk, 0 or less renders everything on the
+	 *                  calling thread
+	 * @param pool      pool the chunks are rendered on, null renders on the
+	 *                  calling thread
+	 */
+	public SEPAParallelRenderer(SEPAMessageWriter writer, int chunkSize, ForkJoinPool pool) {
+		this.writer = writer;
+		this.chunkSize = chunkSize > 0 ? chunkSize : Integer.MAX_VALUE;
+		this.pool = chunkSize > 0 && pool != null && pool.getParallelism() > 1 ? pool : null;
+		maxChunksInFlight = this.pool != null ? 2 * this.pool.getParallelism() : 0;
+		current = new ArrayList<>(Math.min(this.chunkSize, DEFAULT_CHUNK_SIZE));
+		if (this.pool == null)
+			rendered = new SEPAByteBuffer(FLUSH_SIZE + 4 * TRANSACTION_SIZE);
+	}
+
+	/**
+	 * Renders on the common pool
+	 *
+	 * @param writer    writer of the message
+	 * @param chunkSize transactions per chunk, 0 or less renders everything on the
+	 *                  calling thread
+	 */
+	public SEPAParallelRenderer(SEPAMessageWriter writer, int chunkSize) {
+		this(writer, chunkSize, ForkJoinPool.commonPool());
+	}
+
+	/**
+	 * Adds the next transaction, a full chunk starts rendering. Chunks that are
+	 * done are written in order, and if too many are in flight the oldest is
+	 * waited for.
+	 *
+	 * @param out output of the block
+	 * @throws IOException if the output cannot be written, the other chunks are
+	 *                     cancelled
+	 */
+	public void add(SEPATransaction transaction, OutputStream out) throws IOException {
+		numberOfTransactions++;
+		try {
+			if (pool == null) {
+				writer.writeTransaction(rendered, transaction);
+				if (rendered.size() >= FLUSH_SIZE) {
+					rendered.writeTo(out);
+					rendered.reset();
+				}
+				return;
+			}
+			current.add(transaction);
+			if (current.size() >= chunkSize) {
+				List<SEPATransaction> chunk = current;
+				SEPAByteBuffer buffer = takeBuffer();
+				current = new ArrayList<>(chunkSize);
+				chunks.add(pool.submit(ForkJoinTask.adapt(() -> render(chunk, buffer))));
+				while (!chunks.isEmpty() && (chunks.size() > maxChunksInFlight || chunks.peekFirst().isDone()))
+					writeOldest(out);
+			}
+		} catch (IOException | RuntimeException | Error e) {
+			cancel();
+			throw e;
+		}
+	}
+
+	/**
+	 * @return transactions added since the last {@link #writeTo(OutputStream)}
+	 */
+	public int getNumberOfTransactions() {
+		return numberOfTransactions;
+	}
+
+	/**
+	 * Writes the transactions that were not written yet in the order they were
+	 * added. The last chunk is rendered by the calling thread, which would
+	 * otherwise only wait. The renderer is empty afterwards and can be used for
+	 * the next block.
+	 *
+	 * @param out output of the block
+	 * @throws IOException if the output cannot be written, the other chunks are
+	 *                     cancelled
+	 * @throws RuntimeException if a chunk failed, the other chunks are cancelled
+	 */
+	public void writeTo(OutputStream out) throws IOException {
+		try {
+			if (pool == null) {
+				rendered.writeTo(out);
+				rendered.reset();
+				numberOfTransactions = 0;
+				return;
+			}
+
+			SEPAByteBuffer last = current.isEmpty() ? null : render(current, takeBuffer());
+			current.clear();
+
+			while (!chunks.isEmpty())
+				writeOldest(out);
+
+			if (last != null) {
+				last.writeTo(out);
+				releaseBuffer(last);
+			}
+			numberOfTransactions = 0;
+		} catch (IOException | RuntimeException | Error e) {
+			cancel();
+			throw e;
+		}
+	}
+
+	/**
+	 * Drops the transactions added so far and cancels the chunks that are still
+	 * rendering, e.g. when loading a transaction failed
+	 */
+	public void cancel() {
+		for (ForkJoinTask<SEPAByteBuffer> chunk : chunks)
+			chunk.cancel(false);
+		chunks.clear();
+		current.clear();
+		if (rendered != null)
+			rendered.reset();
+		numberOfTransactions = 0;
+	}
+
+	/**
+	 * Waits for the oldest chunk and writes it, its buffer is reused
+	 */
+	private void writeOldest(OutputStream out) throws IOException {
+		SEPAByteBuffer buffer = chunks.peekFirst().join();
+		buffer.writeTo(out);
+		chunks.pollFirst();
+		releaseBuffer(buffer);
+	}
+
+	private SEPAByteBuffer takeBuffer() {
+		SEPAByteBuffer buffer = buffers.poll();
+		return buffer != null ? buffer : new SEPAByteBuffer(Math.min(chunkSize, DEFAULT_CHUNK_SIZE) * TRANSACTION_SIZE);
+	}
+
+	private void releaseBuffer(SEPAByteBuffer buffer) {
+		buffer.reset();
+		buffers.push(buffer);
+	}
+
+	private SEPAByteBuffer render(List<SEPATransaction> chunk, SEPAByteBuffer buffer) {
+		for (SEPATransaction transaction : chunk)
+			writer.writeTransaction(buffer, transaction);
+		return buffer;
+	}
+
+}
@@ -0,0 +1,138 @@
+/******************************************************************************
+ * Product: iDempiere Business Suite ERP/CRM/SCM                              *
+ * This program is free software; you can redistribute it and/or modify it    *
+ * under the terms version 2 of the GNU General Public License as published   *
+ * by the Free Software Foundation. This program is distributed in the hope   *
+ * that it will be useful, but WITHOUT ANY WARRANTY; without even the implied *
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.           *
+ * See the GNU General Public License for more details.                       *
+ * You should have received a copy of the GNU General Public License along    *
+ * with this program; if not, write to the Free Software Foundation, Inc.,    *
+ * 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA.                     *
+ *****************************************************************************/
+package de.bxservice.sepa.writer;
+
+import java.math.BigDecimal;
+
+/**
+ * Content of a PmtInf block. For credit transfers the account is the one of the
+ * debtor (our own account), for direct debits it is the one of the creditor
+ * (again our own account).
+ *
+ * @author Diego Ruiz - Bx Service GmbH
+ */
+public class SEPAPaymentInfo {
+
+	private String paymentInfoId;
+	private boolean batchBooking = true;
+	private int numberOfTransactions;
+	private BigDecimal controlSum = BigDecimal.ZERO;
+	private String serviceLevel = "SEPA";
+	private String localInstrument;
+	private String sequenceType;
+	private String executionDate;
+	private String name;
+	private String iban;
+	private String bic;
+
+	public String getPaymentInfoId() {
+		return paymentInfoId;
+	}
+
+	public void setPaymentInfoId(String paymentInfoId) {
+		this.paymentInfoId = paymentInfoId;
+	}
+
+	public boolean isBatchBooking() {
+		return batchBooking;
+	}
+
+	public void setBatchBooking(boolean batchBooking) {
+		this.batchBooking = batchBooking;
+	}
+
+	public int getNumberOfTransactions() {
+		return numberOfTransactions;
+	}
+
+	public void setNumberOfTransactions(int numberOfTransactions) {
+		this.numberOfTransactions = numberOfTransactions;
+	}
+
+	public BigDecimal getControlSum() {
+		return controlSum;
+	}
+
+	public void setControlSum(BigDecimal controlSum) {
+		this.controlSum = controlSum;
+	}
+
+	/**
+	 * @return SvcLvl code, SEPA by default
+	 */
+	public String getServiceLevel() {
+		return serviceLevel;
+	}
+
+	public void setServiceLevel(String serviceLevel) {
+		this.serviceLevel = serviceLevel;
+	}
+
+	/**
+	 * @return LclInstrm code (CORE, B2B, INST) or null
+	 */
+	public String getLocalInstrument() {
+		return localInstrument;
+	}
+
+	public void setLocalInstrument(String localInstrument) {
+		this.localInstrument = localInstrument;
+	}
+
+	/**
+	 * @return SeqTp (FRST, RCUR), direct debit only
+	 */
+	public String getSequenceType() {
+		return sequenceType;
+	}
+
+	public void setSequenceType(String sequenceType) {
+		this.sequenceType = sequenceType;
+	}
+
+	/**
+	 * @return requested execution or collection date as yyyy-MM-dd
+	 */
+	public String getExecutionDate() {
+		return executionDate;
+	}
+
+	public void setExecutionDate(String executionDate) {
+		this.executionDate = executionDate;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public void setName(String name) {
+		this.name = name;
+	}
+
+	public String getIBAN() {
+		return iban;
+	}
+
+	public void setIBAN(String iban) {
+		this.iban = iban;
+	}
+
+	public String getBIC() {
+		return bic;
+	}
+
+	public void setBIC(String bic) {
+		this.bic = bic;
+	}
+
+}
@@ -0,0 +1,128 @@
+/******************************************************************************
+ * Product: iDempiere Business Suite ERP/CRM/SCM                              *
+ * This program is free software; you can redistribute it and/or modify it    *
+ * under the terms version 2 of the GNU General Public License as published   *
+ * by the Free Software Foundation. This program is distributed in the hope   *
+ * that it will be useful, but WITHOUT ANY WARRANTY; without even the implied *
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.           *
+ * See the GNU General Public License for more details.                       *
+ * You should have received a copy of the GNU General Public License along    *
+ * with this program; if not, write to the Free Software Foundation, Inc.,    *
+ * 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA.                     *
+ *****************************************************************************/
+package de.bxservice.sepa.writer;
+
+import java.math.BigDecimal;
+
+/**
+ * One CdtTrfTxInf or DrctDbtTxInf entry. All values are loaded before the
+ * rendering starts so the writers never touch the database.
+ *
+ * @author Diego Ruiz - Bx Service GmbH
+ */
+public class SEPATransaction {
+
+	private String endToEndId;
+	private BigDecimal amount;
+	private String currency;
+	private String name;
+	private String iban;
+	private String bic;
+	private String remittanceInformation;
+	private String mandateId;
+	private String mandateSignatureDate;
+	private String creditorIdentifier;
+
+	public String getEndToEndId() {
+		return endToEndId;
+	}
+
+	public void setEndToEndId(String endToEndId) {
+		this.endToEndId = endToEndId;
+	}
+
+	public BigDecimal getAmount() {
+		return amount;
+	}
+
+	public void setAmount(BigDecimal amount) {
+		this.amount = amount;
+	}
+
+	/**
+	 * @return ISO currency code
+	 */
+	public String getCurrency() {
+		return currency;
+	}
+
+	public void setCurrency(String currency) {
+		this.currency = currency;
+	}
+
+	/**
+	 * @return name of the creditor (credit transfer) or debtor (direct debit)
+	 */
+	public String getName() {
+		return name;
+	}
+
+	public void setName(String name) {
+		this.name = name;
+	}
+
+	public String getIBAN() {
+		return iban;
+	}
+
+	public void setIBAN(String iban) {
+		this.iban = iban;
+	}
+
+	public String getBIC() {
+		return bic;
+	}
+
+	public void setBIC(String bic) {
+		this.bic = bic;
+	}
+
+	/**
+	 * @return unstructured remittance information (Ustrd)
+	 */
+	public String getRemittanceInformation() {
+		return remittanceInformation;
+	}
+
+	public void setRemittanceInformation(String remittanceInformation) {
+		this.remittanceInformation = remittanceInformation;
+	}
+
+	public String getMandateId() {
+		return mandateId;
+	}
+
+	public void setMandateId(String mandateId) {
+		this.mandateId = mandateId;
+	}
+
+	/**
+	 * @return mandate signature date as yyyy-MM-dd
+	 */
+	public String getMandateSignatureDate() {
+		return mandateSignatureDate;
+	}
+
+	public void setMandateSignatureDate(String mandateSignatureDate) {
+		this.mandateSignatureDate = mandateSignatureDate;
+	}
+
+	public String getCreditorIdentifier() {
+		return creditorIdentifier;
+	}
+
+	public void setCreditorIdentifier(String creditorIdentifier) {
+		this.creditorIdentifier = creditorIdentifier;
+	}
+
+}